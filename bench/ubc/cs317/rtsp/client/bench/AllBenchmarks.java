@@ -0,0 +1,41 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.bench;
+
+import ubc.cs317.rtsp.client.model.FrameBenchmark;
+import ubc.cs317.rtsp.client.net.FrameBufferBenchmark;
+import ubc.cs317.rtsp.client.net.RTPIngestBenchmark;
+import ubc.cs317.rtsp.client.net.RTPParseBenchmark;
+import ubc.cs317.rtsp.client.net.RTSPMessageBenchmark;
+
+/**
+ * Runs every benchmark of the client hot paths in sequence, in the same JVM.
+ * To compare a change, run this class before and after it on the same machine
+ * and compare the ns/op and B/op columns; individual benchmarks can also be
+ * run on their own through their main methods.
+ *
+ * These benchmarks use BenchmarkRunner and need no dependencies; the JMH
+ * versions (run with <code>mvn -Pjmh verify</code>) are preferred whenever
+ * they can be built.
+ */
+public class AllBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		RTPParseBenchmark.main(args);
+		RTPIngestBenchmark.main(args);
+		FrameBufferBenchmark.main(args);
+		RTSPMessageBenchmark.main(args);
+		FrameBenchmark.main(args);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal harness for micro-benchmarks of the client hot paths, kept as an
+ * offline fallback for when the JMH benchmarks (in the jmh directory, run
+ * with <code>mvn -Pjmh verify</code>) can't be built. Each benchmark is a
+ * Runnable executed repeatedly in the current thread: a warm-up phase lets the
+ * JIT compile the code, and the measured phase reports throughput and, on
+ * JVMs that count allocations per thread (such as HotSpot), the number of
+ * bytes allocated per operation.
+ *
+ * Unlike JMH, benchmarks are not run in a forked JVM and their results are
+ * not consumed by a blackhole, so the figures are only meaningful when
+ * comparing two versions of the same code on the same machine.
+ */
+public class BenchmarkRunner {
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory
+			.getThreadMXBean();
+
+	private final int warmupIterations;
+	private final int measuredIterations;
+
+	/**
+	 * Creates a new benchmark runner.
+	 *
+	 * @param warmupIterations
+	 *            The number of times each benchmark runs before measuring.
+	 * @param measuredIterations
+	 *            The number of times each benchmark runs while measuring.
+	 */
+	public BenchmarkRunner(int warmupIterations, int measuredIterations) {
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+	}
+
+	/**
+	 * Runs a benchmark and prints its results to the standard output.
+	 *
+	 * @param name
+	 *            The name of the benchmark, as printed in the results.
+	 * @param operation
+	 *            The operation being measured.
+	 */
+	public void run(String name, Runnable operation) {
+
+		for (int i = 0; i < warmupIterations; i++)
+			operation.run();
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = getAllocatedBytes(threadId);
+		long timeBefore = System.nanoTime();
+
+		for (int i = 0; i < measuredIterations; i++)
+			operation.run();
+
+		long elapsed = System.nanoTime() - timeBefore;
+		double allocated = allocatedBefore < 0 ? Double.NaN
+				: getAllocatedBytes(threadId) - allocatedBefore;
+
+		System.out.printf("%-40s %14.1f ops/s %10.1f ns/op %12.1f B/op%n",
+				name, measuredIterations * 1e9 / elapsed, (double) elapsed
+						/ measuredIterations, allocated / measuredIterations);
+	}
+
+	/**
+	 * Returns the number of bytes allocated by a thread so far.
+	 *
+	 * @return The number of bytes, or -1 if the JVM doesn't count them.
+	 */
+	private static long getAllocatedBytes(long threadId) {
+		if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) THREAD_BEAN)
+					.getThreadAllocatedBytes(threadId);
+		return -1;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.bench;
+
+import java.io.IOException;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.headless.HeadlessClient;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.metrics.TextMetricsExporter;
+import ubc.cs317.rtsp.server.LoopbackServer;
+import ubc.cs317.rtsp.server.SyntheticFrameSource;
+
+/**
+ * Plays several synthetic streams end to end, from a LoopbackServer to a
+ * HeadlessClient running in the same JVM, and prints the statistics of each
+ * stream and the client metrics. Since the server uses a fixed seed for its
+ * simulated impairments, runs with the same arguments are directly
+ * comparable.
+ *
+ * Usage: <code>LoopbackBenchmark [streams [fps [lossRate [reorderRate
+ * [jitterMs [frames [udp|tcp [maxPayload [width height [raw|rfc2435]]]]]]]]]]
+ * </code>, where <code>tcp</code> streams the video interleaved in the RTSP
+ * connections, frames larger than <code>maxPayload</code> bytes are sent in
+ * several packets, and <code>rfc2435</code> sends frames in the standard RTP
+ * JPEG format instead of as complete JPEG images.
+ */
+public class LoopbackBenchmark {
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+
+		System.setProperty("java.awt.headless", "true");
+
+		int streams = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		double frameRate = args.length > 1 ? Double.parseDouble(args[1]) : 25;
+		double lossRate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+		double reorderRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+		long jitter = args.length > 4 ? Long.parseLong(args[4]) : 0;
+		int frames = args.length > 5 ? Integer.parseInt(args[5]) : 250;
+		boolean interleaved = args.length > 6 && args[6].equals("tcp");
+		int maximumPayloadSize = args.length > 7 ? Integer.parseInt(args[7])
+				: 0;
+		int width = args.length > 9 ? Integer.parseInt(args[8]) : 320;
+		int height = args.length > 9 ? Integer.parseInt(args[9]) : 240;
+		boolean rfc2435 = args.length > 10 && args[10].equals("rfc2435");
+
+		LoopbackServer server = new LoopbackServer(0,
+				new SyntheticFrameSource(width, height, frames));
+		server.setFrameRate(frameRate);
+		server.setLossRate(lossRate);
+		server.setReorderRate(reorderRate);
+		server.setJitter(jitter);
+		server.setMaximumPayloadSize(maximumPayloadSize);
+		server.setRFC2435(rfc2435);
+		server.start();
+
+		HeadlessClient client = new HeadlessClient("localhost",
+				server.getPort());
+		client.setIdleTimeout(2000);
+		client.setInterleaved(interleaved);
+		try {
+			for (int i = 0; i < streams; i++)
+				client.open("synthetic.Mjpeg");
+			client.playAll();
+		} catch (RTSPException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} finally {
+			server.stop();
+		}
+
+		client.printReport();
+		new TextMetricsExporter().export(MetricsRegistry.getDefault(),
+				System.out);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.metrics.TextMetricsExporter;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FrameDecoder;
+import ubc.cs317.rtsp.client.model.Session;
+import ubc.cs317.rtsp.client.model.listener.SessionListener;
+import ubc.cs317.rtsp.client.recording.RecordingSource;
+import ubc.cs317.rtsp.client.recording.StreamRecorder;
+import ubc.cs317.rtsp.server.SyntheticFrameSource;
+
+/**
+ * Replays a recording through a Session and decodes every frame in the thread
+ * that delivers it, to measure how fast the decoding stack can go without the
+ * network. Without a recording, synthetic frames are recorded first into a
+ * temporary directory. The replay speed defaults to 0 (zero), i.e., as fast
+ * as frames are decoded.
+ *
+ * Usage: <code>ReplayBenchmark [speed [directory video]]</code> or
+ * <code>ReplayBenchmark [speed [frames [width height]]]</code>.
+ */
+public class ReplayBenchmark {
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException, RTSPException {
+
+		System.setProperty("java.awt.headless", "true");
+
+		double speed = args.length > 0 ? Double.parseDouble(args[0]) : 0;
+		File directory;
+		String videoName;
+		if (args.length == 3 && new File(args[1]).isDirectory()) {
+			directory = new File(args[1]);
+			videoName = args[2];
+		} else {
+			int frames = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+			int width = args.length > 3 ? Integer.parseInt(args[2]) : 640;
+			int height = args.length > 3 ? Integer.parseInt(args[3]) : 480;
+			directory = createRecording(frames, width, height);
+			videoName = "synthetic.Mjpeg";
+		}
+
+		final FrameDecoder decoder = new FrameDecoder(4);
+		final long[] decoded = new long[2];
+		Session session = new Session(RecordingSource.factory(directory, speed));
+		session.addSessionListener(new SessionListener() {
+			@Override
+			public void exceptionThrown(RTSPException exception) {
+				System.err.println(exception.getMessage());
+			}
+
+			@Override
+			public void frameReceived(Frame frame) {
+				if (frame == null)
+					return;
+				try {
+					BufferedImage image = decoder.decode(frame, 0, 0);
+					decoder.recycle(image);
+					decoded[0]++;
+				} catch (IOException e) {
+					decoded[1]++;
+				}
+			}
+
+			@Override
+			public void videoNameChanged(String videoName) {
+			}
+		});
+
+		session.open(videoName).await();
+		long start = System.nanoTime();
+		session.play().await();
+		long previous = -1;
+		while (true) {
+			Thread.sleep(200);
+			long current;
+			// Frames are delivered with the lock of the session held.
+			synchronized (session) {
+				current = decoded[0] + decoded[1];
+			}
+			if (current == previous)
+				break;
+			previous = current;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9 - 0.2;
+		session.close().await();
+		session.closeConnection();
+
+		System.out.printf("%d frames decoded, %d failed, %.1f frames/s%n",
+				decoded[0], decoded[1], decoded[0] / seconds);
+		new TextMetricsExporter().export(MetricsRegistry.getDefault(),
+				System.out);
+		System.out.println();
+	}
+
+	/**
+	 * Records synthetic frames, as if they had been received, into a new
+	 * temporary directory.
+	 */
+	private static File createRecording(int frames, int width, int height)
+			throws IOException, InterruptedException {
+		File directory = File.createTempFile("replay", "");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+
+		byte[][] payloads = new SyntheticFrameSource(width, height, frames)
+				.getFrames("synthetic.Mjpeg");
+		StreamRecorder recorder = new StreamRecorder(directory,
+				StreamRecorder.DEFAULT_SEGMENT_SIZE,
+				StreamRecorder.DEFAULT_INDEX_CAPACITY, frames + 1);
+		recorder.videoNameChanged("synthetic.Mjpeg");
+		for (int i = 0; i < payloads.length; i++)
+			recorder.frameReceived(new Frame((byte) 26, true, (short) i,
+					i * 40, payloads[i]));
+		recorder.close();
+		for (File file : recorder.getSegmentFiles())
+			file.deleteOnExit();
+		return directory;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import ubc.cs317.rtsp.client.bench.BenchmarkRunner;
+
+/**
+ * Measures the Frame operations used on every received frame: creating a
+ * frame with its own copy of the payload, reading the payload (as a copy and
+ * as a read-only view), and decoding a JPEG payload, both through
+ * Frame.getImage (the original path, which decodes through the AWT Toolkit)
+ * and through FrameDecoder. The JPEG is generated when the benchmark starts,
+ * so no video file is needed.
+ *
+ * Note that the Toolkit decodes images in its own threads, so the allocation
+ * reported for frame.getImage does not include the decoding itself.
+ */
+public class FrameBenchmark {
+
+	private static final int RTP_HEADER_LENGTH = 12;
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+
+	private static Frame lastFrame;
+	private static byte[] lastPayload;
+	private static ByteBuffer lastBuffer;
+	private static Image lastImage;
+
+	public static void main(String[] args) throws IOException {
+
+		System.setProperty("java.awt.headless", "true");
+
+		byte[] jpeg = createJPEG();
+		final byte[] packet = new byte[RTP_HEADER_LENGTH + jpeg.length];
+		System.arraycopy(jpeg, 0, packet, RTP_HEADER_LENGTH, jpeg.length);
+		final Frame frame = new Frame((byte) 26, true, (short) 1, 40, jpeg);
+		System.out.println("JPEG payload: " + jpeg.length + " bytes");
+
+		BenchmarkRunner runner = new BenchmarkRunner(200000, 1000000);
+		runner.run("frame.construct", new Runnable() {
+			@Override
+			public void run() {
+				lastFrame = new Frame((byte) 26, true, (short) 1, 40, packet,
+						RTP_HEADER_LENGTH, packet.length - RTP_HEADER_LENGTH);
+			}
+		});
+		runner.run("frame.getPayload", new Runnable() {
+			@Override
+			public void run() {
+				lastPayload = frame.getPayload();
+			}
+		});
+		runner.run("frame.getPayloadBuffer", new Runnable() {
+			@Override
+			public void run() {
+				lastBuffer = frame.getPayloadBuffer();
+			}
+		});
+
+		BenchmarkRunner decodeRunner = new BenchmarkRunner(200, 2000);
+		decodeRunner.run("frame.getImage", new Runnable() {
+			@Override
+			public void run() {
+				// Toolkit images are decoded lazily; ImageIcon waits until the
+				// image is completely loaded.
+				lastImage = new ImageIcon(frame.getImage()).getImage();
+			}
+		});
+
+		final FrameDecoder decoder = new FrameDecoder(2);
+		decodeRunner.run("frameDecoder.decode", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedImage image = decoder.decode(frame, WIDTH, HEIGHT);
+					decoder.recycle(image);
+					lastImage = image;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		decodeRunner.run("frameDecoder.decodeSubsampled", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedImage image = decoder.decode(frame, WIDTH / 2,
+							HEIGHT / 2);
+					decoder.recycle(image);
+					lastImage = image;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		System.out.println("Last image: " + lastImage.getWidth(null) + "x"
+				+ lastImage.getHeight(null));
+	}
+
+	private static byte[] createJPEG() throws IOException {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, WIDTH, HEIGHT,
+				Color.ORANGE));
+		graphics.fillRect(0, 0, WIDTH, HEIGHT);
+		graphics.setColor(Color.WHITE);
+		for (int i = 0; i < 20; i++)
+			graphics.drawOval(i * 16, i * 12, 40, 30);
+		graphics.dispose();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", out);
+		return out.toByteArray();
+	}
+}
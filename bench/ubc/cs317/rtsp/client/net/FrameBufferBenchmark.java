@@ -0,0 +1,88 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.TreeSet;
+
+import ubc.cs317.rtsp.client.bench.BenchmarkRunner;
+import ubc.cs317.rtsp.client.model.Frame;
+
+/**
+ * Compares the TreeSet previously used to reorder frames with the
+ * FrameRingBuffer. Each operation adds one frame and removes the oldest one,
+ * keeping WINDOW frames in the buffer, which corresponds to the steady state
+ * of the jitter buffer. Frames arrive slightly out of order, and the sequence
+ * numbers go through the 16-bit wraparound several times.
+ *
+ * This is the offline version of FrameBufferJmh, for when the JMH benchmarks
+ * can't be built.
+ */
+public class FrameBufferBenchmark {
+
+	private static final int WINDOW = 30;
+	private static final int SEQUENCE_COUNT = 1 << 16;
+
+	private static final Frame[] FRAMES = createFrames();
+
+	private static int next;
+	private static Frame lastFrame;
+
+	public static void main(String[] args) {
+
+		BenchmarkRunner runner = new BenchmarkRunner(500000, 5000000);
+
+		final TreeSet<Frame> treeSet = new TreeSet<Frame>();
+		next = 0;
+		runner.run("frameBuffer.treeSet", new Runnable() {
+			@Override
+			public void run() {
+				treeSet.add(nextFrame());
+				if (treeSet.size() > WINDOW)
+					lastFrame = treeSet.pollFirst();
+			}
+		});
+
+		final FrameRingBuffer ringBuffer = new FrameRingBuffer(256);
+		next = 0;
+		runner.run("frameBuffer.ringBuffer", new Runnable() {
+			@Override
+			public void run() {
+				ringBuffer.add(nextFrame());
+				if (ringBuffer.size() > WINDOW)
+					lastFrame = ringBuffer.pollFirst();
+			}
+		});
+	}
+
+	private static Frame nextFrame() {
+		Frame frame = FRAMES[next];
+		next = (next + 1) % FRAMES.length;
+		return frame;
+	}
+
+	/**
+	 * Creates frames for all sequence numbers, swapping each group of four
+	 * consecutive frames in pairs to simulate reordering.
+	 */
+	private static Frame[] createFrames() {
+		Frame[] frames = new Frame[SEQUENCE_COUNT];
+		byte[] payload = new byte[1];
+		for (int i = 0; i < SEQUENCE_COUNT; i++) {
+			int sequence = (i % 4 == 1) ? i + 1 : (i % 4 == 2) ? i - 1 : i;
+			frames[i] = new Frame((byte) 26, true, (short) sequence, i * 50,
+					payload);
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.net.DatagramPacket;
+import java.util.Arrays;
+
+import ubc.cs317.rtsp.client.bench.BenchmarkRunner;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+/**
+ * Compares the allocation rate of the RTP ingest path before and after
+ * pooling. The socket itself is not involved: the receive step is simulated
+ * by copying a prepared packet into the receive buffer, so the figures only
+ * reflect the work done by the client for each packet.
+ */
+public class RTPIngestBenchmark {
+
+	private static final int BUFFER_LENGTH = 15000;
+	private static final int RTP_HEADER_LENGTH = 12;
+	private static final int PAYLOAD_LENGTH = 4000;
+
+	private static final byte[] PACKET = createPacket();
+
+	private static Frame lastFrame;
+
+	public static void main(String[] args) {
+
+		BenchmarkRunner runner = new BenchmarkRunner(200000, 1000000);
+
+		runner.run("ingest.copying", new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[BUFFER_LENGTH];
+				DatagramPacket rtpPacket = new DatagramPacket(buffer,
+						BUFFER_LENGTH);
+				System.arraycopy(PACKET, 0, rtpPacket.getData(), 0,
+						PACKET.length);
+				byte[] payload = Arrays.copyOfRange(buffer, RTP_HEADER_LENGTH,
+						BUFFER_LENGTH);
+				lastFrame = new Frame((byte) (buffer[1] & 0x7F), false,
+						(short) 0, 0, payload);
+			}
+		});
+
+		final FramePool pool = new FramePool(8, BUFFER_LENGTH);
+		runner.run("ingest.pooled", new Runnable() {
+			@Override
+			public void run() {
+				Frame frame = pool.acquire();
+				System.arraycopy(PACKET, 0, frame.getBuffer(), 0,
+						PACKET.length);
+				lastFrame = RTSPConnection.parseRTPPacket(frame, PACKET.length);
+				frame.release();
+			}
+		});
+		System.out.println("Frames created by pool: " + pool.getCreatedCount());
+	}
+
+	private static byte[] createPacket() {
+		byte[] packet = new byte[RTP_HEADER_LENGTH + PAYLOAD_LENGTH];
+		packet[0] = (byte) 0x80;
+		packet[1] = (byte) 26;
+		packet[3] = 1;
+		for (int i = RTP_HEADER_LENGTH; i < packet.length; i++)
+			packet[i] = (byte) i;
+		return packet;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import ubc.cs317.rtsp.client.bench.BenchmarkRunner;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+/**
+ * Measures RTSPConnection.parseRTPPacket on its own, for a few payload sizes.
+ * The packet is already in the buffer of a pooled frame, as it is when
+ * received by the RTP engine, so parsing should not depend on the payload
+ * size nor allocate any memory.
+ */
+public class RTPParseBenchmark {
+
+	private static final int BUFFER_LENGTH = 15000;
+	private static final int RTP_HEADER_LENGTH = 12;
+	private static final int[] PAYLOAD_LENGTHS = { 100, 4000, 14000 };
+
+	private static Frame lastFrame;
+
+	public static void main(String[] args) {
+
+		BenchmarkRunner runner = new BenchmarkRunner(500000, 5000000);
+		FramePool pool = new FramePool(1, BUFFER_LENGTH);
+
+		for (int payloadLength : PAYLOAD_LENGTHS) {
+			final Frame frame = pool.acquire();
+			final int packetLength = RTP_HEADER_LENGTH + payloadLength;
+			final byte[] packet = frame.getBuffer();
+			packet[0] = (byte) 0x80;
+			packet[1] = (byte) (0x80 | 26);
+			packet[3] = 1;
+			packet[7] = 40;
+
+			runner.run("parseRTPPacket." + payloadLength, new Runnable() {
+				@Override
+				public void run() {
+					// A different sequence number for every packet, so that
+					// the JIT can't treat the parse as loop-invariant.
+					packet[3]++;
+					lastFrame = RTSPConnection.parseRTPPacket(frame,
+							packetLength);
+				}
+			});
+			frame.release();
+		}
+		System.out.println("Last payload length: "
+				+ lastFrame.getPayloadLength());
+	}
+}
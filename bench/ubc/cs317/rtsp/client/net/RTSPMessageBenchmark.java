@@ -0,0 +1,138 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import ubc.cs317.rtsp.client.bench.BenchmarkRunner;
+import ubc.cs317.rtsp.client.exception.RTSPException;
+
+/**
+ * Measures the cost of building and sending RTSP requests and of reading and
+ * parsing RTSP responses. No socket is involved: requests are written to a
+ * channel that discards its input, and responses are read again and again from
+ * the same in-memory reader (using mark and reset) or added again and again
+ * to the same parser, so only the work done by RTSPRequest, RTSPResponse and
+ * RTSPResponseParser is measured.
+ */
+public class RTSPMessageBenchmark {
+
+	private static final String RESPONSE = "RTSP/1.0 200 OK\r\n"
+			+ "CSeq: 3\r\n" + "Session: 123456\r\n"
+			+ "Transport: RTP/UDP; client_port=25000\r\n" + "\r\n";
+
+	private static RTSPResponse lastResponse;
+
+	public static void main(String[] args) throws IOException {
+
+		BenchmarkRunner runner = new BenchmarkRunner(200000, 1000000);
+
+		final NullChannel channel = new NullChannel();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+		runner.run("rtspRequest.setup", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new RTSPRequest("SETUP", "movie.Mjpeg").setCSeq(1)
+							.setRtpPort(25000).sendRequest(channel, buffer);
+				} catch (RTSPException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		runner.run("rtspRequest.play", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new RTSPRequest("PLAY", "movie.Mjpeg").setCSeq(2)
+							.setSession("123456").sendRequest(channel, buffer);
+				} catch (RTSPException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+
+		final BufferedReader reader = new BufferedReader(new StringReader(
+				RESPONSE));
+		reader.mark(RESPONSE.length());
+		runner.run("rtspResponse.read", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reader.reset();
+					lastResponse = RTSPResponse.readRTSPResponse(reader);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} catch (RTSPException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		final byte[] responseBytes = RESPONSE.getBytes("ISO-8859-1");
+		final RTSPResponseParser parser = new RTSPResponseParser();
+		runner.run("rtspResponse.parse", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					parser.getBuffer().put(responseBytes);
+					lastResponse = parser.nextResponse();
+					lastResponse.getHeaderIntValue("CSeq");
+				} catch (RTSPException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		System.out.println("Last session: "
+				+ lastResponse.getHeaderValue("Session"));
+	}
+
+	/**
+	 * A channel that discards everything written to it.
+	 */
+	private static class NullChannel implements GatheringByteChannel {
+
+		@Override
+		public int write(ByteBuffer source) {
+			int length = source.remaining();
+			source.position(source.limit());
+			return length;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources, int offset, int length) {
+			long written = 0;
+			for (int i = offset; i < offset + length; i++)
+				written += write(sources[i]);
+			return written;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources) {
+			return write(sources, 0, sources.length);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.server;
+
+import java.io.IOException;
+
+/**
+ * Interface used by the loopback server to obtain the frames of a video.
+ */
+public interface FrameSource {
+
+	/**
+	 * Returns the frames of a video, in the order they are played.
+	 *
+	 * @param videoName
+	 *            The name of the video, as included in the SETUP request.
+	 * @return An array with the JPEG payload of each frame, or null if there
+	 *         is no such video.
+	 * @throws IOException
+	 *             If the video exists but could not be read.
+	 */
+	public byte[][] getFrames(String videoName) throws IOException;
+}
@@ -0,0 +1,612 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is a small RTSP server, meant to be run on the same machine as
+ * the client (or in the same JVM) for reproducible performance tests. It
+ * speaks the same dialect as the course server: SETUP, PLAY, PAUSE and
+ * TEARDOWN requests, answered with a status line, the request's CSeq and a
+ * Session header. Once a video is played, each frame is sent in its own RTP
+ * packet (payload type 26) at a fixed frame rate, with timestamps in
+ * milliseconds. If a maximum payload size is defined, larger frames are split
+ * into several packets with the same timestamp, the marker bit being set only
+ * in the last one. Frames can also be sent in the standard RTP JPEG format
+ * (RFC 2435), as MJPEG cameras do, instead of as complete JPEG images; their
+ * timestamps are then in units of a 90 kHz clock.
+ * Packets are sent over UDP to the client_port in the SETUP's
+ * Transport header or, if the Transport header requests interleaved channels
+ * (e.g., "RTP/AVP/TCP;interleaved=0-1"), over the RTSP connection itself,
+ * each one preceded by a '$', the channel and the packet length.
+ *
+ * Network impairments can be simulated on the server side: packets can be
+ * dropped, swapped with the following packet, or delayed by a random amount.
+ * All random decisions come from a generator with a fixed seed, so every run
+ * of a stream sends the same packets in the same order.
+ *
+ * Usage: <code>LoopbackServer [-p port] [-r fps] [-l lossRate]
+ * [-o reorderRate] [-j jitterMs] [-s seed] [-n frames] [-f maxPayload]
+ * [-m raw|rfc2435] [directory]</code>.
+ * Without a directory, synthetic frames are streamed for every video name;
+ * otherwise videos are read from MJPEG files in the directory.
+ */
+public class LoopbackServer {
+
+	private static final int RTP_HEADER_LENGTH = 12;
+	private static final int JPEG_PAYLOAD_TYPE = 26;
+	private static final int MAXIMUM_INTERLEAVED_LENGTH = 0xFFFF;
+	private static final Pattern CLIENT_PORT = Pattern
+			.compile("client_port=(\\d+)");
+	private static final Pattern INTERLEAVED = Pattern
+			.compile("interleaved=(\\d+)");
+
+	private final int port;
+	private final FrameSource source;
+
+	private volatile double frameRate = 25;
+	private volatile double lossRate = 0;
+	private volatile double reorderRate = 0;
+	private volatile long jitter = 0;
+	private volatile long seed = 317;
+	private volatile int maximumPayloadSize = 0;
+	private volatile boolean rfc2435 = false;
+
+	private ServerSocket serverSocket;
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private int nextSessionId = 100000;
+
+	/**
+	 * Creates a new server. The server does not accept connections until it
+	 * is started.
+	 *
+	 * @param port
+	 *            The TCP port where the server listens to, or 0 (zero) to use
+	 *            any available port.
+	 * @param source
+	 *            The source of the frames of each video.
+	 */
+	public LoopbackServer(int port, FrameSource source) {
+		this.port = port;
+		this.source = source;
+	}
+
+	/**
+	 * Defines the rate at which frames are sent to streams played after this
+	 * point.
+	 *
+	 * @param frameRate
+	 *            The number of frames per second.
+	 */
+	public void setFrameRate(double frameRate) {
+		this.frameRate = frameRate;
+	}
+
+	/**
+	 * Defines the probability of each packet being dropped.
+	 *
+	 * @param lossRate
+	 *            A probability between 0 (zero) and 1.
+	 */
+	public void setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+	}
+
+	/**
+	 * Defines the probability of each packet being sent after the packet that
+	 * follows it.
+	 *
+	 * @param reorderRate
+	 *            A probability between 0 (zero) and 1.
+	 */
+	public void setReorderRate(double reorderRate) {
+		this.reorderRate = reorderRate;
+	}
+
+	/**
+	 * Defines the maximum random delay added to each packet. Delays are
+	 * uniformly distributed, and do not accumulate: each packet is delayed
+	 * from its nominal sending time.
+	 *
+	 * @param jitter
+	 *            The maximum delay, in milliseconds.
+	 */
+	public void setJitter(long jitter) {
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Defines the seed of the random decisions of streams set up after this
+	 * point.
+	 *
+	 * @param seed
+	 *            The seed of the random number generator.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Defines the maximum number of payload bytes in each packet of streams
+	 * played after this point. Frames larger than that are fragmented.
+	 *
+	 * @param maximumPayloadSize
+	 *            The maximum payload size, in bytes, or 0 (zero) to send each
+	 *            frame in a single packet.
+	 */
+	public void setMaximumPayloadSize(int maximumPayloadSize) {
+		this.maximumPayloadSize = maximumPayloadSize;
+	}
+
+	/**
+	 * Defines the payload format of streams set up after this point.
+	 *
+	 * @param rfc2435
+	 *            true to send frames in the RTP JPEG format defined by RFC
+	 *            2435, or false to send complete JPEG images, like the course
+	 *            server. Frames that can't be represented in the RFC 2435
+	 *            format are always sent as complete images.
+	 */
+	public void setRFC2435(boolean rfc2435) {
+		this.rfc2435 = rfc2435;
+	}
+
+	/**
+	 * Starts accepting connections, in a new thread, on the loopback
+	 * interface.
+	 *
+	 * @throws IOException
+	 *             If the server socket could not be opened.
+	 */
+	public synchronized void start() throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		}, "Loopback RTSP server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the port where the server is listening to.
+	 *
+	 * @return The TCP port of the server.
+	 */
+	public synchronized int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections, and closes every open connection and
+	 * stream.
+	 */
+	public synchronized void stop() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Connection connection : connections)
+			connection.close();
+		connections.clear();
+	}
+
+	private void acceptConnections() {
+		while (true) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				return; // Server socket closed.
+			}
+			Connection connection = new Connection(socket);
+			synchronized (this) {
+				connections.add(connection);
+			}
+			Thread thread = new Thread(connection, "Loopback RTSP connection "
+					+ socket.getPort());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private synchronized String createSessionId() {
+		return Integer.toString(nextSessionId++);
+	}
+
+	/**
+	 * This class handles the requests received in one RTSP connection. Each
+	 * connection has at most one stream set up at a time.
+	 */
+	private class Connection implements Runnable {
+
+		private final Socket socket;
+		private OutputStream output;
+		private String sessionId;
+		private Streamer streamer;
+
+		private Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(socket.getInputStream(),
+								"US-ASCII"));
+				output = socket.getOutputStream();
+
+				String requestLine;
+				while ((requestLine = reader.readLine()) != null) {
+					if (requestLine.isEmpty())
+						continue;
+					Map<String, String> headers = new HashMap<String, String>();
+					String headerLine;
+					while ((headerLine = reader.readLine()) != null
+							&& !headerLine.isEmpty()) {
+						String[] header = headerLine.split(":", 2);
+						if (header.length == 2)
+							headers.put(header[0].trim().toUpperCase(),
+									header[1].trim());
+					}
+
+					String[] request = requestLine.split(" ");
+					String status = request.length == 3 ? handle(request[0],
+							request[1], headers) : "400 Bad Request";
+					StringBuilder response = new StringBuilder();
+					response.append("RTSP/1.0 ").append(status).append("\r\n");
+					if (headers.containsKey("CSEQ"))
+						response.append("CSeq: ").append(headers.get("CSEQ"))
+								.append("\r\n");
+					if (sessionId != null)
+						response.append("Session: ").append(sessionId)
+								.append("\r\n");
+					response.append("\r\n");
+					// Interleaved packets are written to the same stream.
+					synchronized (output) {
+						output.write(response.toString().getBytes("US-ASCII"));
+						output.flush();
+					}
+				}
+			} catch (IOException e) {
+				// Connection closed by the client or by the server.
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Processes a request and returns the status code and reason phrase of
+		 * its response.
+		 */
+		private synchronized String handle(String method, String videoName,
+				Map<String, String> headers) throws IOException {
+
+			String session = headers.get("SESSION");
+			if (session != null && !session.equals(sessionId))
+				return "454 Session Not Found";
+
+			if (method.equals("SETUP")) {
+				if (streamer != null)
+					return "455 Method Not Valid in This State";
+				String transport = headers.get("TRANSPORT");
+				if (transport == null)
+					return "461 Unsupported Transport";
+				Matcher portMatcher = CLIENT_PORT.matcher(transport);
+				Matcher channelMatcher = INTERLEAVED.matcher(transport);
+				boolean interleaved = channelMatcher.find();
+				if (!interleaved && !portMatcher.find())
+					return "461 Unsupported Transport";
+				byte[][] frames;
+				try {
+					frames = source.getFrames(videoName);
+				} catch (IOException e) {
+					return "500 Internal Server Error";
+				}
+				if (frames == null)
+					return "404 Not Found";
+				if (interleaved)
+					streamer = new Streamer(frames, output,
+							Integer.parseInt(channelMatcher.group(1)));
+				else
+					streamer = new Streamer(frames, socket.getInetAddress(),
+							Integer.parseInt(portMatcher.group(1)));
+				streamer.start();
+				sessionId = createSessionId();
+				return "200 OK";
+			}
+			if (streamer == null)
+				return "455 Method Not Valid in This State";
+			if (method.equals("PLAY")) {
+				streamer.setPlaying(true);
+				return "200 OK";
+			}
+			if (method.equals("PAUSE")) {
+				streamer.setPlaying(false);
+				return "200 OK";
+			}
+			if (method.equals("TEARDOWN")) {
+				streamer.close();
+				streamer = null;
+				return "200 OK";
+			}
+			return "501 Not Implemented";
+		}
+
+		private synchronized void close() {
+			if (streamer != null)
+				streamer.close();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * This class represents the thread that sends the RTP packets of a
+	 * stream, either over UDP or interleaved in the RTSP connection.
+	 */
+	private class Streamer extends Thread {
+
+		private final byte[][] frames;
+		private final DatagramSocket socket;
+		private final InetAddress address;
+		private final int port;
+		private final OutputStream interleavedOutput;
+		private final int channel;
+		private final Random random = new Random(seed);
+		private final double period = 1000 / frameRate;
+		private final double lossRate = LoopbackServer.this.lossRate;
+		private final double reorderRate = LoopbackServer.this.reorderRate;
+		private final long jitter = LoopbackServer.this.jitter;
+		private final int maximumPayloadSize = LoopbackServer.this.maximumPayloadSize;
+		private final RTPJPEGPacketizer packetizer = rfc2435 ? new RTPJPEGPacketizer()
+				: null;
+		private final int clockRate = rfc2435 ? 90000 : 1000;
+
+		private boolean playing = false;
+		private boolean closed = false;
+		private int index = 0;
+		private int sequenceNumber = 0;
+		private long baseTime;
+
+		private Streamer(byte[][] frames, InetAddress address, int port)
+				throws IOException {
+			super("Loopback RTP streamer " + port);
+			setDaemon(true);
+			this.frames = frames;
+			this.address = address;
+			this.port = port;
+			this.socket = new DatagramSocket();
+			this.interleavedOutput = null;
+			this.channel = -1;
+		}
+
+		private Streamer(byte[][] frames, OutputStream output, int channel) {
+			super("Loopback RTP streamer interleaved " + channel);
+			setDaemon(true);
+			this.frames = frames;
+			this.address = null;
+			this.port = -1;
+			this.socket = null;
+			this.interleavedOutput = output;
+			this.channel = channel;
+		}
+
+		private synchronized void setPlaying(boolean playing) {
+			this.playing = playing;
+			// Frames are sent on schedule from the point where playback
+			// resumes.
+			baseTime = System.nanoTime() - (long) (index * period * 1e6);
+			notifyAll();
+		}
+
+		private synchronized void close() {
+			closed = true;
+			notifyAll();
+			if (socket != null)
+				socket.close();
+		}
+
+		@Override
+		public void run() {
+			byte[] held = null;
+			try {
+				while (index < frames.length) {
+					long due;
+					synchronized (this) {
+						while (!playing && !closed)
+							wait();
+						if (closed)
+							return;
+						due = baseTime + (long) (index * period * 1e6);
+					}
+					if (jitter > 0)
+						due += (long) (random.nextDouble() * jitter * 1e6);
+					long delay = due - System.nanoTime();
+					if (delay > 0)
+						Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+
+					byte[][] packets = createPackets(index);
+					index++;
+					for (byte[] packet : packets) {
+						if (lossRate > 0 && random.nextDouble() < lossRate)
+							continue;
+						if (held == null && reorderRate > 0
+								&& random.nextDouble() < reorderRate) {
+							held = packet;
+							continue;
+						}
+						send(packet);
+						if (held != null) {
+							send(held);
+							held = null;
+						}
+					}
+				}
+				if (held != null)
+					send(held);
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				// Socket closed by a TEARDOWN.
+			}
+		}
+
+		/**
+		 * Sends a packet to the client. Interleaved packets that don't fit in
+		 * the 16-bit length of the interleaved framing are not sent.
+		 */
+		private void send(byte[] packet) throws IOException {
+			if (interleavedOutput == null) {
+				socket.send(new DatagramPacket(packet, packet.length, address,
+						port));
+				return;
+			}
+			if (packet.length > MAXIMUM_INTERLEAVED_LENGTH)
+				return;
+			synchronized (interleavedOutput) {
+				if (closed)
+					return;
+				interleavedOutput.write(new byte[] { '$', (byte) channel,
+						(byte) (packet.length >> 8), (byte) packet.length });
+				interleavedOutput.write(packet);
+				interleavedOutput.flush();
+			}
+		}
+
+		/**
+		 * Creates the packets of a frame, in the RFC 2435 format if requested
+		 * or otherwise by splitting the frame if it is larger than the maximum
+		 * payload size.
+		 */
+		private byte[][] createPackets(int frameIndex) {
+			byte[] frame = frames[frameIndex];
+			byte[][] payloads = packetizer != null ? packetizer.packetize(
+					frame, maximumPayloadSize) : null;
+			if (payloads == null)
+				payloads = split(frame);
+			int count = payloads.length;
+			int timestamp = (int) (long) (frameIndex * period * clockRate / 1000);
+
+			byte[][] packets = new byte[count][];
+			for (int i = 0; i < count; i++) {
+				int length = payloads[i].length;
+				byte[] packet = new byte[RTP_HEADER_LENGTH + length];
+				packet[0] = (byte) 0x80;
+				packet[1] = (byte) ((i == count - 1 ? 0x80 : 0) | JPEG_PAYLOAD_TYPE);
+				packet[2] = (byte) (sequenceNumber >> 8);
+				packet[3] = (byte) sequenceNumber;
+				packet[4] = (byte) (timestamp >> 24);
+				packet[5] = (byte) (timestamp >> 16);
+				packet[6] = (byte) (timestamp >> 8);
+				packet[7] = (byte) timestamp;
+				System.arraycopy(payloads[i], 0, packet, RTP_HEADER_LENGTH,
+						length);
+				packets[i] = packet;
+				sequenceNumber++;
+			}
+			return packets;
+		}
+
+		/**
+		 * Splits a frame into payloads of at most the maximum payload size.
+		 */
+		private byte[][] split(byte[] frame) {
+			int fragmentSize = maximumPayloadSize > 0 ? maximumPayloadSize
+					: Math.max(frame.length, 1);
+			int count = Math.max(1, (frame.length + fragmentSize - 1)
+					/ fragmentSize);
+			byte[][] payloads = new byte[count][];
+			for (int i = 0; i < count; i++) {
+				int offset = i * fragmentSize;
+				payloads[i] = Arrays.copyOfRange(frame, offset,
+						Math.min(offset + fragmentSize, frame.length));
+			}
+			return payloads;
+		}
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+
+		int port = 5540;
+		int frameCount = 500;
+		Map<String, String> options = new HashMap<String, String>();
+		int argument = 0;
+		while (argument + 1 < args.length && args[argument].startsWith("-")) {
+			options.put(args[argument], args[argument + 1]);
+			argument += 2;
+		}
+		if (argument < args.length - 1) {
+			System.err.println("Usage: LoopbackServer [-p port] [-r fps] "
+					+ "[-l lossRate] [-o reorderRate] [-j jitterMs] "
+					+ "[-s seed] [-n frames] [-f maxPayload] "
+					+ "[-m raw|rfc2435] [directory]");
+			System.exit(2);
+		}
+
+		if (options.containsKey("-p"))
+			port = Integer.parseInt(options.get("-p"));
+		if (options.containsKey("-n"))
+			frameCount = Integer.parseInt(options.get("-n"));
+		FrameSource source = argument < args.length ? new MJPEGFileSource(
+				new File(args[argument])) : new SyntheticFrameSource(320, 240,
+				frameCount);
+
+		LoopbackServer server = new LoopbackServer(port, source);
+		if (options.containsKey("-r"))
+			server.setFrameRate(Double.parseDouble(options.get("-r")));
+		if (options.containsKey("-l"))
+			server.setLossRate(Double.parseDouble(options.get("-l")));
+		if (options.containsKey("-o"))
+			server.setReorderRate(Double.parseDouble(options.get("-o")));
+		if (options.containsKey("-j"))
+			server.setJitter(Long.parseLong(options.get("-j")));
+		if (options.containsKey("-s"))
+			server.setSeed(Long.parseLong(options.get("-s")));
+		if (options.containsKey("-f"))
+			server.setMaximumPayloadSize(Integer.parseInt(options.get("-f")));
+		if (options.containsKey("-m"))
+			server.setRFC2435(options.get("-m").equals("rfc2435"));
+
+		server.start();
+		System.out.println("Listening on port " + server.getPort());
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.server;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads videos from files in the format used by the course server:
+ * each frame is a five-digit ASCII length followed by that many bytes of JPEG
+ * data. Videos are read from a directory, using the video name as the file
+ * name, and cached after they are read for the first time.
+ */
+public class MJPEGFileSource implements FrameSource {
+
+	private static final int LENGTH_DIGITS = 5;
+
+	private final File directory;
+	private final Map<String, byte[][]> videos = new HashMap<String, byte[][]>();
+
+	/**
+	 * Creates a new source for the videos in a directory.
+	 *
+	 * @param directory
+	 *            The directory where the video files are.
+	 */
+	public MJPEGFileSource(File directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public synchronized byte[][] getFrames(String videoName)
+			throws IOException {
+
+		byte[][] frames = videos.get(videoName);
+		if (frames != null)
+			return frames;
+
+		File file = new File(directory, videoName);
+		if (videoName.contains("..") || !file.isFile())
+			return null;
+
+		InputStream in = new FileInputStream(file);
+		try {
+			frames = readFrames(new DataInputStream(in));
+		} finally {
+			in.close();
+		}
+		videos.put(videoName, frames);
+		return frames;
+	}
+
+	private static byte[][] readFrames(DataInputStream in) throws IOException {
+
+		List<byte[]> frames = new ArrayList<byte[]>();
+		byte[] lengthBytes = new byte[LENGTH_DIGITS];
+		while (true) {
+			try {
+				in.readFully(lengthBytes);
+			} catch (EOFException e) {
+				break;
+			}
+			int length;
+			try {
+				length = Integer.parseInt(new String(lengthBytes, "US-ASCII")
+						.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid frame length in video file.");
+			}
+			byte[] frame = new byte[length];
+			in.readFully(frame);
+			frames.add(frame);
+		}
+		return frames.toArray(new byte[frames.size()][]);
+	}
+}
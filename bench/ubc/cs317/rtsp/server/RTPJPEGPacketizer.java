@@ -0,0 +1,237 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.server;
+
+import java.util.Arrays;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+/**
+ * This class splits JPEG images into RTP payloads in the standard format
+ * defined by RFC 2435, as sent by MJPEG cameras: the JPEG headers are
+ * stripped, and each payload carries an 8-byte JPEG header followed by part
+ * of the scan data. The quantization tables are sent in the first payload of
+ * each frame, with Q = 128 as long as they are the same as in the first frame
+ * packetized, and with Q = 255 (tables that may change every frame)
+ * otherwise.
+ *
+ * Only baseline images with three components, 4:2:2 or 4:2:0 sampling, 8-bit
+ * quantization tables, the standard Huffman tables and dimensions in
+ * multiples of 8 up to 2040 pixels can be represented in this format; other
+ * images are rejected, so they can be sent as complete JPEG images instead.
+ *
+ * This class is not thread-safe.
+ */
+public class RTPJPEGPacketizer {
+
+	private static final int MAIN_HEADER_LENGTH = 8;
+	private static final int RESTART_HEADER_LENGTH = 4;
+	private static final int QUANTIZATION_HEADER_LENGTH = 4;
+	private static final int MAXIMUM_DIMENSION = 2040;
+
+	private byte[] firstTables;
+
+	/**
+	 * Splits a JPEG image into RFC 2435 payloads.
+	 *
+	 * @param jpeg
+	 *            A complete JPEG image.
+	 * @param maximumPayloadSize
+	 *            The maximum size of each payload, in bytes, or 0 (zero) to
+	 *            create a single payload.
+	 * @return The payloads of the frame, in order, or null if the image can't
+	 *         be represented in this format.
+	 */
+	public byte[][] packetize(byte[] jpeg, int maximumPayloadSize) {
+
+		byte[] tables = new byte[128];
+		boolean[] tablesFound = new boolean[2];
+		int type = -1;
+		int width = 0;
+		int height = 0;
+		int restartInterval = 0;
+		int scanStart = -1;
+
+		int position = 2;
+		if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF
+				|| (jpeg[1] & 0xFF) != 0xD8)
+			return null;
+		while (scanStart < 0) {
+			if (position + 4 > jpeg.length || (jpeg[position] & 0xFF) != 0xFF)
+				return null;
+			int marker = jpeg[position + 1] & 0xFF;
+			int length = ((jpeg[position + 2] & 0xFF) << 8)
+					| (jpeg[position + 3] & 0xFF);
+			int start = position + 4;
+			int end = position + 2 + length;
+			if (length < 2 || end > jpeg.length)
+				return null;
+
+			switch (marker) {
+			case 0xDB: // Quantization tables.
+				for (int p = start; p < end; p += 65) {
+					int id = jpeg[p] & 0x0F;
+					if ((jpeg[p] & 0xF0) != 0 || id > 1 || p + 65 > end)
+						return null;
+					System.arraycopy(jpeg, p + 1, tables, id * 64, 64);
+					tablesFound[id] = true;
+				}
+				break;
+			case 0xC0: // Baseline frame header.
+				if (length != 17 || jpeg[start] != 8 || jpeg[start + 5] != 3)
+					return null;
+				height = ((jpeg[start + 1] & 0xFF) << 8)
+						| (jpeg[start + 2] & 0xFF);
+				width = ((jpeg[start + 3] & 0xFF) << 8)
+						| (jpeg[start + 4] & 0xFF);
+				int lumaSampling = jpeg[start + 7] & 0xFF;
+				if (lumaSampling == 0x21)
+					type = 0;
+				else if (lumaSampling == 0x22)
+					type = 1;
+				else
+					return null;
+				if (jpeg[start + 8] != 0 || jpeg[start + 10] != 0x11
+						|| jpeg[start + 11] != 1 || jpeg[start + 13] != 0x11
+						|| jpeg[start + 14] != 1)
+					return null;
+				break;
+			case 0xC4: // Huffman tables.
+				if (!isStandardHuffmanTables(jpeg, start, end))
+					return null;
+				break;
+			case 0xDD: // Restart interval.
+				restartInterval = ((jpeg[start] & 0xFF) << 8)
+						| (jpeg[start + 1] & 0xFF);
+				break;
+			case 0xDA: // Start of scan.
+				scanStart = end;
+				break;
+			default:
+				if (marker >= 0xC1 && marker <= 0xCF)
+					return null; // Not a baseline image.
+			}
+			position = end;
+		}
+		if (type < 0 || !tablesFound[0] || !tablesFound[1] || width % 8 != 0
+				|| height % 8 != 0 || width > MAXIMUM_DIMENSION
+				|| height > MAXIMUM_DIMENSION)
+			return null;
+
+		int scanEnd = jpeg.length;
+		if ((jpeg[scanEnd - 2] & 0xFF) == 0xFF
+				&& (jpeg[scanEnd - 1] & 0xFF) == 0xD9)
+			scanEnd -= 2;
+
+		int q;
+		if (firstTables == null)
+			firstTables = tables;
+		q = Arrays.equals(tables, firstTables) ? 128 : 255;
+		if (restartInterval != 0)
+			type += 64;
+
+		int headerLength = MAIN_HEADER_LENGTH
+				+ (restartInterval != 0 ? RESTART_HEADER_LENGTH : 0);
+		int firstHeaderLength = headerLength + QUANTIZATION_HEADER_LENGTH
+				+ tables.length;
+		int scanLength = scanEnd - scanStart;
+		int firstDataLength = maximumPayloadSize > 0 ? maximumPayloadSize
+				- firstHeaderLength : scanLength;
+		int dataLength = maximumPayloadSize > 0 ? maximumPayloadSize
+				- headerLength : scanLength;
+		if (firstDataLength <= 0 || dataLength <= 0)
+			return null;
+		int count = scanLength <= firstDataLength ? 1 : 1 + (scanLength
+				- firstDataLength + dataLength - 1) / dataLength;
+
+		byte[][] payloads = new byte[count][];
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			int length = Math.min(i == 0 ? firstDataLength : dataLength,
+					scanLength - offset);
+			byte[] payload = new byte[(i == 0 ? firstHeaderLength
+					: headerLength) + length];
+			payload[1] = (byte) (offset >> 16);
+			payload[2] = (byte) (offset >> 8);
+			payload[3] = (byte) offset;
+			payload[4] = (byte) type;
+			payload[5] = (byte) q;
+			payload[6] = (byte) (width / 8);
+			payload[7] = (byte) (height / 8);
+			int p = MAIN_HEADER_LENGTH;
+			if (restartInterval != 0) {
+				payload[p++] = (byte) (restartInterval >> 8);
+				payload[p++] = (byte) restartInterval;
+				// First and last bits set, restart count 0x3FFF: the payload
+				// is not aligned with restart intervals.
+				payload[p++] = (byte) 0xFF;
+				payload[p++] = (byte) 0xFF;
+			}
+			if (i == 0) {
+				payload[p++] = 0;
+				payload[p++] = 0;
+				payload[p++] = (byte) (tables.length >> 8);
+				payload[p++] = (byte) tables.length;
+				System.arraycopy(tables, 0, payload, p, tables.length);
+				p += tables.length;
+			}
+			System.arraycopy(jpeg, scanStart + offset, payload, p, length);
+			offset += length;
+			payloads[i] = payload;
+		}
+		return payloads;
+	}
+
+	/**
+	 * Checks if the Huffman tables of a DHT segment are the standard tables
+	 * of the JPEG specification (annex K), which are the only ones the
+	 * receiver can rebuild.
+	 */
+	private static boolean isStandardHuffmanTables(byte[] jpeg, int start,
+			int end) {
+		int p = start;
+		while (p < end) {
+			int classAndId = jpeg[p] & 0xFF;
+			JPEGHuffmanTable standard;
+			switch (classAndId) {
+			case 0x00:
+				standard = JPEGHuffmanTable.StdDCLuminance;
+				break;
+			case 0x10:
+				standard = JPEGHuffmanTable.StdACLuminance;
+				break;
+			case 0x01:
+				standard = JPEGHuffmanTable.StdDCChrominance;
+				break;
+			case 0x11:
+				standard = JPEGHuffmanTable.StdACChrominance;
+				break;
+			default:
+				return false;
+			}
+			short[] lengths = standard.getLengths();
+			short[] values = standard.getValues();
+			if (p + 17 + values.length > end)
+				return false;
+			for (int i = 0; i < 16; i++)
+				if ((jpeg[p + 1 + i] & 0xFF) != lengths[i])
+					return false;
+			for (int i = 0; i < values.length; i++)
+				if ((jpeg[p + 17 + i] & 0xFF) != values[i])
+					return false;
+			p += 17 + values.length;
+		}
+		return true;
+	}
+}
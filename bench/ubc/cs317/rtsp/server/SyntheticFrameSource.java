@@ -0,0 +1,85 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.server;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * This class generates the frames of every video instead of reading them
+ * from files: each frame is a JPEG image with a moving pattern, so that
+ * consecutive frames differ. Frames are generated once and shared by every
+ * video name, which makes tests independent of the movie files that can't be
+ * committed.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+	private final int width;
+	private final int height;
+	private final int frameCount;
+	private byte[][] frames;
+
+	/**
+	 * Creates a new synthetic frame source.
+	 *
+	 * @param width
+	 *            The width of each frame, in pixels.
+	 * @param height
+	 *            The height of each frame, in pixels.
+	 * @param frameCount
+	 *            The number of frames in each video.
+	 */
+	public SyntheticFrameSource(int width, int height, int frameCount) {
+		this.width = width;
+		this.height = height;
+		this.frameCount = frameCount;
+	}
+
+	@Override
+	public synchronized byte[][] getFrames(String videoName)
+			throws IOException {
+		if (frames == null)
+			frames = createFrames();
+		return frames;
+	}
+
+	private byte[][] createFrames() throws IOException {
+		byte[][] result = new byte[frameCount][];
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < frameCount; i++) {
+			Graphics2D graphics = image.createGraphics();
+			graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, width,
+					height, Color.ORANGE));
+			graphics.fillRect(0, 0, width, height);
+			graphics.setColor(Color.WHITE);
+			int x = i * 4 % width;
+			graphics.fillRect(x, height / 3, width / 8, height / 3);
+			graphics.drawString(Integer.toString(i), 8, 16);
+			graphics.dispose();
+
+			out.reset();
+			ImageIO.write(image, "jpeg", out);
+			result[i] = out.toByteArray();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH version of FrameBenchmark: measures creating a frame, reading its
+ * payload, and decoding a JPEG payload through Frame.getImage and through
+ * FrameDecoder. The JPEG is generated when the benchmark starts.
+ *
+ * Note that the Toolkit decodes images in its own threads, so the allocation
+ * reported for getImage does not include the decoding itself.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class FrameJmh {
+
+	private static final int RTP_HEADER_LENGTH = 12;
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+
+	private byte[] packet;
+	private Frame frame;
+	private FrameDecoder decoder;
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] jpeg = createJPEG();
+		packet = new byte[RTP_HEADER_LENGTH + jpeg.length];
+		System.arraycopy(jpeg, 0, packet, RTP_HEADER_LENGTH, jpeg.length);
+		frame = new Frame((byte) 26, true, (short) 1, 40, jpeg);
+		decoder = new FrameDecoder(2);
+	}
+
+	@Benchmark
+	public Frame construct() {
+		return new Frame((byte) 26, true, (short) 1, 40, packet,
+				RTP_HEADER_LENGTH, packet.length - RTP_HEADER_LENGTH);
+	}
+
+	@Benchmark
+	public byte[] getPayload() {
+		return frame.getPayload();
+	}
+
+	@Benchmark
+	public ByteBuffer getPayloadBuffer() {
+		return frame.getPayloadBuffer();
+	}
+
+	@Benchmark
+	public Image getImage() {
+		// Toolkit images are decoded lazily; ImageIcon waits until the image
+		// is completely loaded.
+		return new ImageIcon(frame.getImage()).getImage();
+	}
+
+	@Benchmark
+	public BufferedImage decode() throws IOException {
+		BufferedImage image = decoder.decode(frame, WIDTH, HEIGHT);
+		decoder.recycle(image);
+		return image;
+	}
+
+	@Benchmark
+	public BufferedImage decodeSubsampled() throws IOException {
+		BufferedImage image = decoder.decode(frame, WIDTH / 2, HEIGHT / 2);
+		decoder.recycle(image);
+		return image;
+	}
+
+	private static byte[] createJPEG() throws IOException {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, WIDTH, HEIGHT,
+				Color.ORANGE));
+		graphics.fillRect(0, 0, WIDTH, HEIGHT);
+		graphics.setColor(Color.WHITE);
+		for (int i = 0; i < 20; i++)
+			graphics.drawOval(i * 16, i * 12, 40, 30);
+		graphics.dispose();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+/**
+ * JMH version of FrameBufferBenchmark: compares the TreeSet previously used to
+ * reorder frames with the FrameRingBuffer. Each operation adds one frame and
+ * removes the oldest one, keeping WINDOW frames in the buffer, which
+ * corresponds to the steady state of the jitter buffer. Frames arrive slightly
+ * out of order, and the sequence numbers go through the 16-bit wraparound
+ * several times.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBufferJmh {
+
+	private static final int WINDOW = 30;
+	private static final int SEQUENCE_COUNT = 1 << 16;
+
+	private Frame[] frames;
+	private int next;
+	private TreeSet<Frame> treeSet;
+	private FrameRingBuffer ringBuffer;
+
+	@Setup
+	public void setUp() {
+		frames = createFrames();
+		next = 0;
+		treeSet = new TreeSet<Frame>();
+		ringBuffer = new FrameRingBuffer(256);
+	}
+
+	@Benchmark
+	public Frame treeSet() {
+		treeSet.add(nextFrame());
+		return treeSet.size() > WINDOW ? treeSet.pollFirst() : null;
+	}
+
+	@Benchmark
+	public Frame ringBuffer() {
+		ringBuffer.add(nextFrame());
+		return ringBuffer.size() > WINDOW ? ringBuffer.pollFirst() : null;
+	}
+
+	private Frame nextFrame() {
+		Frame frame = frames[next];
+		next = (next + 1) % frames.length;
+		return frame;
+	}
+
+	/**
+	 * Creates frames for all sequence numbers, swapping each group of four
+	 * consecutive frames in pairs to simulate reordering.
+	 */
+	private static Frame[] createFrames() {
+		Frame[] frames = new Frame[SEQUENCE_COUNT];
+		byte[] payload = new byte[1];
+		for (int i = 0; i < SEQUENCE_COUNT; i++) {
+			int sequence = (i % 4 == 1) ? i + 1 : (i % 4 == 2) ? i - 1 : i;
+			frames[i] = new Frame((byte) 26, true, (short) sequence, i * 50,
+					payload);
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+/**
+ * JMH version of RTPParseBenchmark: measures RTSPConnection.parseRTPPacket on
+ * a packet already in the buffer of a pooled frame, for a few payload sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RTPParseJmh {
+
+	private static final int BUFFER_LENGTH = 15000;
+	private static final int RTP_HEADER_LENGTH = 12;
+
+	@Param({ "100", "4000", "14000" })
+	private int payloadLength;
+
+	private Frame frame;
+	private byte[] packet;
+	private int packetLength;
+
+	@Setup
+	public void setUp() {
+		frame = new FramePool(1, BUFFER_LENGTH).acquire();
+		packetLength = RTP_HEADER_LENGTH + payloadLength;
+		packet = frame.getBuffer();
+		packet[0] = (byte) 0x80;
+		packet[1] = (byte) (0x80 | 26);
+		packet[3] = 1;
+		packet[7] = 40;
+	}
+
+	@Benchmark
+	public Frame parseRTPPacket() {
+		// A different sequence number for every packet, so that the JIT can't
+		// treat the parse as loop-invariant.
+		packet[3]++;
+		return RTSPConnection.parseRTPPacket(frame, packetLength);
+	}
+}
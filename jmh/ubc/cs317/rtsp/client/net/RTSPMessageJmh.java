@@ -0,0 +1,126 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+
+/**
+ * JMH version of RTSPMessageBenchmark: measures building and sending RTSP
+ * requests to a channel that discards its input, and reading and parsing the
+ * same RTSP response again and again, so only the work done by RTSPRequest,
+ * RTSPResponse and RTSPResponseParser is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RTSPMessageJmh {
+
+	private static final String RESPONSE = "RTSP/1.0 200 OK\r\n"
+			+ "CSeq: 3\r\n" + "Session: 123456\r\n"
+			+ "Transport: RTP/UDP; client_port=25000\r\n" + "\r\n";
+
+	private final NullChannel channel = new NullChannel();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+	private BufferedReader reader;
+	private byte[] responseBytes;
+	private RTSPResponseParser parser;
+
+	@Setup
+	public void setUp() throws IOException {
+		reader = new BufferedReader(new StringReader(RESPONSE));
+		reader.mark(RESPONSE.length());
+		responseBytes = RESPONSE.getBytes("ISO-8859-1");
+		parser = new RTSPResponseParser();
+	}
+
+	@Benchmark
+	public RTSPResponseFuture requestSetup() throws RTSPException {
+		return new RTSPRequest("SETUP", "movie.Mjpeg").setCSeq(1)
+				.setRtpPort(25000).sendRequest(channel, buffer);
+	}
+
+	@Benchmark
+	public RTSPResponseFuture requestPlay() throws RTSPException {
+		return new RTSPRequest("PLAY", "movie.Mjpeg").setCSeq(2)
+				.setSession("123456").sendRequest(channel, buffer);
+	}
+
+	@Benchmark
+	public RTSPResponse responseRead() throws IOException, RTSPException {
+		reader.reset();
+		return RTSPResponse.readRTSPResponse(reader);
+	}
+
+	@Benchmark
+	public int responseParse() throws RTSPException {
+		parser.getBuffer().put(responseBytes);
+		return parser.nextResponse().getHeaderIntValue("CSeq");
+	}
+
+	/**
+	 * A channel that discards everything written to it.
+	 */
+	private static class NullChannel implements GatheringByteChannel {
+
+		@Override
+		public int write(ByteBuffer source) {
+			int length = source.remaining();
+			source.position(source.limit());
+			return length;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources, int offset, int length) {
+			long written = 0;
+			for (int i = offset; i < offset + length; i++)
+				written += write(sources[i]);
+			return written;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources) {
+			return write(sources, 0, sources.length);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,374 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.metrics.JsonMetricsExporter;
+import ubc.cs317.rtsp.client.metrics.MetricsExporter;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.metrics.TextMetricsExporter;
+import ubc.cs317.rtsp.client.model.Session;
+import ubc.cs317.rtsp.client.net.RTSPResponseFuture;
+import ubc.cs317.rtsp.client.recording.RecordingSource;
+import ubc.cs317.rtsp.client.recording.StreamRecorder;
+
+/**
+ * This class is an entry point that plays one or more videos without any user
+ * interface. Each video is opened in its own session, all videos are played
+ * at the same time, and once every stream has ended a summary of the frames
+ * received is printed. No AWT or Swing objects are created, so this client can
+ * be used to run ingest benchmarks and long-running tests on machines without
+ * a display. Optionally, the client metrics (see MetricsRegistry) are
+ * written after the summary, as text or JSON. Instead of receiving videos
+ * from a server, the client can also replay recordings made with
+ * <code>-r</code> (see RecordingSource).
+ *
+ * Usage: <code>HeadlessClient [-t idleTimeoutMs] [-d maxDurationMs]
+ * [-m text|json] [-i] [-r directory] server port video [video ...]</code>,
+ * where <code>-i</code> receives the streams interleaved in the RTSP
+ * connections instead of over UDP, and <code>-r</code> records every stream
+ * to the given directory; or <code>HeadlessClient [-t idleTimeoutMs]
+ * [-d maxDurationMs] [-m text|json] [-s positionMs] -p directory video
+ * [video ...]</code>, which replays the most recent recording of each video
+ * in the given directory, starting at the given position.
+ */
+public class HeadlessClient {
+
+	private static final long DEFAULT_IDLE_TIMEOUT_MS = 3000;
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final String server;
+	private final int port;
+	private final File replayDirectory;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT_MS;
+	private long maximumDuration = Long.MAX_VALUE;
+	private boolean interleaved = false;
+	private File recordingDirectory = null;
+	private long startPosition = 0;
+
+	private final List<Session> sessions = new ArrayList<Session>();
+	private final List<StreamMonitor> monitors = new ArrayList<StreamMonitor>();
+	private final List<StreamRecorder> recorders = new ArrayList<StreamRecorder>();
+
+	/**
+	 * Creates a new headless client. No connection is established at this
+	 * point.
+	 *
+	 * @param server
+	 *            The IP address or host name of the RTSP server.
+	 * @param port
+	 *            The port where the RTSP server is listening to.
+	 */
+	public HeadlessClient(String server, int port) {
+		this.server = server;
+		this.port = port;
+		this.replayDirectory = null;
+	}
+
+	/**
+	 * Creates a new headless client that replays recordings instead of
+	 * receiving videos from a server.
+	 *
+	 * @param replayDirectory
+	 *            The directory where the recordings are.
+	 */
+	public HeadlessClient(File replayDirectory) {
+		this.server = null;
+		this.port = 0;
+		this.replayDirectory = replayDirectory;
+	}
+
+	/**
+	 * Defines how long a stream may go without frames before it is considered
+	 * finished.
+	 *
+	 * @param idleTimeout
+	 *            The idle timeout, in milliseconds.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Defines the maximum time streams are played, after which they are closed
+	 * even if they have not finished.
+	 *
+	 * @param maximumDuration
+	 *            The maximum duration, in milliseconds.
+	 */
+	public void setMaximumDuration(long maximumDuration) {
+		this.maximumDuration = maximumDuration;
+	}
+
+	/**
+	 * Defines if the sessions opened after this call receive their streams
+	 * interleaved in the RTSP connection, instead of over UDP.
+	 *
+	 * @param interleaved
+	 *            true for interleaved transport, false for UDP.
+	 */
+	public void setInterleaved(boolean interleaved) {
+		this.interleaved = interleaved;
+	}
+
+	/**
+	 * Defines if the videos opened after this call are recorded, and where.
+	 *
+	 * @param recordingDirectory
+	 *            The directory where recordings are created, or null if
+	 *            videos are not to be recorded.
+	 */
+	public void setRecordingDirectory(File recordingDirectory) {
+		this.recordingDirectory = recordingDirectory;
+	}
+
+	/**
+	 * Defines the position where replayed videos opened after this call
+	 * start. Only used when replaying recordings.
+	 *
+	 * @param startPosition
+	 *            The start position, in milliseconds from the start of the
+	 *            video.
+	 */
+	public void setStartPosition(long startPosition) {
+		this.startPosition = startPosition;
+	}
+
+	/**
+	 * Opens a new session with the server, or with the recordings being
+	 * replayed, and sets up a video in it.
+	 *
+	 * @param videoName
+	 *            The name of the video to be opened.
+	 * @return The session where the video was opened.
+	 * @throws RTSPException
+	 *             If the connection could not be established or the server
+	 *             did not accept the video (or no recording of the video was
+	 *             found).
+	 */
+	public Session open(String videoName) throws RTSPException {
+		Session session = replayDirectory != null ? new Session(
+				RecordingSource.factory(replayDirectory,
+						RecordingSource.DEFAULT_SPEED)) : new Session(server,
+				port, interleaved);
+		StreamMonitor monitor = new StreamMonitor(videoName + "#"
+				+ (sessions.size() + 1));
+		session.addSessionListener(monitor);
+		StreamRecorder recorder = null;
+		if (recordingDirectory != null) {
+			recorder = new StreamRecorder(recordingDirectory);
+			session.addSessionListener(recorder);
+		}
+		try {
+			session.open(videoName).await();
+			if (replayDirectory != null && startPosition > 0)
+				session.seek(startPosition).await();
+		} catch (RTSPException e) {
+			session.closeConnection();
+			if (recorder != null)
+				closeRecorder(recorder);
+			throw e;
+		}
+		sessions.add(session);
+		monitors.add(monitor);
+		if (recorder != null)
+			recorders.add(recorder);
+		return session;
+	}
+
+	/**
+	 * Plays all open videos until each one has ended or the maximum duration
+	 * has elapsed, then closes all sessions.
+	 *
+	 * @throws RTSPException
+	 *             If one of the servers did not accept the request to play.
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting for the streams.
+	 */
+	public void playAll() throws RTSPException, InterruptedException {
+
+		List<RTSPResponseFuture> requests = new ArrayList<RTSPResponseFuture>();
+		for (Session session : sessions)
+			requests.add(session.play());
+		for (RTSPResponseFuture request : requests)
+			request.await();
+
+		long start = System.currentTimeMillis();
+		long elapsed = 0;
+		while (!allFinished(elapsed) && elapsed < maximumDuration) {
+			Thread.sleep(POLL_INTERVAL_MS);
+			elapsed = System.currentTimeMillis() - start;
+		}
+
+		for (Session session : sessions) {
+			try {
+				session.close().await();
+			} catch (RTSPException e) {
+				System.err.println("Could not close " + session.getVideoName()
+						+ ": " + e.getMessage());
+			}
+			session.closeConnection();
+		}
+
+		for (StreamRecorder recorder : recorders)
+			closeRecorder(recorder);
+	}
+
+	/**
+	 * Returns the monitors collecting statistics for each open video, in the
+	 * order videos were opened.
+	 *
+	 * @return A list of stream monitors.
+	 */
+	public List<StreamMonitor> getMonitors() {
+		return monitors;
+	}
+
+	/**
+	 * Prints a summary of the statistics of every stream, both of the frames
+	 * played and of the packets received from the network.
+	 */
+	public void printReport() {
+		long totalFrames = 0;
+		for (int i = 0; i < monitors.size(); i++) {
+			StreamMonitor monitor = monitors.get(i);
+			System.out.println(monitor.getReport());
+			System.out.println("    network: " + sessions.get(i).getStatistics());
+			totalFrames += monitor.getFrameCount();
+		}
+		System.out.println("Total frames: " + totalFrames);
+		for (StreamRecorder recorder : recorders)
+			System.out.println("Recorded " + recorder.getSegmentFiles()
+					+ ", " + recorder.getDroppedCount() + " frames dropped");
+	}
+
+	/**
+	 * Closes a recorder, reporting any exception that stopped the recording.
+	 */
+	private static void closeRecorder(StreamRecorder recorder) {
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			System.err.println("Could not record: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns an indication if all streams have ended, i.e., if no frame has
+	 * been played for idleTimeout milliseconds (counted from the start of the
+	 * playback for streams that have not played any frame).
+	 */
+	private boolean allFinished(long elapsed) {
+		for (StreamMonitor monitor : monitors) {
+			long idleTime = monitor.getIdleTime();
+			if (idleTime < 0)
+				idleTime = elapsed;
+			if (monitor.getException() == null && idleTime < idleTimeout)
+				return false;
+		}
+		return true;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+
+		System.setProperty("java.awt.headless", "true");
+
+		int argument = 0;
+		long idleTimeout = DEFAULT_IDLE_TIMEOUT_MS;
+		long maximumDuration = Long.MAX_VALUE;
+		MetricsExporter exporter = null;
+		boolean interleaved = false;
+		File recordingDirectory = null;
+		File replayDirectory = null;
+		long startPosition = 0;
+		while (argument < args.length && args[argument].startsWith("-")) {
+			if (args[argument].equals("-i")) {
+				interleaved = true;
+				argument++;
+				continue;
+			} else if (args[argument].equals("-t") && argument + 1 < args.length)
+				idleTimeout = Long.parseLong(args[argument + 1]);
+			else if (args[argument].equals("-r") && argument + 1 < args.length)
+				recordingDirectory = new File(args[argument + 1]);
+			else if (args[argument].equals("-p") && argument + 1 < args.length)
+				replayDirectory = new File(args[argument + 1]);
+			else if (args[argument].equals("-s") && argument + 1 < args.length)
+				startPosition = Long.parseLong(args[argument + 1]);
+			else if (args[argument].equals("-d") && argument + 1 < args.length)
+				maximumDuration = Long.parseLong(args[argument + 1]);
+			else if (args[argument].equals("-m") && argument + 1 < args.length
+					&& args[argument + 1].equals("text"))
+				exporter = new TextMetricsExporter();
+			else if (args[argument].equals("-m") && argument + 1 < args.length
+					&& args[argument + 1].equals("json"))
+				exporter = new JsonMetricsExporter();
+			else
+				usage();
+			argument += 2;
+		}
+		HeadlessClient client;
+		if (replayDirectory != null) {
+			if (args.length - argument < 1)
+				usage();
+			client = new HeadlessClient(replayDirectory);
+		} else {
+			if (args.length - argument < 3)
+				usage();
+			client = new HeadlessClient(args[argument],
+					Integer.parseInt(args[argument + 1]));
+			argument += 2;
+		}
+		client.setIdleTimeout(idleTimeout);
+		client.setMaximumDuration(maximumDuration);
+		client.setInterleaved(interleaved);
+		client.setRecordingDirectory(recordingDirectory);
+		client.setStartPosition(startPosition);
+
+		try {
+			for (int i = argument; i < args.length; i++)
+				client.open(args[i]);
+			client.playAll();
+		} catch (RTSPException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		client.printReport();
+
+		if (exporter != null) {
+			try {
+				exporter.export(MetricsRegistry.getDefault(), System.out);
+				System.out.println();
+			} catch (IOException e) {
+				System.err.println("Could not write metrics: " + e.getMessage());
+			}
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: HeadlessClient [-t idleTimeoutMs] "
+				+ "[-d maxDurationMs] [-m text|json] [-i] [-r directory] "
+				+ "server port video [video ...]");
+		System.err.println("       HeadlessClient [-t idleTimeoutMs] "
+				+ "[-d maxDurationMs] [-m text|json] [-s positionMs] "
+				+ "-p directory video [video ...]");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.headless;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.listener.SessionListener;
+
+/**
+ * This class represents a session listener that, instead of presenting frames,
+ * keeps statistics about them: number of frames and bytes played, sequence
+ * numbers missing from the played frames, and the time frames spent in the
+ * client between being received and being played.
+ */
+public class StreamMonitor implements SessionListener {
+
+	private final String name;
+
+	private long firstFrameTime = 0;
+	private long lastFrameTime = 0;
+	private long frameCount = 0;
+	private long byteCount = 0;
+
+	private short lastSequenceNumber;
+	private long expectedCount = 0;
+
+	private long totalLatency = 0;
+	private long maximumLatency = 0;
+
+	private RTSPException exception;
+
+	/**
+	 * Creates a new stream monitor.
+	 *
+	 * @param name
+	 *            The name used to identify the stream in reports.
+	 */
+	public StreamMonitor(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public synchronized void frameReceived(Frame frame) {
+
+		if (frame == null)
+			return;
+
+		long now = System.nanoTime();
+		if (frameCount == 0) {
+			firstFrameTime = now;
+			expectedCount = 1;
+		} else {
+			short gap = (short) (frame.getSequenceNumber() - lastSequenceNumber);
+			if (gap > 0)
+				expectedCount += gap;
+		}
+		lastSequenceNumber = frame.getSequenceNumber();
+		lastFrameTime = now;
+		frameCount++;
+		byteCount += frame.getPayloadLength();
+
+		if (frame.getReceiveTime() != 0) {
+			long latency = now - frame.getReceiveTime();
+			totalLatency += latency;
+			maximumLatency = Math.max(maximumLatency, latency);
+		}
+	}
+
+	@Override
+	public synchronized void exceptionThrown(RTSPException exception) {
+		this.exception = exception;
+	}
+
+	@Override
+	public void videoNameChanged(String videoName) {
+	}
+
+	/**
+	 * Returns the time since the last frame was played.
+	 *
+	 * @return The idle time, in milliseconds, or -1 if no frame has been
+	 *         played yet.
+	 */
+	public synchronized long getIdleTime() {
+		if (frameCount == 0)
+			return -1;
+		return (System.nanoTime() - lastFrameTime) / 1000000;
+	}
+
+	public synchronized long getFrameCount() {
+		return frameCount;
+	}
+
+	public synchronized RTSPException getException() {
+		return exception;
+	}
+
+	/**
+	 * Returns a one-line summary of the statistics collected for the stream.
+	 *
+	 * @return A String with the stream statistics.
+	 */
+	public synchronized String getReport() {
+		double seconds = (lastFrameTime - firstFrameTime) / 1e9;
+		long missing = expectedCount - frameCount;
+		return String.format(
+				"%-20s %7d frames %8.2f fps %9.1f kbit/s %6.2f%% missing "
+						+ "latency avg %7.2f ms max %7.2f ms", name,
+				frameCount, seconds > 0 ? (frameCount - 1) / seconds : 0,
+				seconds > 0 ? byteCount * 8 / seconds / 1000 : 0,
+				expectedCount > 0 ? 100.0 * missing / expectedCount : 0,
+				frameCount > 0 ? totalLatency / 1e6 / frameCount : 0,
+				maximumLatency / 1e6);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a monotonically increasing count of events, such as
+ * packets received or frames dropped. Counters are lock-free and can be
+ * updated by any number of threads.
+ */
+public class Counter {
+
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds one to the counter.
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Adds a value to the counter.
+	 *
+	 * @param value
+	 *            The value to be added.
+	 */
+	public void add(long value) {
+		count.addAndGet(value);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Sets the counter back to zero.
+	 */
+	public void reset() {
+		count.set(0);
+	}
+}
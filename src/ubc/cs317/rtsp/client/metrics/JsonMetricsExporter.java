@@ -0,0 +1,75 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.metrics;
+
+import java.io.IOException;
+
+/**
+ * This class writes metrics as a JSON object, with a "counters" object
+ * mapping each counter name to its count, and a "histograms" object mapping
+ * each histogram name to its count and summary values. Durations are written
+ * in nanoseconds.
+ */
+public class JsonMetricsExporter implements MetricsExporter {
+
+	@Override
+	public void export(MetricsRegistry registry, Appendable out)
+			throws IOException {
+
+		out.append("{\"counters\":{");
+		String separator = "";
+		for (Counter counter : registry.getCounters()) {
+			out.append(separator).append(quote(counter.getName())).append(':')
+					.append(Long.toString(counter.getCount()));
+			separator = ",";
+		}
+
+		out.append("},\"histograms\":{");
+		separator = "";
+		for (LatencyHistogram histogram : registry.getHistograms()) {
+			out.append(separator).append(quote(histogram.getName()))
+					.append(":{\"count\":")
+					.append(Long.toString(histogram.getCount()))
+					.append(",\"mean\":")
+					.append(Long.toString(Math.round(histogram.getMean())))
+					.append(",\"p50\":")
+					.append(Long.toString(histogram.getPercentile(50)))
+					.append(",\"p90\":")
+					.append(Long.toString(histogram.getPercentile(90)))
+					.append(",\"p99\":")
+					.append(Long.toString(histogram.getPercentile(99)))
+					.append(",\"p999\":")
+					.append(Long.toString(histogram.getPercentile(99.9)))
+					.append(",\"max\":")
+					.append(Long.toString(histogram.getMaximum())).append('}');
+			separator = ",";
+		}
+		out.append("}}");
+	}
+
+	private static String quote(String value) {
+		StringBuilder builder = new StringBuilder(value.length() + 2);
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if (c < 0x20)
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+}
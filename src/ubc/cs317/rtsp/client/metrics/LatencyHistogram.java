@@ -0,0 +1,156 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents a histogram of durations, in nanoseconds. As in
+ * HdrHistogram, buckets are log-linear: values below 128 have a bucket each,
+ * and every power of two above that is split into 64 buckets of equal width.
+ * The relative error of any percentile is therefore below 1/64 (about 1.6%)
+ * for every value from one nanosecond to hundreds of years, with a fixed
+ * number of buckets.
+ *
+ * Recording a value updates a few atomic variables and never allocates
+ * memory or takes a lock, so histograms can be used in the hot path of any
+ * thread. Values read while other threads are recording are not necessarily
+ * consistent with each other (e.g., the count may include a value not yet
+ * included in the buckets).
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 128;
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - 7)
+			* SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong maximum = new AtomicLong();
+
+	LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Records a duration. Negative durations (e.g., caused by an unset start
+	 * time) are ignored.
+	 *
+	 * @param nanos
+	 *            The duration, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			return;
+		buckets.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long currentMaximum;
+		while (nanos > (currentMaximum = maximum.get())
+				&& !maximum.compareAndSet(currentMaximum, nanos))
+			;
+	}
+
+	/**
+	 * Records the time elapsed since a start time.
+	 *
+	 * @param startNanos
+	 *            The start time, as returned by System.nanoTime().
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMaximum() {
+		return maximum.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return The mean duration, in nanoseconds, or 0 (zero) if no value has
+	 *         been recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Returns an upper bound for the given percentile of the recorded values,
+	 * i.e., the highest value that falls in the same bucket as the value at
+	 * that percentile.
+	 *
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return The value at the percentile, in nanoseconds, or 0 (zero) if no
+	 *         value has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			n += buckets.get(i);
+		if (n == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(getBucketUpperBound(i), maximum.get());
+		}
+		return maximum.get();
+	}
+
+	/**
+	 * Discards all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		total.set(0);
+		maximum.set(0);
+	}
+
+	private static int getBucket(long value) {
+		if (value < LINEAR_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getBucketUpperBound(int bucket) {
+		if (bucket < LINEAR_BUCKETS)
+			return bucket;
+		int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
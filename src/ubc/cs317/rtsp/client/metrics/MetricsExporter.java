@@ -0,0 +1,36 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.metrics;
+
+import java.io.IOException;
+
+/**
+ * Interface used to write the current value of all metrics in a registry in
+ * some output format.
+ */
+public interface MetricsExporter {
+
+	/**
+	 * Writes the metrics in a registry.
+	 *
+	 * @param registry
+	 *            The registry whose metrics are written.
+	 * @param out
+	 *            The destination of the output.
+	 * @throws IOException
+	 *             If the output could not be written.
+	 */
+	public void export(MetricsRegistry registry, Appendable out)
+			throws IOException;
+}
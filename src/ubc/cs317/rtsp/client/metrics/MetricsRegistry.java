@@ -0,0 +1,108 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.metrics;
+
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class keeps the counters and histograms of the client, identified by
+ * name. Metrics are created the first time they are requested, and classes
+ * are expected to keep a reference to the metrics they update, so that
+ * looking them up is not part of the hot path. Names are dot-separated, with
+ * the component as the first part (e.g., "rtp.packets").
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Returns the registry where the client components record their metrics.
+	 *
+	 * @return The default metrics registry.
+	 */
+	public static MetricsRegistry getDefault() {
+		return defaultRegistry;
+	}
+
+	/**
+	 * Returns the counter with the given name, creating it if necessary.
+	 *
+	 * @param name
+	 *            The name of the counter.
+	 * @return The counter with the given name.
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter newCounter = new Counter(name);
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if necessary.
+	 *
+	 * @param name
+	 *            The name of the histogram.
+	 * @return The histogram with the given name.
+	 */
+	public LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram(name);
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null)
+				histogram = newHistogram;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns all counters, sorted by name.
+	 *
+	 * @return A collection of counters.
+	 */
+	public Collection<Counter> getCounters() {
+		return new TreeMap<String, Counter>(counters).values();
+	}
+
+	/**
+	 * Returns all histograms, sorted by name.
+	 *
+	 * @return A collection of histograms.
+	 */
+	public Collection<LatencyHistogram> getHistograms() {
+		return new TreeMap<String, LatencyHistogram>(histograms).values();
+	}
+
+	/**
+	 * Sets all counters back to zero and discards the values recorded in all
+	 * histograms. Metrics remain registered.
+	 */
+	public void reset() {
+		for (Counter counter : counters.values())
+			counter.reset();
+		for (LatencyHistogram histogram : histograms.values())
+			histogram.reset();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.metrics;
+
+import java.io.IOException;
+
+/**
+ * This class writes metrics as a human-readable table, with one line per
+ * metric. Durations are written in milliseconds.
+ */
+public class TextMetricsExporter implements MetricsExporter {
+
+	@Override
+	public void export(MetricsRegistry registry, Appendable out)
+			throws IOException {
+
+		for (Counter counter : registry.getCounters())
+			out.append(String.format("%-28s %12d%n", counter.getName(),
+					counter.getCount()));
+
+		for (LatencyHistogram histogram : registry.getHistograms())
+			out.append(String.format("%-28s %12d  mean %9.3f  p50 %9.3f  "
+					+ "p99 %9.3f  p99.9 %9.3f  max %9.3f ms%n",
+					histogram.getName(), histogram.getCount(),
+					histogram.getMean() / 1e6,
+					histogram.getPercentile(50) / 1e6,
+					histogram.getPercentile(99) / 1e6,
+					histogram.getPercentile(99.9) / 1e6,
+					histogram.getMaximum() / 1e6));
+	}
+}
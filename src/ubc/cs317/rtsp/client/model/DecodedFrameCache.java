@@ -0,0 +1,429 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+
+/**
+ * This class keeps the most recently decoded images of a video, identified by
+ * the sequence number of their frames, so that they can be presented again
+ * (e.g., to step backward and forward while the video is paused) without
+ * receiving or decoding the frames again.
+ *
+ * The cache is bounded by the memory used by the pixels of its images: when
+ * an image is added and the total exceeds the budget, the least recently used
+ * images are evicted. Evicted images are handed to a recycler, so that they
+ * can be reused to decode other frames. Optionally, images are only softly
+ * referenced, so the garbage collector may also reclaim them if memory runs
+ * low; such images are simply forgotten.
+ *
+ * Sequence numbers are extended to 64 bits relative to the most recent image
+ * added, so the order of images is kept when sequence numbers wrap around.
+ * The cache should be cleared when a new video is opened.
+ *
+ * Entries are also indexed by their images, compared by identity, so that
+ * <code>contains</code>, which is called for every image given back to an
+ * image pool, doesn't scan the cache. An IdentityHashMap is not used since it
+ * would keep softly referenced images from being reclaimed; an image is in
+ * the cache at most once.
+ */
+public class DecodedFrameCache {
+
+	/**
+	 * Interface used to give back images evicted from the cache.
+	 */
+	public interface Recycler {
+
+		/**
+		 * Takes an image that is no longer in the cache.
+		 *
+		 * @param image
+		 *            The evicted image.
+		 */
+		public void recycle(BufferedImage image);
+	}
+
+	private static final Counter cacheHits = MetricsRegistry.getDefault()
+			.counter("frame_cache.hits");
+	private static final Counter cacheMisses = MetricsRegistry.getDefault()
+			.counter("frame_cache.misses");
+	private static final Counter cacheEvictions = MetricsRegistry
+			.getDefault().counter("frame_cache.evicted");
+
+	private final long budget;
+	private final boolean softReferences;
+	private final Recycler recycler;
+
+	private final LinkedHashMap<Long, Entry> leastRecentlyUsed = new LinkedHashMap<Long, Entry>(
+			16, 0.75f, true);
+	private final TreeMap<Long, Entry> bySequence = new TreeMap<Long, Entry>();
+	private final HashMap<ImageKey, Entry> byImage = new HashMap<ImageKey, Entry>();
+	private final ReferenceQueue<BufferedImage> clearedImages = new ReferenceQueue<BufferedImage>();
+
+	private long size = 0;
+	private boolean anyImageAdded = false;
+	private long lastKey;
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param budget
+	 *            The maximum number of bytes used by the pixels of the cached
+	 *            images.
+	 * @param softReferences
+	 *            true if images may be reclaimed by the garbage collector
+	 *            before they are evicted.
+	 * @param recycler
+	 *            The object that receives evicted images, or null if evicted
+	 *            images are left to the garbage collector.
+	 */
+	public DecodedFrameCache(long budget, boolean softReferences,
+			Recycler recycler) {
+		this.budget = budget;
+		this.softReferences = softReferences;
+		this.recycler = recycler;
+	}
+
+	/**
+	 * Adds an image to the cache, replacing any image with the same sequence
+	 * number. The cache takes ownership of the image: it must not be given
+	 * back to an image pool by the caller while it is in the cache (see
+	 * <code>contains</code>). Images larger than the budget are not kept, and
+	 * are handed to the recycler immediately.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number of the frame of the image.
+	 * @param image
+	 *            The decoded image.
+	 */
+	public synchronized void put(short sequenceNumber, BufferedImage image) {
+		purgeClearedImages();
+
+		long key = extend(sequenceNumber);
+		anyImageAdded = true;
+		lastKey = key;
+
+		Entry previous = leastRecentlyUsed.get(key);
+		if (previous != null) {
+			if (previous.getImage() == image)
+				return;
+			remove(previous, true);
+		}
+		// The image moves to the new sequence number.
+		Entry sameImage = byImage.get(new ImageKey(image, null));
+		if (sameImage != null)
+			remove(sameImage, false);
+
+		Entry entry = new Entry(key, sequenceNumber, image, getSize(image));
+		if (entry.size > budget) {
+			evicted(image);
+			return;
+		}
+		leastRecentlyUsed.put(key, entry);
+		bySequence.put(key, entry);
+		byImage.put(entry.imageKey, entry);
+		size += entry.size;
+
+		Iterator<Entry> iterator = leastRecentlyUsed.values().iterator();
+		while (size > budget && iterator.hasNext()) {
+			Entry oldest = iterator.next();
+			iterator.remove();
+			bySequence.remove(oldest.key);
+			byImage.remove(oldest.imageKey);
+			size -= oldest.size;
+			BufferedImage oldestImage = oldest.getImage();
+			if (oldestImage != null)
+				evicted(oldestImage);
+		}
+	}
+
+	/**
+	 * Returns the image of a frame, if it is in the cache.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number of the frame.
+	 * @return The image, or null if it is not in the cache. The image remains
+	 *         owned by the cache.
+	 */
+	public synchronized BufferedImage get(short sequenceNumber) {
+		if (!anyImageAdded)
+			return null;
+		Entry entry = leastRecentlyUsed.get(extend(sequenceNumber));
+		BufferedImage image = entry == null ? null : entry.getImage();
+		if (image == null) {
+			if (entry != null)
+				remove(entry, false);
+			cacheMisses.increment();
+		} else
+			cacheHits.increment();
+		return image;
+	}
+
+	/**
+	 * Returns the cached image of the closest frame before a given frame.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number of the given frame.
+	 * @return The entry of the image, or null if there is no such image in
+	 *         the cache.
+	 */
+	public synchronized Entry getPrevious(short sequenceNumber) {
+		return getNeighbour(sequenceNumber, false);
+	}
+
+	/**
+	 * Returns the cached image of the closest frame after a given frame.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number of the given frame.
+	 * @return The entry of the image, or null if there is no such image in
+	 *         the cache.
+	 */
+	public synchronized Entry getNext(short sequenceNumber) {
+		return getNeighbour(sequenceNumber, true);
+	}
+
+	/**
+	 * Returns an indication if an image is in the cache, and therefore owned
+	 * by the cache.
+	 *
+	 * @param image
+	 *            An image.
+	 * @return true if the image is in the cache.
+	 */
+	public synchronized boolean contains(BufferedImage image) {
+		if (image == null)
+			return false;
+		return byImage.containsKey(new ImageKey(image, null));
+	}
+
+	/**
+	 * Evicts every image in the cache, e.g., when a new video is opened.
+	 */
+	public synchronized void clear() {
+		for (Entry entry : leastRecentlyUsed.values()) {
+			BufferedImage image = entry.getImage();
+			if (image != null)
+				evicted(image);
+		}
+		leastRecentlyUsed.clear();
+		bySequence.clear();
+		byImage.clear();
+		size = 0;
+		anyImageAdded = false;
+		purgeClearedImages();
+	}
+
+	/**
+	 * Returns the number of bytes used by the pixels of the cached images.
+	 *
+	 * @return The size of the cache, in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of images in the cache, including images already
+	 * reclaimed by the garbage collector but not yet removed.
+	 *
+	 * @return The number of cached images.
+	 */
+	public synchronized int getCount() {
+		return leastRecentlyUsed.size();
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of bytes used by the pixels of an image.
+	 *
+	 * @param image
+	 *            An image.
+	 * @return The size of the image data, in bytes.
+	 */
+	public static long getSize(BufferedImage image) {
+		DataBuffer data = image.getRaster().getDataBuffer();
+		return (long) data.getSize() * data.getNumBanks()
+				* DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+	}
+
+	private Entry getNeighbour(short sequenceNumber, boolean after) {
+		if (!anyImageAdded)
+			return null;
+		long key = extend(sequenceNumber);
+		while (true) {
+			Map.Entry<Long, Entry> neighbour = after ? bySequence
+					.higherEntry(key) : bySequence.lowerEntry(key);
+			if (neighbour == null) {
+				cacheMisses.increment();
+				return null;
+			}
+			Entry entry = neighbour.getValue();
+			if (entry.getImage() != null) {
+				// Mark the entry as recently used.
+				leastRecentlyUsed.get(entry.key);
+				cacheHits.increment();
+				return entry;
+			}
+			remove(entry, false);
+		}
+	}
+
+	/**
+	 * Extends a sequence number to the 64-bit key closest to the key of the
+	 * most recent image added.
+	 */
+	private long extend(short sequenceNumber) {
+		if (!anyImageAdded)
+			return sequenceNumber & 0xFFFF;
+		return lastKey + (short) (sequenceNumber - (short) lastKey);
+	}
+
+	private void remove(Entry entry, boolean recycle) {
+		leastRecentlyUsed.remove(entry.key);
+		bySequence.remove(entry.key);
+		byImage.remove(entry.imageKey);
+		size -= entry.size;
+		BufferedImage image = entry.getImage();
+		if (recycle && image != null)
+			evicted(image);
+	}
+
+	private void evicted(BufferedImage image) {
+		cacheEvictions.increment();
+		if (recycler != null)
+			recycler.recycle(image);
+	}
+
+	/**
+	 * Removes the entries of images reclaimed by the garbage collector.
+	 */
+	private void purgeClearedImages() {
+		ImageReference reference;
+		while ((reference = (ImageReference) clearedImages.poll()) != null) {
+			Entry entry = leastRecentlyUsed.get(reference.key);
+			if (entry != null && entry.reference == reference)
+				remove(entry, false);
+		}
+	}
+
+	/**
+	 * This class represents an image in the cache.
+	 */
+	public class Entry {
+
+		private final long key;
+		private final short sequenceNumber;
+		private final long size;
+		private final BufferedImage image;
+		private final ImageReference reference;
+		private final ImageKey imageKey;
+
+		private Entry(long key, short sequenceNumber, BufferedImage image,
+				long size) {
+			this.key = key;
+			this.sequenceNumber = sequenceNumber;
+			this.size = size;
+			if (softReferences) {
+				this.image = null;
+				this.reference = new ImageReference(key, image, clearedImages);
+			} else {
+				this.image = image;
+				this.reference = null;
+			}
+			this.imageKey = new ImageKey(image, this);
+		}
+
+		public short getSequenceNumber() {
+			return sequenceNumber;
+		}
+
+		/**
+		 * Returns the image of this entry.
+		 *
+		 * @return The image, which remains owned by the cache, or null if it
+		 *         was reclaimed by the garbage collector.
+		 */
+		public BufferedImage getImage() {
+			return reference == null ? image : reference.get();
+		}
+	}
+
+	/**
+	 * This class identifies an image in the index of images, by identity. The
+	 * key of an entry gets the image from the entry, so that the index
+	 * doesn't keep softly referenced images; the keys used to look images up
+	 * hold the image themselves.
+	 */
+	private static class ImageKey {
+
+		private final int hash;
+		private final BufferedImage image;
+		private final Entry entry;
+
+		private ImageKey(BufferedImage image, Entry entry) {
+			this.hash = System.identityHashCode(image);
+			this.image = entry == null ? image : null;
+			this.entry = entry;
+		}
+
+		private BufferedImage getImage() {
+			return entry == null ? image : entry.getImage();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+			if (!(other instanceof ImageKey))
+				return false;
+			BufferedImage image = getImage();
+			return image != null && image == ((ImageKey) other).getImage();
+		}
+	}
+
+	/**
+	 * This class is a soft reference to an image that remembers its key, so
+	 * that its entry can be removed once the image is reclaimed.
+	 */
+	private static class ImageReference extends SoftReference<BufferedImage> {
+
+		private final long key;
+
+		private ImageReference(long key, BufferedImage image,
+				ReferenceQueue<BufferedImage> queue) {
+			super(image, queue);
+			this.key = key;
+		}
+	}
+}
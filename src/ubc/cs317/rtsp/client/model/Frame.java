@@ -15,9 +15,16 @@ package ubc.cs317.rtsp.client.model;
 
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * This class represents an individual frame in a video stream.
+ * This class represents an individual frame in a video stream. Frames are
+ * either created with their own copy of the payload, or borrowed from a
+ * <code>FramePool</code>, in which case the payload is kept in a buffer owned
+ * by the pool and the frame is returned to the pool once every reference to
+ * it has been released.
  */
 public class Frame implements Comparable<Frame> {
 
@@ -26,6 +33,12 @@ public class Frame implements Comparable<Frame> {
 	private short sequenceNumber;
 	private int timestamp;
 	private byte[] payload;
+	private int offset;
+	private int length;
+	private long receiveTime;
+
+	private final FramePool pool;
+	private final AtomicInteger references;
 
 	/**
 	 * Creates a new frame.
@@ -61,6 +74,11 @@ public class Frame implements Comparable<Frame> {
 
 		this.payload = new byte[length];
 		System.arraycopy(payload, offset, this.payload, 0, length);
+		this.offset = 0;
+		this.length = length;
+
+		this.pool = null;
+		this.references = null;
 	}
 
 	/**
@@ -88,6 +106,102 @@ public class Frame implements Comparable<Frame> {
 				payload.length);
 	}
 
+	/**
+	 * Creates a new pooled frame with an empty buffer. Only used by
+	 * <code>FramePool</code>.
+	 * 
+	 * @param pool
+	 *            The pool this frame is returned to when released.
+	 * @param bufferLength
+	 *            The size of the buffer owned by this frame.
+	 */
+	Frame(FramePool pool, int bufferLength) {
+		this.pool = pool;
+		this.references = new AtomicInteger();
+		this.payload = new byte[bufferLength];
+	}
+
+	/**
+	 * Defines the contents of a pooled frame whose buffer has been filled
+	 * directly (usually by reading a packet into <code>getBuffer()</code>).
+	 * The payload is not copied: it corresponds to the region of the buffer
+	 * defined by <tt>offset</tt> and <tt>length</tt>.
+	 * 
+	 * @param payloadType
+	 *            The numeric type of payload found in the frame.
+	 * @param marker
+	 *            An indication if the frame is an important frame when compared
+	 *            to other frames in the stream.
+	 * @param sequenceNumber
+	 *            The sequence number of the frame.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param offset
+	 *            The position in the buffer where the payload starts.
+	 * @param length
+	 *            The number of bytes in the payload.
+	 * @return This frame.
+	 * @throws IllegalStateException
+	 *             If this frame was not borrowed from a FramePool.
+	 */
+	public Frame fill(byte payloadType, boolean marker, short sequenceNumber,
+			int timestamp, int offset, int length) {
+
+		if (pool == null)
+			throw new IllegalStateException("Frame is not pooled.");
+
+		this.payloadType = payloadType;
+		this.marker = marker;
+		this.sequenceNumber = sequenceNumber;
+		this.timestamp = timestamp;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	/**
+	 * Returns the buffer that holds the payload of this frame, without copying
+	 * it. For pooled frames this buffer is reused after the frame is released,
+	 * so it should not be kept after that point.
+	 * 
+	 * @return The array backing this frame.
+	 */
+	public byte[] getBuffer() {
+		return payload;
+	}
+
+	/**
+	 * Adds a reference to this frame. Any component that keeps a pooled frame
+	 * beyond the call in which it received it (e.g., to process it in another
+	 * thread) must retain it, and release it when it is no longer used. This
+	 * method has no effect for frames that are not pooled.
+	 * 
+	 * @return This frame.
+	 */
+	public Frame retain() {
+		if (references != null)
+			references.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Releases a reference to this frame. When the last reference is released
+	 * the frame is returned to its pool, and its contents should no longer be
+	 * used. This method has no effect for frames that are not pooled.
+	 */
+	public void release() {
+		if (references != null && references.decrementAndGet() == 0)
+			pool.recycle(this);
+	}
+
+	/**
+	 * Marks a pooled frame as borrowed by a single owner. Only used by
+	 * <code>FramePool</code>.
+	 */
+	void acquired() {
+		references.set(1);
+	}
+
 	/**
 	 * Returns the type of payload found in this frame.
 	 * 
@@ -112,7 +226,13 @@ public class Frame implements Comparable<Frame> {
 	 * Returns the sequence number of the frame. This number corresponds to 0
 	 * for the first frame of the stream and increments by one for each frame
 	 * after that.
-	 * 
+	 *
+	 * For a frame received in a single RTP packet, this is the sequence number
+	 * of the packet. A frame reassembled from several RTP packets is
+	 * renumbered, so that frames keep consecutive numbers: its number is not
+	 * the sequence number of any of its packets, and must not be compared with
+	 * RTP sequence numbers (e.g., those in reception statistics).
+	 *
 	 * @return The sequence number of the frame.
 	 */
 	public short getSequenceNumber() {
@@ -130,12 +250,36 @@ public class Frame implements Comparable<Frame> {
 	}
 
 	/**
-	 * Returns the raw data included in the frame.
+	 * Returns the time when the packet containing this frame was received, as
+	 * given by <code>System.nanoTime()</code>.
+	 * 
+	 * @return The time the frame was received, in nanoseconds, or 0 (zero) if
+	 *         it is not known.
+	 */
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+
+	/**
+	 * Defines the time when the packet containing this frame was received.
+	 * 
+	 * @param receiveTime
+	 *            The time the frame was received, as given by
+	 *            <code>System.nanoTime()</code>.
+	 */
+	public void setReceiveTime(long receiveTime) {
+		this.receiveTime = receiveTime;
+	}
+
+	/**
+	 * Returns the raw data included in the frame. The data is copied into a
+	 * new array; use <code>getPayloadBuffer</code> or <code>getBuffer</code>
+	 * with <code>getPayloadOffset</code> to access it without copying.
 	 * 
 	 * @return A byte array corresponding to the raw data of the frame.
 	 */
 	public byte[] getPayload() {
-		return payload.clone();
+		return Arrays.copyOfRange(payload, offset, offset + length);
 	}
 
 	/**
@@ -145,20 +289,55 @@ public class Frame implements Comparable<Frame> {
 	 * @return The length of the payload.
 	 */
 	public int getPayloadLength() {
-		return payload.length;
+		return length;
+	}
+
+	/**
+	 * Returns the position in the array returned by <code>getBuffer</code>
+	 * where the payload of the frame starts.
+	 * 
+	 * @return The offset of the payload in the frame buffer.
+	 */
+	public int getPayloadOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns a read-only view of the payload of the frame. The view shares
+	 * the frame buffer, so no data is copied, and its position and limit
+	 * correspond to the start and end of the payload. For pooled frames the
+	 * view is only valid until the frame is released.
+	 * 
+	 * @return A ByteBuffer containing the payload of the frame.
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		return ByteBuffer.wrap(payload, offset, length).slice()
+				.asReadOnlyBuffer();
 	}
 
 	/**
-	 * Creates an Image based on the payload of the frame.
+	 * Creates an Image based on the payload of the frame. The image is decoded
+	 * directly from the frame buffer, without copying the payload. Since the
+	 * decoding is done lazily, for pooled frames the image must be completely
+	 * loaded (e.g., by creating an <code>ImageIcon</code>) before the frame is
+	 * released.
 	 * 
 	 * @return An <code>Image</code> object corresponding to the frame contents.
 	 */
 	public Image getImage() {
-		return Toolkit.getDefaultToolkit().createImage(getPayload());
+		return Toolkit.getDefaultToolkit().createImage(payload, offset, length);
 	}
 
+	/**
+	 * Compares frames by sequence number. Sequence numbers are compared using
+	 * 16-bit serial number arithmetic, so that a frame that follows the
+	 * wraparound of the sequence number (e.g., 0) is considered to come after
+	 * a frame immediately before it (e.g., 65535). As a consequence, the
+	 * ordering is only consistent for frames less than 32768 sequence numbers
+	 * apart.
+	 */
 	@Override
 	public int compareTo(Frame o) {
-		return this.sequenceNumber - o.sequenceNumber;
+		return (short) (this.sequenceNumber - o.sequenceNumber);
 	}
 }
@@ -0,0 +1,212 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.swing.ImageIcon;
+
+/**
+ * This class decodes the payload of frames into images. JPEG payloads (type
+ * 26) are decoded with an ImageIO reader that is reused for every frame,
+ * directly into a destination image taken from a pool. When the image will be
+ * displayed in an area much smaller than the image, the reader skips pixels
+ * while decoding (source subsampling), so that no time is spent decoding
+ * pixels that would be discarded when scaling. Final scaling to the display
+ * size is left to whoever paints the image.
+ *
+ * A single decoder may be used by several threads at the same time: each
+ * thread keeps its own reader. Images returned by <code>decode</code> should
+ * be given back with <code>recycle</code> once they are no longer displayed.
+ */
+public class FrameDecoder {
+
+	private static final byte JPEG_PAYLOAD_TYPE = 26;
+
+	private final int poolCapacity;
+	private final ArrayDeque<BufferedImage> imagePool = new ArrayDeque<BufferedImage>();
+
+	private final ThreadLocal<DecodeState> decodeState = new ThreadLocal<DecodeState>() {
+		@Override
+		protected DecodeState initialValue() {
+			return new DecodeState();
+		}
+	};
+
+	/**
+	 * The ImageIO objects used by a single thread.
+	 */
+	private static class DecodeState {
+		private ImageReader reader;
+		private ImageReadParam param;
+
+		private DecodeState() {
+			Iterator<ImageReader> readers = ImageIO
+					.getImageReadersByFormatName("jpeg");
+			if (readers.hasNext()) {
+				reader = readers.next();
+				param = reader.getDefaultReadParam();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new frame decoder.
+	 *
+	 * @param poolCapacity
+	 *            The maximum number of recycled images kept for reuse.
+	 */
+	public FrameDecoder(int poolCapacity) {
+		this.poolCapacity = poolCapacity;
+	}
+
+	/**
+	 * Decodes a frame into an image. If the image is at least twice as large
+	 * as the area where it will be displayed, it is subsampled while decoding,
+	 * so the resulting image may be smaller than the original frame (but never
+	 * smaller than the display area). The frame is not used after this method
+	 * returns, so it may be released immediately.
+	 *
+	 * @param frame
+	 *            The frame to be decoded.
+	 * @param width
+	 *            The width of the area where the image will be displayed, or 0
+	 *            (zero) to keep the original size.
+	 * @param height
+	 *            The height of the area where the image will be displayed, or
+	 *            0 (zero) to keep the original size.
+	 * @return An image corresponding to the frame contents.
+	 * @throws IOException
+	 *             If the frame could not be decoded.
+	 */
+	public BufferedImage decode(Frame frame, int width, int height)
+			throws IOException {
+
+		DecodeState state = decodeState.get();
+		if (frame.getPayloadType() == JPEG_PAYLOAD_TYPE && state.reader != null)
+			return decodeJPEG(state, frame, width, height);
+
+		Image source = new ImageIcon(frame.getImage()).getImage();
+		int sourceWidth = source.getWidth(null);
+		int sourceHeight = source.getHeight(null);
+		if (sourceWidth <= 0 || sourceHeight <= 0)
+			throw new IOException("Frame could not be decoded.");
+
+		BufferedImage image = getImage(sourceWidth, sourceHeight,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.drawImage(source, 0, 0, null);
+		graphics.dispose();
+		return image;
+	}
+
+	/**
+	 * Returns an image obtained from <code>decode</code> to the pool, so that
+	 * it can be reused for another frame. The image should not be used by the
+	 * caller after this point.
+	 *
+	 * @param image
+	 *            The image to be reused.
+	 */
+	public void recycle(BufferedImage image) {
+		if (image == null)
+			return;
+		synchronized (imagePool) {
+			if (imagePool.size() < poolCapacity)
+				imagePool.push(image);
+		}
+	}
+
+	/**
+	 * Decodes a JPEG payload, subsampling it if it is at least twice as large
+	 * as the requested size. The image is decoded directly into a pooled
+	 * image.
+	 */
+	private BufferedImage decodeJPEG(DecodeState state, Frame frame,
+			int width, int height) throws IOException {
+
+		ImageInputStream input = new MemoryCacheImageInputStream(
+				new ByteArrayInputStream(frame.getBuffer(),
+						frame.getPayloadOffset(), frame.getPayloadLength()));
+		try {
+			ImageReader reader = state.reader;
+			ImageReadParam param = state.param;
+			reader.setInput(input, true, true);
+
+			int sourceWidth = reader.getWidth(0);
+			int sourceHeight = reader.getHeight(0);
+			int subsampling = 1;
+			if (width > 0 && height > 0)
+				subsampling = Math.max(1,
+						Math.min(sourceWidth / width, sourceHeight / height));
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+			int decodedWidth = (sourceWidth + subsampling - 1) / subsampling;
+			int decodedHeight = (sourceHeight + subsampling - 1) / subsampling;
+			ImageTypeSpecifier type = reader.getImageTypes(0).next();
+
+			BufferedImage destination = getImage(decodedWidth, decodedHeight,
+					type.getBufferedImageType());
+			if (destination == null)
+				destination = type.createBufferedImage(decodedWidth,
+						decodedHeight);
+			param.setDestination(destination);
+
+			try {
+				return reader.read(0, param);
+			} catch (IOException e) {
+				recycle(destination);
+				throw e;
+			}
+		} finally {
+			state.param.setDestination(null);
+			state.reader.setInput(null);
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns an image of the given size and type, reusing a pooled image if
+	 * possible. Pooled images of a different size (e.g., after the window is
+	 * resized) are discarded.
+	 * 
+	 * @return An image, or null if no pooled image is available and the type
+	 *         is a custom type that has to be created by the caller.
+	 */
+	private BufferedImage getImage(int width, int height, int type) {
+		synchronized (imagePool) {
+			while (!imagePool.isEmpty()) {
+				BufferedImage image = imagePool.pop();
+				if (image.getWidth() == width && image.getHeight() == height
+						&& image.getType() == type)
+					return image;
+			}
+		}
+		if (type == BufferedImage.TYPE_CUSTOM)
+			return null;
+		return new BufferedImage(width, height, type);
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+/**
+ * This class represents a pool of reusable frames, each one owning a buffer
+ * large enough to hold a complete RTP packet. Frames are borrowed with
+ * <code>acquire</code> and go back to the pool automatically when their last
+ * reference is released (see <code>Frame.release</code>). Once the pool has
+ * grown to the number of frames in flight, borrowing and releasing frames
+ * does not allocate any memory.
+ */
+public class FramePool {
+
+	private final int bufferLength;
+	private final Frame[] freeFrames;
+	private int freeCount = 0;
+	private long createdCount = 0;
+
+	/**
+	 * Creates a new, empty frame pool.
+	 *
+	 * @param capacity
+	 *            The maximum number of idle frames kept by the pool. Frames
+	 *            released while the pool is full are left to the garbage
+	 *            collector.
+	 * @param bufferLength
+	 *            The size of the buffer owned by each frame.
+	 */
+	public FramePool(int capacity, int bufferLength) {
+		this.bufferLength = bufferLength;
+		this.freeFrames = new Frame[capacity];
+	}
+
+	/**
+	 * Borrows a frame from the pool, creating a new one if no idle frame is
+	 * available. The frame is returned with a single reference, which the
+	 * caller is responsible for releasing.
+	 *
+	 * @return A pooled frame, with undefined contents.
+	 */
+	public Frame acquire() {
+		Frame frame = null;
+		synchronized (this) {
+			if (freeCount > 0) {
+				frame = freeFrames[--freeCount];
+				freeFrames[freeCount] = null;
+			} else
+				createdCount++;
+		}
+		if (frame == null)
+			frame = new Frame(this, bufferLength);
+		frame.acquired();
+		return frame;
+	}
+
+	/**
+	 * Returns a frame to the pool. Called when the last reference to a frame
+	 * is released.
+	 *
+	 * @param frame
+	 *            The frame to be reused.
+	 */
+	synchronized void recycle(Frame frame) {
+		if (freeCount < freeFrames.length)
+			freeFrames[freeCount++] = frame;
+	}
+
+	/**
+	 * Returns the size of the buffer owned by each frame in the pool.
+	 *
+	 * @return The buffer length, in bytes.
+	 */
+	public int getBufferLength() {
+		return bufferLength;
+	}
+
+	/**
+	 * Returns the number of frames created by this pool so far. In steady state
+	 * this number should no longer increase.
+	 *
+	 * @return The number of frames allocated by the pool.
+	 */
+	public synchronized long getCreatedCount() {
+		return createdCount;
+	}
+}
@@ -18,19 +18,31 @@ import java.util.Set;
 
 import ubc.cs317.rtsp.client.exception.RTSPException;
 import ubc.cs317.rtsp.client.model.listener.SessionListener;
+import ubc.cs317.rtsp.client.net.JitterBuffer;
 import ubc.cs317.rtsp.client.net.RTSPConnection;
+import ubc.cs317.rtsp.client.net.RTSPResponseFuture;
 
 /**
  * This class manages an open session with an RTSP server. It provides the main
  * interaction between the network interface (package
- * <code>ubc.cs317.rtsp.client.net</code> and the user interface.
+ * <code>ubc.cs317.rtsp.client.net</code> and the user interface. A session may
+ * also play videos from another source, such as a local recording, through
+ * the same interface (see StreamSource).
  */
 public class Session {
 
 	private Set<SessionListener> sessionListeners = new HashSet<SessionListener>();
-	private RTSPConnection rtspConnection;
+	private StreamSource source;
 	private String videoName = null;
 
+	private final RTSPResponseFuture.Listener errorReporter = new RTSPResponseFuture.Listener() {
+		@Override
+		public void requestCompleted(RTSPResponseFuture future) {
+			if (!future.isSuccessful())
+				fireExceptionThrown(future.getException());
+		}
+	};
+
 	/**
 	 * Creates a new RTSP session. This constructor will also create a new
 	 * network connection with the server. No stream setup is established at
@@ -46,7 +58,44 @@ public class Session {
 	 */
 	public Session(String server, int port) throws RTSPException {
 
-		rtspConnection = new RTSPConnection(this, server, port);
+		source = new RTSPConnection(this, server, port);
+	}
+
+	/**
+	 * Creates a new RTSP session, selecting the transport used for the video
+	 * stream. This constructor will also create a new network connection with
+	 * the server. No stream setup is established at this point.
+	 * 
+	 * @param server
+	 *            The IP address or host name of the RTSP server.
+	 * @param port
+	 *            The port where the RTSP server is listening to.
+	 * @param interleaved
+	 *            true if the video stream is to be received over the RTSP
+	 *            connection itself (e.g., if UDP traffic is blocked), false if
+	 *            it is to be received over UDP.
+	 * @throws RTSPException
+	 *             If it was not possible to establish a connection with the
+	 *             server.
+	 */
+	public Session(String server, int port, boolean interleaved)
+			throws RTSPException {
+
+		source = new RTSPConnection(this, server, port, interleaved);
+	}
+
+	/**
+	 * Creates a new session that plays videos from a source other than an
+	 * RTSP server, e.g., a local recording. No video is opened at this point.
+	 * 
+	 * @param factory
+	 *            The object that creates the source of this session.
+	 * @throws RTSPException
+	 *             If the source could not be created.
+	 */
+	public Session(StreamSource.Factory factory) throws RTSPException {
+
+		source = factory.createSource(this);
 	}
 
 	/**
@@ -70,70 +119,116 @@ public class Session {
 	 *            A SessionListener that should no longer be called when a
 	 *            session event happens.
 	 */
-	public void removeSessionListener(SessionListener listener) {
+	public synchronized void removeSessionListener(SessionListener listener) {
 		sessionListeners.remove(listener);
 	}
 
 	/**
-	 * Opens a new video file in the interface.
+	 * Opens a new video file in the interface. This function returns as soon
+	 * as the request is sent; listeners are notified of the new video name
+	 * once the server accepts it, or of the exception if it doesn't.
 	 * 
 	 * @param videoName
 	 *            The name (URL) of the video to be opened. It should correspond
 	 *            to a local file in the server.
+	 * @return A future completed when the server responds.
 	 * @throws RTSPException
-	 *             If the server does not accept the request, or in case of a
-	 *             connectivity problem.
+	 *             If a video is already open, or in case of a connectivity
+	 *             problem.
 	 */
-	public void open(String videoName) throws RTSPException {
-		rtspConnection.setup(videoName);
-		this.videoName = videoName;
-		for (SessionListener listener : sessionListeners)
-			listener.videoNameChanged(this.videoName);
+	public RTSPResponseFuture open(final String videoName)
+			throws RTSPException {
+		return source.setup(videoName).addListener(
+				new RTSPResponseFuture.Listener() {
+					@Override
+					public void requestCompleted(RTSPResponseFuture future) {
+						if (future.isSuccessful())
+							setVideoName(videoName);
+						else
+							fireExceptionThrown(future.getException());
+					}
+				});
 	}
 
 	/**
 	 * Starts to play the existing file. It should only be called once a file
-	 * has been opened. This function will return immediately after the request
-	 * was responded. Frames will be received in the background and will be
-	 * handled by the <code>processReceivedFrame</code> method. If the video has
-	 * been paused previously, playback will resume where it stopped.
+	 * has been opened (although the request to open it may still be waiting
+	 * for a response). This function returns as soon as the request is sent.
+	 * Frames will be received in the background and will be handled by the
+	 * <code>processReceivedFrame</code> method. If the video has been paused
+	 * previously, playback will resume where it stopped.
 	 * 
+	 * @return A future completed when the server responds.
 	 * @throws RTSPException
-	 *             If the server does not accept the request, or in case of a
-	 *             connectivity problem.
+	 *             If no file is open, or the file is already playing.
 	 */
-	public void play() throws RTSPException {
-		rtspConnection.play();
+	public RTSPResponseFuture play() throws RTSPException {
+		return source.play().addListener(errorReporter);
 	}
 
 	/**
 	 * Pauses the playback the existing file. It should only be called once a
-	 * file has started playing. This function will return immediately after the
-	 * request was responded. The server might still send a few frames before
-	 * stopping the playback completely.
+	 * file has started playing. This function returns as soon as the request
+	 * is sent. The server might still send a few frames before stopping the
+	 * playback completely.
+	 * 
+	 * @return A future completed when the server responds.
+	 * @throws RTSPException
+	 *             If the file is not playing.
+	 */
+	public RTSPResponseFuture pause() throws RTSPException {
+		return source.pause().addListener(errorReporter);
+	}
+
+	/**
+	 * Moves the playback of the existing file to a new position. Only
+	 * available for seekable sources, such as local recordings (see
+	 * <code>isSeekable</code>). This function returns as soon as the request
+	 * is sent.
 	 * 
+	 * @param position
+	 *            The new position, in milliseconds from the start of the
+	 *            video.
+	 * @return A future completed when the playback is moved.
 	 * @throws RTSPException
-	 *             If the server does not accept the request, or in case of a
-	 *             connectivity problem.
+	 *             If no file is open, or the source is not seekable.
 	 */
-	public void pause() throws RTSPException {
-		rtspConnection.pause();
+	public RTSPResponseFuture seek(long position) throws RTSPException {
+		return source.seek(position).addListener(errorReporter);
+	}
+
+	/**
+	 * Returns an indication if the playback can be moved with
+	 * <code>seek</code>.
+	 * 
+	 * @return true if the source of this session is seekable.
+	 */
+	public boolean isSeekable() {
+		return source.isSeekable();
 	}
 
 	/**
 	 * Closes the currently open file. It should only be called once a file has
-	 * been open.
+	 * been open. This function returns as soon as the request is sent; the
+	 * presented frame is cleared and listeners are notified once the server
+	 * accepts the request.
 	 * 
+	 * @return A future completed when the server responds.
 	 * @throws RTSPException
-	 *             If the server does not accept the request, or in case of a
-	 *             connectivity problem.
+	 *             If no file is open.
 	 */
-	public synchronized void close() throws RTSPException {
-		rtspConnection.teardown();
-		processReceivedFrame(null);
-		videoName = null;
-		for (SessionListener listener : sessionListeners)
-			listener.videoNameChanged(this.videoName);
+	public RTSPResponseFuture close() throws RTSPException {
+		return source.teardown().addListener(
+				new RTSPResponseFuture.Listener() {
+					@Override
+					public void requestCompleted(RTSPResponseFuture future) {
+						if (future.isSuccessful()) {
+							processReceivedFrame(null);
+							setVideoName(null);
+						} else
+							fireExceptionThrown(future.getException());
+					}
+				});
 	}
 
 	/**
@@ -141,13 +236,16 @@ public class Session {
 	 * should not be used anymore after this point.
 	 */
 	public void closeConnection() {
-		rtspConnection.closeConnection();
+		source.closeConnection();
 	}
 
 	/**
 	 * Processes a frame received from the RTSP server. This method will direct
 	 * the frame to the user interface to be processed and presented to the
-	 * user.
+	 * user. Frames may be borrowed from a pool and reused once this method
+	 * returns, so listeners that keep a frame after <code>frameReceived</code>
+	 * returns must call <code>retain</code> on it, and <code>release</code>
+	 * when it is no longer needed.
 	 * 
 	 * @param frame
 	 *            The recently received frame.
@@ -159,13 +257,47 @@ public class Session {
 			listener.frameReceived(frame);
 	}
 
+	/**
+	 * Returns the jitter buffer where received frames are kept until they are
+	 * played. It can be used to configure the buffer depth, the playout delay
+	 * and the playout frame rate.
+	 * 
+	 * @return The jitter buffer associated to this session, or null if the
+	 *         source of this session does not buffer frames.
+	 */
+	public JitterBuffer getJitterBuffer() {
+		return source.getJitterBuffer();
+	}
+
+	/**
+	 * Returns the reception statistics (packets received, loss, reordering
+	 * and interarrival jitter) of the video currently open. Each call returns
+	 * a new snapshot, so it can be polled periodically while the video plays.
+	 * 
+	 * @return A snapshot of the stream statistics.
+	 */
+	public StreamStatistics getStatistics() {
+		return source.getStatistics();
+	}
+
 	/**
 	 * Returns the name of the currently opened video.
 	 * 
 	 * @return The name of the video currently open, or null if no video is
 	 *         open.
 	 */
-	public String getVideoName() {
+	public synchronized String getVideoName() {
 		return videoName;
 	}
+
+	private synchronized void setVideoName(String videoName) {
+		this.videoName = videoName;
+		for (SessionListener listener : sessionListeners)
+			listener.videoNameChanged(videoName);
+	}
+
+	private synchronized void fireExceptionThrown(RTSPException exception) {
+		for (SessionListener listener : sessionListeners)
+			listener.exceptionThrown(exception);
+	}
 }
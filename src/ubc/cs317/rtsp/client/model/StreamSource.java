@@ -0,0 +1,81 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.net.JitterBuffer;
+import ubc.cs317.rtsp.client.net.RTSPResponseFuture;
+
+/**
+ * This interface represents where the frames of a session come from: usually
+ * an RTSP server (see RTSPConnection), but possibly a local recording. A
+ * source delivers the frames of the video it plays to its session, through
+ * <code>Session.processReceivedFrame</code>, and reports the result of each
+ * request through a future, as an RTSP server would.
+ */
+public interface StreamSource {
+
+	/**
+	 * This interface is used to create the source of a session, since a
+	 * source needs a reference to the session it delivers frames to.
+	 */
+	public interface Factory {
+
+		/**
+		 * Creates a new source for a session.
+		 *
+		 * @param session
+		 *            The session that receives the frames of the source.
+		 * @return A new source.
+		 * @throws RTSPException
+		 *             If the source could not be created (e.g., if it was not
+		 *             possible to connect to the server).
+		 */
+		public StreamSource createSource(Session session) throws RTSPException;
+	}
+
+	public RTSPResponseFuture setup(String videoName) throws RTSPException;
+
+	public RTSPResponseFuture play() throws RTSPException;
+
+	public RTSPResponseFuture pause() throws RTSPException;
+
+	public RTSPResponseFuture teardown() throws RTSPException;
+
+	/**
+	 * Moves the playback to a position in the video. Only available if the
+	 * source is seekable.
+	 *
+	 * @param position
+	 *            The position, in milliseconds from the start of the video.
+	 * @return A future completed when the playback is moved.
+	 * @throws RTSPException
+	 *             If no video is set up, or the source is not seekable.
+	 */
+	public RTSPResponseFuture seek(long position) throws RTSPException;
+
+	public boolean isSeekable();
+
+	public void closeConnection();
+
+	/**
+	 * Returns the jitter buffer where frames are kept until they are played.
+	 *
+	 * @return The jitter buffer of this source, or null if frames are not
+	 *         buffered (e.g., for a local recording).
+	 */
+	public JitterBuffer getJitterBuffer();
+
+	public StreamStatistics getStatistics();
+}
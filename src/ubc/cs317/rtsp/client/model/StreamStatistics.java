@@ -0,0 +1,153 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+/**
+ * This class represents a snapshot of the reception statistics of an RTP
+ * stream, computed as described in RFC 3550 (section 6.4.1 and appendix A).
+ * Objects of this class are immutable.
+ */
+public class StreamStatistics {
+
+	private final long packetsReceived;
+	private final long bytesReceived;
+	private final long highestSequenceNumber;
+	private final long expectedPackets;
+	private final double fractionLost;
+	private final double jitter;
+	private final long reorderedPackets;
+	private final long maximumReorderDepth;
+	private final double elapsedSeconds;
+
+	/**
+	 * Creates a new statistics snapshot.
+	 *
+	 * @param packetsReceived
+	 *            The number of packets received.
+	 * @param bytesReceived
+	 *            The number of payload bytes received.
+	 * @param highestSequenceNumber
+	 *            The extended highest sequence number received (including the
+	 *            number of sequence number cycles in the upper bits).
+	 * @param expectedPackets
+	 *            The number of packets expected, based on the first and the
+	 *            highest sequence numbers received.
+	 * @param fractionLost
+	 *            The fraction of packets lost in the last complete interval.
+	 * @param jitter
+	 *            The interarrival jitter, in milliseconds.
+	 * @param reorderedPackets
+	 *            The number of packets received after a packet with a higher
+	 *            sequence number.
+	 * @param maximumReorderDepth
+	 *            The largest difference between the highest sequence number
+	 *            and the sequence number of a reordered packet.
+	 * @param elapsedSeconds
+	 *            The time between the first and the last packets received, in
+	 *            seconds.
+	 */
+	public StreamStatistics(long packetsReceived, long bytesReceived,
+			long highestSequenceNumber, long expectedPackets,
+			double fractionLost, double jitter, long reorderedPackets,
+			long maximumReorderDepth, double elapsedSeconds) {
+		this.packetsReceived = packetsReceived;
+		this.bytesReceived = bytesReceived;
+		this.highestSequenceNumber = highestSequenceNumber;
+		this.expectedPackets = expectedPackets;
+		this.fractionLost = fractionLost;
+		this.jitter = jitter;
+		this.reorderedPackets = reorderedPackets;
+		this.maximumReorderDepth = maximumReorderDepth;
+		this.elapsedSeconds = elapsedSeconds;
+	}
+
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public long getHighestSequenceNumber() {
+		return highestSequenceNumber;
+	}
+
+	public long getExpectedPackets() {
+		return expectedPackets;
+	}
+
+	/**
+	 * Returns the cumulative number of packets lost, i.e., the number of
+	 * packets expected minus the number of packets received. As in RFC 3550,
+	 * duplicate packets are counted as received, so this number may be
+	 * negative.
+	 *
+	 * @return The number of packets lost.
+	 */
+	public long getCumulativeLost() {
+		return expectedPackets - packetsReceived;
+	}
+
+	/**
+	 * Returns the fraction of packets lost in the last complete reporting
+	 * interval.
+	 *
+	 * @return A number between 0 (zero) and 1.
+	 */
+	public double getFractionLost() {
+		return fractionLost;
+	}
+
+	/**
+	 * Returns the estimated interarrival jitter, i.e., the smoothed mean
+	 * deviation of the difference between the spacing of packets at the
+	 * receiver and their spacing in the stream timestamps.
+	 *
+	 * @return The jitter, in milliseconds.
+	 */
+	public double getJitter() {
+		return jitter;
+	}
+
+	public long getReorderedPackets() {
+		return reorderedPackets;
+	}
+
+	public long getMaximumReorderDepth() {
+		return maximumReorderDepth;
+	}
+
+	public double getElapsedSeconds() {
+		return elapsedSeconds;
+	}
+
+	/**
+	 * Returns the average number of packets received per second.
+	 *
+	 * @return The packet rate, or 0 (zero) if it can't be computed yet.
+	 */
+	public double getPacketRate() {
+		return elapsedSeconds > 0 ? packetsReceived / elapsedSeconds : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d packets (%.2f/s), %d lost (%.2f%% last "
+				+ "interval), %d reordered (max depth %d), jitter %.2f ms",
+				packetsReceived, getPacketRate(), getCumulativeLost(),
+				fractionLost * 100, reorderedPackets, maximumReorderDepth,
+				jitter);
+	}
+}
@@ -0,0 +1,390 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+/**
+ * This class rebuilds frames that were sent in more than one RTP packet. All
+ * fragments of a frame share the same RTP timestamp, and the last one has the
+ * marker bit set. Fragments are kept, ordered by sequence number, until the
+ * frame is complete, i.e., until the fragments from the first one to the one
+ * with the marker bit are all present. Their payloads are then concatenated
+ * into a frame borrowed from a pool of large frames. Frames that are not
+ * completed within a timeout (e.g., because a fragment was lost) are
+ * discarded, and so are the oldest incomplete frames if too many are pending.
+ *
+ * A fragment is known to be the first of its frame if it follows the last
+ * fragment of the previous complete frame, or if it starts with a JPEG start
+ * of image marker. A JPEG fragment ending with an end of image marker is
+ * considered the last of its frame even if the marker bit is not set. Frames
+ * sent in a single packet, the usual case, are passed through without being
+ * copied.
+ *
+ * Streams in the standard RTP JPEG format (RFC 2435) are told apart from
+ * streams of complete images by <code>JPEGDepacketizer</code>, once per
+ * stream, from the first packet received that starts a frame; packets
+ * received before that are ignored. In the RFC 2435 format, the first
+ * fragment is the one with fragment offset 0 (zero), the end of image marker
+ * is not transmitted, and the frame is rebuilt as a complete JPEG image from
+ * the scan data of its fragments, even if it was sent in a single packet.
+ *
+ * The timestamps of complete frames are converted to milliseconds from the
+ * first frame of the stream, using the clock rate of the payload format (90
+ * kHz for RFC 2435), so the rest of the client doesn't depend on the format.
+ *
+ * Complete frames are numbered as if each frame had been sent in a single
+ * packet: the fragments of each frame are collapsed into one sequence number,
+ * while the order of frames is kept, and gaps between frames are converted
+ * into a number of missing frames assuming the missing frames had as many
+ * fragments as the newest complete frame. For streams that send one packet
+ * per frame, the sequence numbers are not changed.
+ *
+ * All methods are synchronized, since packets are added by the receiving
+ * thread and the reassembler is cleared when a stream is torn down.
+ */
+class FrameReassembler {
+
+	private static final Counter reassembledFrames = MetricsRegistry
+			.getDefault().counter("rtp.reassembled");
+	private static final Counter droppedFrames = MetricsRegistry
+			.getDefault().counter("rtp.reassembly_dropped");
+
+	private final FramePool framePool;
+	private final long timeout;
+	private final int maximumPendingFrames;
+	private final JPEGDepacketizer depacketizer = new JPEGDepacketizer();
+
+	private final List<PendingFrame> pendingFrames = new ArrayList<PendingFrame>();
+
+	private int format = JPEGDepacketizer.FORMAT_UNKNOWN;
+	private int clockRate;
+	private boolean anyFrameCompleted = false;
+	private short lastFrameSequence;
+	private short lastFirstSequence;
+	private short lastLastSequence;
+	private int lastTimestamp;
+	private long lastExtendedTimestamp;
+
+	/**
+	 * Creates a new reassembler.
+	 *
+	 * @param framePool
+	 *            The pool where frames with more than one fragment are
+	 *            assembled. Frames larger than its buffers are discarded.
+	 * @param timeout
+	 *            The time after which an incomplete frame is discarded,
+	 *            counted from its first fragment received, in nanoseconds.
+	 * @param maximumPendingFrames
+	 *            The maximum number of incomplete frames kept at a time.
+	 */
+	FrameReassembler(FramePool framePool, long timeout,
+			int maximumPendingFrames) {
+		this.framePool = framePool;
+		this.timeout = timeout;
+		this.maximumPendingFrames = maximumPendingFrames;
+	}
+
+	/**
+	 * Adds a packet to the reassembler. The packet must have been parsed into
+	 * the frame already. The caller keeps its own reference to the packet;
+	 * the reassembler retains the packet if it needs to keep it.
+	 *
+	 * @param packet
+	 *            The RTP packet received.
+	 * @return The frame completed by this packet, with a reference owned by
+	 *         the caller, or null if no frame was completed.
+	 */
+	synchronized Frame add(Frame packet) {
+
+		if (getClockRate(packet) == 0)
+			return null;
+		expire(packet.getReceiveTime());
+
+		PendingFrame pending = find(packet.getTimestamp());
+		if (pending == null && isFirstFragment(packet)
+				&& isLastFragment(packet) && !isRTPJPEG())
+			return complete(packet.retain(), packet.getSequenceNumber(),
+					packet.getSequenceNumber());
+
+		if (pending == null) {
+			if (pendingFrames.size() >= maximumPendingFrames)
+				drop(pendingFrames.get(0));
+			pending = new PendingFrame(packet.getTimestamp(),
+					packet.getReceiveTime());
+			pendingFrames.add(pending);
+		}
+		if (!pending.add(packet.retain()))
+			return null;
+
+		Frame first = pending.fragments.get(0);
+		Frame last = pending.fragments.get(pending.fragments.size() - 1);
+		if (!isLastFragment(last) || !isFirstFragment(first)
+				|| !pending.isContiguous())
+			return null;
+
+		short firstSequence = first.getSequenceNumber();
+		short lastSequence = last.getSequenceNumber();
+		pendingFrames.remove(pending);
+		Frame frame = pending.assemble(framePool,
+				isRTPJPEG() ? depacketizer : null, packet.getReceiveTime());
+		if (frame == null) {
+			droppedFrames.increment();
+			return null;
+		}
+		reassembledFrames.increment();
+		return complete(frame, firstSequence, lastSequence);
+	}
+
+	/**
+	 * Returns the frequency of the clock used in the RTP timestamps of the
+	 * stream, identifying the payload format of the stream with a packet if
+	 * it is not known yet.
+	 *
+	 * @param packet
+	 *            An RTP packet of the stream, already parsed.
+	 * @return The clock rate, in Hz, or 0 (zero) if the payload format is
+	 *         still unknown, in which case the packet is ignored by
+	 *         <code>add</code>.
+	 */
+	synchronized int getClockRate(Frame packet) {
+		if (format == JPEGDepacketizer.FORMAT_UNKNOWN) {
+			format = JPEGDepacketizer.identifyFormat(packet);
+			if (format == JPEGDepacketizer.FORMAT_UNKNOWN)
+				return 0;
+			clockRate = JPEGDepacketizer.getClockRate(format);
+		}
+		return clockRate;
+	}
+
+	/**
+	 * Discards all incomplete frames, forgets the payload format and starts
+	 * numbering frames anew, e.g., when a new stream is set up.
+	 */
+	synchronized void clear() {
+		for (PendingFrame pending : pendingFrames)
+			pending.release();
+		pendingFrames.clear();
+		format = JPEGDepacketizer.FORMAT_UNKNOWN;
+		anyFrameCompleted = false;
+	}
+
+	/**
+	 * Assigns the sequence number of a complete frame, based on the distance
+	 * between its fragments and the fragments of the newest frame completed
+	 * so far, and converts its timestamp to milliseconds.
+	 */
+	private Frame complete(Frame frame, short firstSequence, short lastSequence) {
+
+		short sequence;
+		if (!anyFrameCompleted) {
+			sequence = firstSequence;
+			lastTimestamp = frame.getTimestamp();
+			lastExtendedTimestamp = 0;
+		} else {
+			int fragmentsPerFrame = (short) (lastLastSequence - lastFirstSequence) + 1;
+			short ahead = (short) (firstSequence - lastLastSequence);
+			if (ahead > 0) {
+				sequence = (short) (lastFrameSequence + 1 + (ahead - 1)
+						/ fragmentsPerFrame);
+			} else {
+				// An older frame completed late: it keeps its place before
+				// the newest frame, which remains the reference.
+				short behind = (short) (lastFirstSequence - lastSequence);
+				return renumber(frame, (short) (lastFrameSequence - 1 - Math
+						.max(behind - 1, 0) / fragmentsPerFrame));
+			}
+		}
+		anyFrameCompleted = true;
+		lastFrameSequence = sequence;
+		lastFirstSequence = firstSequence;
+		lastLastSequence = lastSequence;
+		return renumber(frame, sequence);
+	}
+
+	private Frame renumber(Frame frame, short sequence) {
+		int timestamp = toMilliseconds(frame.getTimestamp());
+		if (frame.getSequenceNumber() == sequence
+				&& frame.getTimestamp() == timestamp)
+			return frame;
+		return frame.fill(frame.getPayloadType(), frame.isMarkerOn(),
+				sequence, timestamp, frame.getPayloadOffset(),
+				frame.getPayloadLength());
+	}
+
+	/**
+	 * Converts an RTP timestamp to milliseconds from the first frame of the
+	 * stream. Timestamps are extended to 64 bits relative to the newest
+	 * timestamp converted, so they keep increasing when they wrap around.
+	 */
+	private int toMilliseconds(int timestamp) {
+		long extended = lastExtendedTimestamp + (timestamp - lastTimestamp);
+		if (extended > lastExtendedTimestamp) {
+			lastTimestamp = timestamp;
+			lastExtendedTimestamp = extended;
+		}
+		return (int) (extended * 1000 / clockRate);
+	}
+
+	private boolean isRTPJPEG() {
+		return format == JPEGDepacketizer.FORMAT_RFC2435;
+	}
+
+	private boolean isFirstFragment(Frame fragment) {
+		if (isRTPJPEG())
+			return JPEGDepacketizer.getFragmentOffset(fragment) == 0;
+		if (anyFrameCompleted
+				&& fragment.getSequenceNumber() == (short) (lastLastSequence + 1))
+			return true;
+		byte[] buffer = fragment.getBuffer();
+		int offset = fragment.getPayloadOffset();
+		return fragment.getPayloadType() == JPEGDepacketizer.JPEG_PAYLOAD_TYPE
+				&& fragment.getPayloadLength() >= 2
+				&& buffer[offset] == (byte) 0xFF
+				&& buffer[offset + 1] == (byte) 0xD8;
+	}
+
+	private boolean isLastFragment(Frame fragment) {
+		if (fragment.isMarkerOn())
+			return true;
+		if (isRTPJPEG())
+			return false;
+		byte[] buffer = fragment.getBuffer();
+		int end = fragment.getPayloadOffset() + fragment.getPayloadLength();
+		return fragment.getPayloadType() == JPEGDepacketizer.JPEG_PAYLOAD_TYPE
+				&& fragment.getPayloadLength() >= 2
+				&& buffer[end - 2] == (byte) 0xFF
+				&& buffer[end - 1] == (byte) 0xD9;
+	}
+
+	private PendingFrame find(int timestamp) {
+		for (int i = 0; i < pendingFrames.size(); i++)
+			if (pendingFrames.get(i).timestamp == timestamp)
+				return pendingFrames.get(i);
+		return null;
+	}
+
+	private void expire(long now) {
+		while (!pendingFrames.isEmpty()
+				&& now - pendingFrames.get(0).firstReceiveTime > timeout)
+			drop(pendingFrames.get(0));
+	}
+
+	private void drop(PendingFrame pending) {
+		pendingFrames.remove(pending);
+		pending.release();
+		droppedFrames.increment();
+	}
+
+	/**
+	 * This class represents a frame for which only some fragments have been
+	 * received.
+	 */
+	private static class PendingFrame {
+
+		private final int timestamp;
+		private final long firstReceiveTime;
+		private final List<Frame> fragments = new ArrayList<Frame>();
+		private int length = 0;
+
+		private PendingFrame(int timestamp, long firstReceiveTime) {
+			this.timestamp = timestamp;
+			this.firstReceiveTime = firstReceiveTime;
+		}
+
+		/**
+		 * Inserts a fragment in sequence number order. Duplicates are
+		 * released.
+		 *
+		 * @return false if the fragment was a duplicate.
+		 */
+		private boolean add(Frame fragment) {
+			int index = fragments.size();
+			while (index > 0 && fragments.get(index - 1).compareTo(fragment) > 0)
+				index--;
+			if (index > 0 && fragments.get(index - 1).compareTo(fragment) == 0) {
+				fragment.release();
+				return false;
+			}
+			fragments.add(index, fragment);
+			length += fragment.getPayloadLength();
+			return true;
+		}
+
+		private boolean isContiguous() {
+			for (int i = 1; i < fragments.size(); i++)
+				if (fragments.get(i).getSequenceNumber() != (short) (fragments
+						.get(i - 1).getSequenceNumber() + 1))
+					return false;
+			return true;
+		}
+
+		/**
+		 * Concatenates the payloads of the fragments into a pooled frame, or
+		 * rebuilds the JPEG image if the fragments are in the RFC 2435 format,
+		 * and releases the fragments. The frame is considered received when
+		 * its last missing fragment was received.
+		 *
+		 * @param depacketizer
+		 *            The depacketizer of RFC 2435 frames, or null if the
+		 *            fragments are parts of a complete image.
+		 * @return The complete frame, or null if it doesn't fit in the
+		 *         buffers of the pool or couldn't be depacketized.
+		 */
+		private Frame assemble(FramePool pool, JPEGDepacketizer depacketizer,
+				long receiveTime) {
+			Frame first = fragments.get(0);
+			boolean rtpJPEG = depacketizer != null;
+			if (!rtpJPEG && length > pool.getBufferLength()) {
+				release();
+				return null;
+			}
+			Frame frame = pool.acquire();
+			int frameLength = 0;
+			if (rtpJPEG) {
+				frameLength = depacketizer.depacketize(fragments,
+						frame.getBuffer());
+				if (frameLength < 0) {
+					frame.release();
+					release();
+					return null;
+				}
+			} else {
+				for (Frame fragment : fragments) {
+					System.arraycopy(fragment.getBuffer(),
+							fragment.getPayloadOffset(), frame.getBuffer(),
+							frameLength, fragment.getPayloadLength());
+					frameLength += fragment.getPayloadLength();
+				}
+			}
+			frame.fill(first.getPayloadType(), true, first.getSequenceNumber(),
+					timestamp, 0, frameLength);
+			frame.setReceiveTime(receiveTime);
+			release();
+			return frame;
+		}
+
+		private void release() {
+			for (Frame fragment : fragments)
+				fragment.release();
+			fragments.clear();
+		}
+	}
+}
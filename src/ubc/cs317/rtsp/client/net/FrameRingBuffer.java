@@ -0,0 +1,206 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+/**
+ * This class represents a fixed-capacity circular buffer of frames indexed by
+ * sequence number. Each frame is kept in the slot corresponding to its
+ * sequence number modulo the capacity, so adding, finding and removing frames
+ * in order take constant time and do not allocate memory.
+ *
+ * The buffer keeps track of the head sequence number, i.e., the sequence
+ * number of the first frame that may still be added. All sequence number
+ * arithmetic is done modulo 2^16, so the buffer works across the wraparound
+ * of the 16-bit RTP sequence number. Only frames whose sequence number is
+ * within <tt>capacity</tt> of the head can be added.
+ *
+ * This class is not thread-safe.
+ */
+public class FrameRingBuffer {
+
+	private static final int SEQUENCE_MASK = 0xFFFF;
+	private static final int MAXIMUM_CAPACITY = 1 << 15;
+
+	private final Frame[] slots;
+	private final int mask;
+
+	private int size = 0;
+	private boolean started = false;
+	private boolean headFixed = false;
+	private int headSequence;
+	private int endSequence;
+	private int firstSequence;
+
+	/**
+	 * Creates a new, empty, ring buffer.
+	 *
+	 * @param capacity
+	 *            The minimum number of consecutive sequence numbers the buffer
+	 *            can hold. The actual capacity is rounded up to a power of two.
+	 */
+	public FrameRingBuffer(int capacity) {
+		if (capacity < 1 || capacity > MAXIMUM_CAPACITY)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		int actualCapacity = Integer.highestOneBit(capacity);
+		if (actualCapacity < capacity)
+			actualCapacity <<= 1;
+		slots = new Frame[actualCapacity];
+		mask = actualCapacity - 1;
+	}
+
+	/**
+	 * Adds a frame to the buffer. Until a frame is removed with
+	 * <code>pollFirst</code>, frames older than the head are accepted as long
+	 * as the range of sequence numbers in the buffer fits its capacity.
+	 * Afterwards, frames older than the head are rejected.
+	 *
+	 * @param frame
+	 *            The frame to be added.
+	 * @return <tt>true</tt> if the frame was added, <tt>false</tt> if it is
+	 *         older than the head, too far ahead of it, or if a frame with the
+	 *         same sequence number is already in the buffer.
+	 */
+	public boolean add(Frame frame) {
+
+		int sequence = frame.getSequenceNumber() & SEQUENCE_MASK;
+
+		if (!started) {
+			started = true;
+			headSequence = sequence;
+			endSequence = sequence;
+		}
+
+		int distance = distance(sequence);
+		if (distance < 0) {
+			if (headFixed
+					|| ((endSequence - sequence) & SEQUENCE_MASK) > slots.length)
+				return false;
+			headSequence = sequence;
+		} else if (distance >= slots.length)
+			return false;
+
+		int index = sequence & mask;
+		if (slots[index] != null)
+			return false;
+
+		slots[index] = frame;
+		if (size == 0 || (short) (sequence - firstSequence) < 0)
+			firstSequence = sequence;
+		size++;
+		if (((sequence + 1 - endSequence) & SEQUENCE_MASK) < MAXIMUM_CAPACITY)
+			endSequence = (sequence + 1) & SEQUENCE_MASK;
+		return true;
+	}
+
+	/**
+	 * Returns an indication if a frame with the given sequence number could be
+	 * added without exceeding the capacity of the buffer.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number to be verified.
+	 * @return <tt>false</tt> if the sequence number is too far ahead of the
+	 *         head of the buffer, <tt>true</tt> otherwise.
+	 */
+	public boolean fits(short sequenceNumber) {
+		return !started
+				|| distance(sequenceNumber & SEQUENCE_MASK) < slots.length;
+	}
+
+	/**
+	 * Returns the frame with the given sequence number, if it is in the buffer.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number of the frame.
+	 * @return The frame, or null if it is not in the buffer.
+	 */
+	public Frame get(short sequenceNumber) {
+		Frame frame = slots[sequenceNumber & mask];
+		if (frame != null && frame.getSequenceNumber() == sequenceNumber)
+			return frame;
+		return null;
+	}
+
+	/**
+	 * Returns the frame with the lowest sequence number in the buffer, without
+	 * removing it.
+	 *
+	 * @return The first frame, or null if the buffer is empty.
+	 */
+	public Frame peekFirst() {
+		if (size == 0)
+			return null;
+		return slots[firstSequence & mask];
+	}
+
+	/**
+	 * Removes the frame with the lowest sequence number in the buffer. The
+	 * head of the buffer is moved past the removed frame, so frames with a
+	 * lower or equal sequence number can no longer be added. The empty slots
+	 * up to the next frame are skipped here, once, so that
+	 * <code>peekFirst</code> takes constant time even after a gap.
+	 *
+	 * @return The first frame, or null if the buffer is empty.
+	 */
+	public Frame pollFirst() {
+		Frame frame = peekFirst();
+		if (frame == null)
+			return null;
+		int sequence = frame.getSequenceNumber() & SEQUENCE_MASK;
+		slots[sequence & mask] = null;
+		size--;
+		headSequence = (sequence + 1) & SEQUENCE_MASK;
+		headFixed = true;
+		if (size > 0) {
+			firstSequence = headSequence;
+			while (slots[firstSequence & mask] == null)
+				firstSequence = (firstSequence + 1) & SEQUENCE_MASK;
+		}
+		if (distance(endSequence) < 0)
+			endSequence = headSequence;
+		return frame;
+	}
+
+	/**
+	 * Removes all frames from the buffer and forgets the head, so that the
+	 * next frame added defines a new head. The frames removed are not
+	 * released.
+	 */
+	public void clear() {
+		while (size > 0)
+			pollFirst();
+		started = false;
+		headFixed = false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Returns the signed distance between a sequence number and the head.
+	 */
+	private int distance(int sequence) {
+		return (short) (sequence - headSequence);
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+/**
+ * This class rebuilds JPEG images from RTP packets in the format defined by
+ * RFC 2435. In this format, each packet carries an 8-byte JPEG header (type,
+ * fragment offset, quality factor Q and dimensions) followed by part of the
+ * entropy-coded scan data; the JPEG headers themselves are not transmitted,
+ * and must be generated by the receiver. Quantization tables are either
+ * computed from Q (Q from 1 to 99) or sent in the first packet of the frame
+ * (Q from 128 to 255), and the standard Huffman tables are always used.
+ *
+ * Since the headers only depend on the type, Q, dimensions and restart
+ * interval, which are usually the same for every frame of a stream, the
+ * header bytes generated are cached for each combination of these values.
+ * Tables sent with Q from 128 to 254 are static by definition, so headers for
+ * these values are also cached; only headers for Q = 255 are generated for
+ * every frame.
+ *
+ * The course server uses a different framing, where the payload is a complete
+ * JPEG image (possibly split into several packets), and timestamps are in
+ * milliseconds instead of units of the 90 kHz clock of RFC 2435. The format
+ * must be decided once per stream with <code>identifyFormat</code>, from a
+ * packet that starts a frame: a payload that starts with a JPEG start of
+ * image marker is a complete image, which is never the case for RFC 2435
+ * payloads of the supported types, while other fragments of a complete image
+ * can contain anything and can't be told apart from RFC 2435 packets.
+ *
+ * This class is not thread-safe.
+ */
+class JPEGDepacketizer {
+
+	static final int JPEG_PAYLOAD_TYPE = 26;
+
+	static final int FORMAT_UNKNOWN = 0;
+	static final int FORMAT_IMAGE = 1;
+	static final int FORMAT_RFC2435 = 2;
+
+	private static final int RTP_JPEG_CLOCK_RATE = 90000;
+	private static final int IMAGE_CLOCK_RATE = 1000;
+
+	private static final int MAIN_HEADER_LENGTH = 8;
+	private static final int RESTART_HEADER_LENGTH = 4;
+	private static final int QUANTIZATION_HEADER_LENGTH = 4;
+	private static final int MAXIMUM_CACHED_HEADERS = 32;
+
+	/**
+	 * The luminance quantization table for Q = 50, in zigzag order (RFC 2435,
+	 * appendix A).
+	 */
+	private static final int[] LUMA_QUANTIZER = { 16, 11, 12, 14, 12, 10, 16,
+			14, 13, 14, 18, 17, 16, 19, 24, 40, 26, 24, 22, 22, 24, 49, 35, 37,
+			29, 40, 58, 51, 61, 60, 57, 51, 56, 55, 64, 72, 92, 78, 64, 68, 87,
+			69, 55, 56, 80, 109, 81, 87, 95, 98, 103, 104, 103, 62, 77, 113,
+			121, 112, 100, 120, 92, 101, 103, 99 };
+
+	/**
+	 * The chrominance quantization table for Q = 50, in zigzag order (RFC
+	 * 2435, appendix A).
+	 */
+	private static final int[] CHROMA_QUANTIZER = { 17, 18, 18, 24, 21, 24,
+			47, 26, 26, 47, 99, 66, 56, 66, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99 };
+
+	private final Map<Long, byte[]> headerCache = new HashMap<Long, byte[]>();
+
+	private long headersGenerated = 0;
+
+	/**
+	 * Identifies the payload format of a stream from one of its packets.
+	 *
+	 * @param packet
+	 *            An RTP packet, already parsed.
+	 * @return FORMAT_RFC2435 if the packet is the first packet of a frame in
+	 *         the RFC 2435 format (JPEG payload type and fragment offset 0),
+	 *         FORMAT_IMAGE if it has another payload type or starts with a
+	 *         JPEG start of image marker, or FORMAT_UNKNOWN if it can't start
+	 *         a frame in either format.
+	 */
+	static int identifyFormat(Frame packet) {
+		if (packet.getPayloadType() != JPEG_PAYLOAD_TYPE)
+			return FORMAT_IMAGE;
+		byte[] buffer = packet.getBuffer();
+		int offset = packet.getPayloadOffset();
+		if (packet.getPayloadLength() >= 2 && buffer[offset] == (byte) 0xFF
+				&& buffer[offset + 1] == (byte) 0xD8)
+			return FORMAT_IMAGE;
+		if (packet.getPayloadLength() >= MAIN_HEADER_LENGTH
+				&& getFragmentOffset(packet) == 0)
+			return FORMAT_RFC2435;
+		return FORMAT_UNKNOWN;
+	}
+
+	/**
+	 * Returns the frequency of the clock used in the RTP timestamps of a
+	 * payload format.
+	 *
+	 * @param format
+	 *            FORMAT_RFC2435 or FORMAT_IMAGE.
+	 * @return The clock rate, in Hz.
+	 */
+	static int getClockRate(int format) {
+		return format == FORMAT_RFC2435 ? RTP_JPEG_CLOCK_RATE
+				: IMAGE_CLOCK_RATE;
+	}
+
+	/**
+	 * Returns the position of the data in a packet within the scan data of
+	 * its frame.
+	 *
+	 * @param fragment
+	 *            An RTP packet in the RFC 2435 format.
+	 * @return The fragment offset, in bytes.
+	 */
+	static int getFragmentOffset(Frame fragment) {
+		byte[] buffer = fragment.getBuffer();
+		int offset = fragment.getPayloadOffset();
+		return ((buffer[offset + 1] & 0xFF) << 16)
+				| ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Rebuilds a JPEG image from the packets of a frame.
+	 *
+	 * @param fragments
+	 *            The packets of the frame, in order, starting with the packet
+	 *            with fragment offset 0 (zero).
+	 * @param output
+	 *            The array where the image is written, starting at position 0
+	 *            (zero).
+	 * @return The length of the image, or -1 if the frame uses an unsupported
+	 *         type, is malformed, or doesn't fit in the output array.
+	 */
+	int depacketize(List<Frame> fragments, byte[] output) {
+
+		Frame first = fragments.get(0);
+		byte[] buffer = first.getBuffer();
+		int offset = first.getPayloadOffset();
+		int end = offset + first.getPayloadLength();
+
+		int type = buffer[offset + 4] & 0xFF;
+		int q = buffer[offset + 5] & 0xFF;
+		int width = buffer[offset + 6] & 0xFF;
+		int height = buffer[offset + 7] & 0xFF;
+		if ((type & 0x3F) > 1 || q == 0 || width == 0 || height == 0)
+			return -1;
+
+		int position = offset + MAIN_HEADER_LENGTH;
+		int restartInterval = 0;
+		if (type >= 64) {
+			if (position + RESTART_HEADER_LENGTH > end)
+				return -1;
+			restartInterval = ((buffer[position] & 0xFF) << 8)
+					| (buffer[position + 1] & 0xFF);
+			position += RESTART_HEADER_LENGTH;
+		}
+
+		byte[] header;
+		if (q < 128) {
+			header = getCachedHeader(type, q, width, height, restartInterval,
+					null, 0, 0);
+		} else {
+			if (position + QUANTIZATION_HEADER_LENGTH > end)
+				return -1;
+			int precision = buffer[position + 1] & 0xFF;
+			int tablesLength = ((buffer[position + 2] & 0xFF) << 8)
+					| (buffer[position + 3] & 0xFF);
+			position += QUANTIZATION_HEADER_LENGTH;
+			// Only 8-bit tables for both components are supported.
+			if (precision != 0 || tablesLength != 128
+					|| position + tablesLength > end)
+				return -1;
+			if (q == 255) {
+				header = createHeader(type, width, height, restartInterval,
+						buffer, position, position + 64);
+				headersGenerated++;
+			} else
+				header = getCachedHeader(type, q, width, height,
+						restartInterval, buffer, position, position + 64);
+			position += tablesLength;
+		}
+
+		if (header.length > output.length)
+			return -1;
+		System.arraycopy(header, 0, output, 0, header.length);
+		int length = header.length;
+
+		for (int i = 0; i < fragments.size(); i++) {
+			Frame fragment = fragments.get(i);
+			int dataStart = i == 0 ? position : fragment.getPayloadOffset()
+					+ getPayloadHeaderLength(fragment);
+			int dataEnd = fragment.getPayloadOffset()
+					+ fragment.getPayloadLength();
+			if (dataStart > dataEnd || length + dataEnd - dataStart > output.length)
+				return -1;
+			System.arraycopy(fragment.getBuffer(), dataStart, output, length,
+					dataEnd - dataStart);
+			length += dataEnd - dataStart;
+		}
+
+		// The end of image marker is not always included in the scan data.
+		if (length < 2 || output[length - 2] != (byte) 0xFF
+				|| output[length - 1] != (byte) 0xD9) {
+			if (length + 2 > output.length)
+				return -1;
+			output[length++] = (byte) 0xFF;
+			output[length++] = (byte) 0xD9;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the number of JPEG headers generated so far, including headers
+	 * cached afterwards.
+	 *
+	 * @return The number of headers generated.
+	 */
+	long getHeadersGenerated() {
+		return headersGenerated;
+	}
+
+	/**
+	 * Returns the length of the RFC 2435 headers in a packet other than the
+	 * first of its frame, i.e., the main header and, if present, the restart
+	 * marker header.
+	 */
+	private static int getPayloadHeaderLength(Frame fragment) {
+		int type = fragment.getBuffer()[fragment.getPayloadOffset() + 4] & 0xFF;
+		return MAIN_HEADER_LENGTH + (type >= 64 ? RESTART_HEADER_LENGTH : 0);
+	}
+
+	private byte[] getCachedHeader(int type, int q, int width, int height,
+			int restartInterval, byte[] tables, int lumaStart, int chromaStart) {
+
+		Long key = Long.valueOf(((long) type << 40) | ((long) q << 32)
+				| ((long) width << 24) | (height << 16) | restartInterval);
+		byte[] header = headerCache.get(key);
+		if (header == null) {
+			if (tables == null) {
+				tables = createQuantizationTables(q);
+				lumaStart = 0;
+				chromaStart = 64;
+			}
+			header = createHeader(type, width, height, restartInterval,
+					tables, lumaStart, chromaStart);
+			headersGenerated++;
+			if (headerCache.size() >= MAXIMUM_CACHED_HEADERS)
+				headerCache.clear();
+			headerCache.put(key, header);
+		}
+		return header;
+	}
+
+	/**
+	 * Scales the standard quantization tables according to a quality factor
+	 * between 1 and 99 (RFC 2435, appendix A).
+	 *
+	 * @return The luminance table followed by the chrominance table, in
+	 *         zigzag order.
+	 */
+	private static byte[] createQuantizationTables(int q) {
+		int factor = Math.max(1, Math.min(99, q));
+		int scale = factor < 50 ? 5000 / factor : 200 - factor * 2;
+
+		byte[] tables = new byte[128];
+		for (int i = 0; i < 64; i++) {
+			int luma = (LUMA_QUANTIZER[i] * scale + 50) / 100;
+			int chroma = (CHROMA_QUANTIZER[i] * scale + 50) / 100;
+			tables[i] = (byte) Math.max(1, Math.min(255, luma));
+			tables[i + 64] = (byte) Math.max(1, Math.min(255, chroma));
+		}
+		return tables;
+	}
+
+	/**
+	 * Generates the JPEG headers for a frame (RFC 2435, appendix B), from the
+	 * start of image marker to the start of scan segment.
+	 */
+	private static byte[] createHeader(int type, int width, int height,
+			int restartInterval, byte[] tables, int lumaStart, int chromaStart) {
+
+		JPEGHuffmanTable[] huffmanTables = { JPEGHuffmanTable.StdDCLuminance,
+				JPEGHuffmanTable.StdACLuminance,
+				JPEGHuffmanTable.StdDCChrominance,
+				JPEGHuffmanTable.StdACChrominance };
+		int length = 2 + 2 * (5 + 64) + 19 + 14;
+		for (JPEGHuffmanTable table : huffmanTables)
+			length += 5 + 16 + table.getValues().length;
+		if (restartInterval != 0)
+			length += 6;
+
+		byte[] header = new byte[length];
+		int p = 0;
+
+		// Start of image.
+		header[p++] = (byte) 0xFF;
+		header[p++] = (byte) 0xD8;
+
+		// Quantization tables 0 (luminance) and 1 (chrominance).
+		int[] tableStarts = { lumaStart, chromaStart };
+		for (int id = 0; id < 2; id++) {
+			p = putMarker(header, p, 0xDB, 2 + 1 + 64);
+			header[p++] = (byte) id;
+			System.arraycopy(tables, tableStarts[id], header, p, 64);
+			p += 64;
+		}
+
+		// Frame header: baseline, 8-bit samples, three components numbered
+		// from 1 (so decoders assume YCbCr even without a JFIF marker). Type 0
+		// is 4:2:2 (Y sampled 2x1), type 1 is 4:2:0 (Y sampled 2x2).
+		p = putMarker(header, p, 0xC0, 17);
+		header[p++] = 8;
+		header[p++] = (byte) (height >> 5);
+		header[p++] = (byte) (height << 3);
+		header[p++] = (byte) (width >> 5);
+		header[p++] = (byte) (width << 3);
+		header[p++] = 3;
+		header[p++] = 1;
+		header[p++] = (byte) ((type & 0x3F) == 0 ? 0x21 : 0x22);
+		header[p++] = 0;
+		header[p++] = 2;
+		header[p++] = 0x11;
+		header[p++] = 1;
+		header[p++] = 3;
+		header[p++] = 0x11;
+		header[p++] = 1;
+
+		// Huffman tables: DC 0, AC 0, DC 1, AC 1.
+		int[] classAndId = { 0x00, 0x10, 0x01, 0x11 };
+		for (int i = 0; i < huffmanTables.length; i++) {
+			short[] lengths = huffmanTables[i].getLengths();
+			short[] values = huffmanTables[i].getValues();
+			p = putMarker(header, p, 0xC4, 2 + 1 + 16 + values.length);
+			header[p++] = (byte) classAndId[i];
+			for (short codeLength : lengths)
+				header[p++] = (byte) codeLength;
+			for (short value : values)
+				header[p++] = (byte) value;
+		}
+
+		if (restartInterval != 0) {
+			p = putMarker(header, p, 0xDD, 4);
+			header[p++] = (byte) (restartInterval >> 8);
+			header[p++] = (byte) restartInterval;
+		}
+
+		// Start of scan: three components, tables 0/0, 1/1, 1/1.
+		p = putMarker(header, p, 0xDA, 12);
+		header[p++] = 3;
+		header[p++] = 1;
+		header[p++] = 0x00;
+		header[p++] = 2;
+		header[p++] = 0x11;
+		header[p++] = 3;
+		header[p++] = 0x11;
+		header[p++] = 0;
+		header[p++] = 63;
+		header[p++] = 0;
+		return header;
+	}
+
+	private static int putMarker(byte[] header, int p, int marker,
+			int segmentLength) {
+		header[p++] = (byte) 0xFF;
+		header[p++] = (byte) marker;
+		header[p++] = (byte) (segmentLength >> 8);
+		header[p++] = (byte) segmentLength;
+		return p;
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+/**
+ * This class represents a bounded buffer that reorders received frames by
+ * sequence number and decides when each one should be played. Frames are
+ * released either at a fixed frame rate or following the timestamps included
+ * in the stream (the stream's native rate), in both cases after an initial
+ * playout delay that gives late and out-of-order frames a chance to arrive.
+ * Frames are kept in a FrameRingBuffer, so adding and removing frames takes
+ * constant time.
+ *
+ * Frames that arrive after a frame with a higher sequence number has been
+ * played are dropped, since they can no longer be played in order. When
+ * playing at the native rate, frames that are more than a tolerance past
+ * their playout time are also dropped, so that playback catches up with the
+ * stream instead of lagging behind it. If the buffer is full, the oldest frame
+ * is dropped to make room for the new one; at the native rate, the following
+ * frame then takes its playout time.
+ *
+ * Optionally, a PlayoutRateController adapts the playout rate (and skips
+ * frames when needed) to keep the time frames spend in the buffer close to a
+ * target latency.
+ *
+ * All methods are synchronized, since frames are added by the RTP receiver
+ * and removed by the playout scheduler.
+ */
+public class JitterBuffer {
+
+	public static final int DEFAULT_DEPTH = 30;
+	public static final long DEFAULT_PLAYOUT_DELAY_MS = 250;
+	public static final long DEFAULT_LATE_TOLERANCE_MS = 200;
+
+	private int depth = DEFAULT_DEPTH;
+	private FrameRingBuffer frameBuffer = new FrameRingBuffer(
+			getRingCapacity(depth));
+
+	private long playoutDelay = DEFAULT_PLAYOUT_DELAY_MS;
+	private long lateTolerance = DEFAULT_LATE_TOLERANCE_MS;
+	private double frameRate = 0;
+	private PlayoutRateController rateController;
+	private double rate = 1;
+
+	private boolean clockStarted = false;
+	private long baseTime;
+	private int baseTimestamp;
+	private long lastDeadline;
+
+	private boolean anyFramePlayed = false;
+	private short lastPlayedSequenceNumber;
+
+	private boolean anyFrameBuffered = false;
+	private short newestSequenceNumber;
+	private int newestTimestamp;
+
+	private long playedCount = 0;
+	private long lateDropCount = 0;
+	private long overflowDropCount = 0;
+
+	/**
+	 * Adds a frame to the buffer. The buffer takes over the reference to the
+	 * frame held by the caller: if the frame is not accepted it is released
+	 * immediately, otherwise it is released when the frame is dropped or by
+	 * whoever obtains it through <code>poll</code>.
+	 *
+	 * @param frame
+	 *            The frame received.
+	 * @param now
+	 *            The current time, in milliseconds.
+	 * @return <tt>true</tt> if the frame was added to the buffer,
+	 *         <tt>false</tt> if it was dropped for being late or duplicated.
+	 */
+	public synchronized boolean offer(Frame frame, long now) {
+
+		if (anyFramePlayed
+				&& (short) (frame.getSequenceNumber() - lastPlayedSequenceNumber) <= 0) {
+			lateDropCount++;
+			frame.release();
+			return false;
+		}
+
+		// A frame too far ahead of the oldest one (e.g., after a long loss)
+		// pushes older frames out, or restarts the buffer if it is empty.
+		while (!frameBuffer.fits(frame.getSequenceNumber())) {
+			if (frameBuffer.isEmpty()) {
+				frameBuffer.clear();
+				break;
+			}
+			dropOldest();
+		}
+
+		if (!frameBuffer.add(frame)) {
+			frame.release();
+			return false;
+		}
+
+		if (!clockStarted)
+			startClock(frame, now + playoutDelay);
+		if (!anyFrameBuffered
+				|| (short) (frame.getSequenceNumber() - newestSequenceNumber) > 0) {
+			anyFrameBuffered = true;
+			newestSequenceNumber = frame.getSequenceNumber();
+			newestTimestamp = frame.getTimestamp();
+		}
+
+		while (frameBuffer.size() > depth)
+			dropOldest();
+		return true;
+	}
+
+	/**
+	 * Removes the next frame to be played, if its playout time has been
+	 * reached. Frames found to be too late to be played are dropped. The
+	 * caller is responsible for releasing the returned frame.
+	 *
+	 * @param now
+	 *            The current time, in milliseconds.
+	 * @return The next frame to be played, or null if no frame should be
+	 *         played at this time.
+	 */
+	public synchronized Frame poll(long now) {
+
+		while (!frameBuffer.isEmpty()) {
+
+			Frame frame = frameBuffer.peekFirst();
+			if (!clockStarted)
+				startClock(frame, now);
+
+			long deadline = getDeadline(frame);
+			if (deadline > now)
+				return null;
+
+			long bufferedTime = getBufferedTime(frame);
+			frameBuffer.pollFirst();
+			lastPlayedSequenceNumber = frame.getSequenceNumber();
+			anyFramePlayed = true;
+
+			if (rateController != null) {
+				if (rateController.shouldSkip(bufferedTime)) {
+					// The next frame takes the playout time of this one.
+					Frame next = frameBuffer.peekFirst();
+					if (frameRate <= 0 && next != null) {
+						baseTime = deadline;
+						baseTimestamp = next.getTimestamp();
+					}
+					frame.release();
+					continue;
+				}
+				double newRate = rateController.update(bufferedTime);
+				if (newRate != rate) {
+					// Restart the clock from this frame, so that only the
+					// following frames are played at the new rate.
+					baseTime = deadline;
+					baseTimestamp = frame.getTimestamp();
+					rate = newRate;
+				}
+			}
+
+			if (frameRate > 0) {
+				// After an underrun, play the next frames at the regular rate
+				// starting now, instead of in a burst to recover lost slots.
+				lastDeadline = now - deadline > getFramePeriod() ? now
+						: deadline;
+			} else if (lateTolerance >= 0 && now - deadline > lateTolerance) {
+				lateDropCount++;
+				frame.release();
+				continue;
+			}
+
+			playedCount++;
+			return frame;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the time when the next frame in the buffer should be played.
+	 *
+	 * @param now
+	 *            The current time, in milliseconds.
+	 * @return The playout time of the next frame, in milliseconds, or
+	 *         Long.MAX_VALUE if the buffer is empty.
+	 */
+	public synchronized long getNextDeadline(long now) {
+		if (frameBuffer.isEmpty())
+			return Long.MAX_VALUE;
+		if (!clockStarted)
+			return now;
+		return getDeadline(frameBuffer.peekFirst());
+	}
+
+	/**
+	 * Resets the playout clock, keeping any buffered frames. This is used when
+	 * the playback is paused: once it resumes, the next frame in the buffer is
+	 * played immediately and the following frames are played relative to it.
+	 */
+	public synchronized void resetClock() {
+		clockStarted = false;
+	}
+
+	/**
+	 * Drops all frames in the buffer and resets the playout clock and the
+	 * sequence of played frames. This is used when a stream is torn down.
+	 */
+	public synchronized void clear() {
+		while (!frameBuffer.isEmpty())
+			frameBuffer.pollFirst().release();
+		frameBuffer.clear();
+		clockStarted = false;
+		anyFramePlayed = false;
+		anyFrameBuffered = false;
+		rate = 1;
+		if (rateController != null)
+			rateController.reset();
+	}
+
+	/**
+	 * Defines the maximum number of frames held by the buffer.
+	 *
+	 * @param depth
+	 *            The number of frames in the buffer, at least 1.
+	 */
+	public synchronized void setDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Invalid buffer depth: " + depth);
+		this.depth = depth;
+
+		int capacity = getRingCapacity(depth);
+		if (capacity != frameBuffer.getCapacity()) {
+			FrameRingBuffer newBuffer = new FrameRingBuffer(capacity);
+			while (!frameBuffer.isEmpty()) {
+				Frame frame = frameBuffer.pollFirst();
+				if (!newBuffer.add(frame))
+					frame.release();
+			}
+			frameBuffer = newBuffer;
+		}
+		while (frameBuffer.size() > depth)
+			dropOldest();
+	}
+
+	/**
+	 * Defines the time the first frame of a stream is kept in the buffer
+	 * before it is played.
+	 *
+	 * @param playoutDelay
+	 *            The delay, in milliseconds.
+	 */
+	public synchronized void setPlayoutDelay(long playoutDelay) {
+		this.playoutDelay = playoutDelay;
+	}
+
+	/**
+	 * Defines how late a frame may be played when playing at the native rate
+	 * of the stream. Frames later than this are dropped.
+	 *
+	 * @param lateTolerance
+	 *            The tolerance, in milliseconds, or a negative number if late
+	 *            frames should never be dropped.
+	 */
+	public synchronized void setLateTolerance(long lateTolerance) {
+		this.lateTolerance = lateTolerance;
+	}
+
+	/**
+	 * Defines the rate at which frames are played.
+	 *
+	 * @param frameRate
+	 *            The number of frames played per second, or 0 (zero) if frames
+	 *            should be played according to their timestamps.
+	 */
+	public synchronized void setFrameRate(double frameRate) {
+		this.frameRate = frameRate;
+		clockStarted = false;
+	}
+
+	/**
+	 * Defines the object that adapts the playout rate to the time frames spend
+	 * in the buffer.
+	 *
+	 * @param rateController
+	 *            The rate controller, or null if frames should always be
+	 *            played at the normal rate.
+	 */
+	public synchronized void setRateController(
+			PlayoutRateController rateController) {
+		this.rateController = rateController;
+		rate = 1;
+		clockStarted = false;
+	}
+
+	public synchronized PlayoutRateController getRateController() {
+		return rateController;
+	}
+
+	public synchronized int getDepth() {
+		return depth;
+	}
+
+	public synchronized int getSize() {
+		return frameBuffer.size();
+	}
+
+	public synchronized long getPlayedCount() {
+		return playedCount;
+	}
+
+	public synchronized long getLateDropCount() {
+		return lateDropCount;
+	}
+
+	public synchronized long getOverflowDropCount() {
+		return overflowDropCount;
+	}
+
+	/**
+	 * Drops the oldest frame in the buffer to make room for newer frames. At
+	 * the native rate, the frame that becomes the oldest takes the playout
+	 * time of the dropped frame, so that playback catches up with the stream
+	 * instead of every frame being dropped before its playout time.
+	 */
+	private void dropOldest() {
+		Frame dropped = frameBuffer.pollFirst();
+		overflowDropCount++;
+		Frame oldest = frameBuffer.peekFirst();
+		if (clockStarted && frameRate <= 0 && oldest != null) {
+			baseTime = getDeadline(dropped);
+			baseTimestamp = oldest.getTimestamp();
+		}
+		dropped.release();
+	}
+
+	private void startClock(Frame frame, long startTime) {
+		baseTime = startTime;
+		baseTimestamp = frame.getTimestamp();
+		lastDeadline = startTime - getFramePeriod();
+		clockStarted = true;
+	}
+
+	private long getDeadline(Frame frame) {
+		if (frameRate > 0)
+			return lastDeadline + getFramePeriod();
+		return baseTime + Math.round((frame.getTimestamp() - baseTimestamp) / rate);
+	}
+
+	/**
+	 * Returns the duration of the frames in the buffer, from the next frame to
+	 * be played to the newest frame: the number of frames at a fixed frame
+	 * rate, or the difference between their timestamps at the native rate.
+	 */
+	private long getBufferedTime(Frame next) {
+		if (frameRate > 0)
+			return Math.round(frameBuffer.size() * 1000 / frameRate);
+		return Math.max(0, newestTimestamp - next.getTimestamp());
+	}
+
+	/**
+	 * Returns the capacity of the ring buffer used for a given depth. The ring
+	 * covers a range of sequence numbers larger than the depth, so that gaps
+	 * left by lost packets don't cause frames to be dropped early.
+	 */
+	private static int getRingCapacity(int depth) {
+		return Math.min(1 << 15, Math.max(256, depth * 8));
+	}
+
+	private long getFramePeriod() {
+		return frameRate > 0 ? Math.round(1000 / (frameRate * rate)) : 0;
+	}
+}
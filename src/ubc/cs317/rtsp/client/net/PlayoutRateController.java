@@ -0,0 +1,207 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+
+/**
+ * This class adapts the rate at which a jitter buffer plays frames, so that
+ * the time frames spend in the buffer (and therefore the end-to-end latency)
+ * stays close to a target instead of drifting, e.g., because the clocks of the
+ * server and the client run at slightly different rates, or because the
+ * server sends frames faster than the nominal frame rate.
+ *
+ * The controller is consulted by the buffer every time a frame is played,
+ * with the duration of the frames buffered at that point. While the buffered
+ * time stays within a tolerance of the target, frames are played at their
+ * normal rate; beyond it, playout is sped up or slowed down in proportion to
+ * the difference, by at most a small fraction of the normal rate, so the
+ * change is not noticeable, until the buffered time is back at the target.
+ * The tolerance grows with the interarrival jitter of the stream, taken from
+ * its reception statistics (RFC 3550), so normal jitter is not mistaken for
+ * drift. If the buffered time grows well past the target (e.g., after a
+ * burst), any frame due is skipped until it is back under the threshold,
+ * since each frame of a Motion JPEG stream is decoded on its own.
+ *
+ * The controller is meant for buffers that play frames at the native rate of
+ * the stream: the normal rate then follows the timestamps of the stream,
+ * whatever its frame rate, and the adjustment only needs to cover the drift
+ * between clocks. At a fixed frame rate, a stream sent faster than that rate
+ * is only kept near the target by skipping frames.
+ *
+ * All methods are synchronized, since the controller is used by the buffer
+ * while it may be configured by another thread.
+ */
+public class PlayoutRateController {
+
+	public static final long DEFAULT_TARGET_LATENCY_MS = JitterBuffer.DEFAULT_PLAYOUT_DELAY_MS;
+	public static final double DEFAULT_MAXIMUM_ADJUSTMENT = 0.05;
+	public static final double DEFAULT_SKIP_THRESHOLD = 2;
+
+	private static final Counter framesSkipped = MetricsRegistry.getDefault()
+			.counter("playout.skipped");
+
+	private static final long MINIMUM_TOLERANCE_MS = 40;
+	private static final double JITTER_TOLERANCE_FACTOR = 2;
+	private static final int SMOOTHING = 8;
+	private static final double MINIMUM_ADJUSTMENT = 0.01;
+
+	private long targetLatency = DEFAULT_TARGET_LATENCY_MS;
+	private double maximumAdjustment = DEFAULT_MAXIMUM_ADJUSTMENT;
+	private double skipThreshold = DEFAULT_SKIP_THRESHOLD;
+
+	private RTPStatistics statistics;
+	private double jitter = 0;
+
+	private boolean anyFramePlayed = false;
+	private double bufferedTime;
+	private double rate = 1;
+	private long skippedCount = 0;
+
+	/**
+	 * Defines the reception statistics the interarrival jitter of the stream
+	 * is taken from.
+	 *
+	 * @param statistics
+	 *            The statistics of the stream played by the buffer, or null
+	 *            if the jitter is unknown.
+	 */
+	synchronized void setStatistics(RTPStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Decides if a frame due to be played should be skipped to bring the
+	 * buffered time back towards the target.
+	 *
+	 * @param bufferedTime
+	 *            The duration of the frames in the buffer, including this
+	 *            frame, in milliseconds.
+	 * @return true if the frame should be skipped.
+	 */
+	synchronized boolean shouldSkip(long bufferedTime) {
+		if (bufferedTime > targetLatency * skipThreshold) {
+			skippedCount++;
+			framesSkipped.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the rate at which frames should be played, given the time
+	 * currently buffered.
+	 *
+	 * @param bufferedTime
+	 *            The duration of the frames in the buffer, in milliseconds.
+	 * @return The playout rate, relative to the normal rate.
+	 */
+	synchronized double update(long bufferedTime) {
+		if (!anyFramePlayed) {
+			this.bufferedTime = bufferedTime;
+			anyFramePlayed = true;
+		} else
+			this.bufferedTime += (bufferedTime - this.bufferedTime) / SMOOTHING;
+
+		jitter = statistics == null ? 0 : statistics.getJitter();
+		double tolerance = Math.min(targetLatency / 2.0, Math.max(
+				MINIMUM_TOLERANCE_MS, JITTER_TOLERANCE_FACTOR * jitter));
+		double error = this.bufferedTime - targetLatency;
+		boolean adjusting = rate != 1
+				&& Math.signum(error) == Math.signum(rate - 1);
+		if (!adjusting && Math.abs(error) <= tolerance)
+			rate = 1;
+		else {
+			// Once outside the tolerance, keep adjusting until the target
+			// is reached, so drift doesn't keep the buffered time at the
+			// edge of the tolerance.
+			double adjustment = Math.max(MINIMUM_ADJUSTMENT,
+					Math.abs(error) / Math.max(1, targetLatency));
+			rate = 1 + Math.signum(error)
+					* Math.min(maximumAdjustment, adjustment);
+		}
+		return rate;
+	}
+
+	/**
+	 * Forgets the state of the stream, e.g., when the buffer is cleared. The
+	 * configuration is kept.
+	 */
+	synchronized void reset() {
+		anyFramePlayed = false;
+		jitter = 0;
+		rate = 1;
+	}
+
+	/**
+	 * Defines the time frames should spend in the buffer.
+	 *
+	 * @param targetLatency
+	 *            The target, in milliseconds.
+	 */
+	public synchronized void setTargetLatency(long targetLatency) {
+		this.targetLatency = targetLatency;
+	}
+
+	/**
+	 * Defines how much faster or slower than the normal rate frames may be
+	 * played.
+	 *
+	 * @param maximumAdjustment
+	 *            The maximum adjustment, as a fraction of the normal rate
+	 *            (e.g., 0.05 to play between 95% and 105% of the normal rate).
+	 */
+	public synchronized void setMaximumAdjustment(double maximumAdjustment) {
+		this.maximumAdjustment = maximumAdjustment;
+	}
+
+	/**
+	 * Defines when frames start being skipped.
+	 *
+	 * @param skipThreshold
+	 *            The buffered time above which frames are skipped, as a
+	 *            multiple of the target latency.
+	 */
+	public synchronized void setSkipThreshold(double skipThreshold) {
+		this.skipThreshold = skipThreshold;
+	}
+
+	public synchronized long getTargetLatency() {
+		return targetLatency;
+	}
+
+	/**
+	 * Returns the current playout rate.
+	 *
+	 * @return The rate, relative to the normal rate.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the interarrival jitter of the stream when the rate was last
+	 * updated.
+	 *
+	 * @return The jitter, in milliseconds.
+	 */
+	public synchronized double getJitter() {
+		return jitter;
+	}
+
+	public synchronized long getSkippedCount() {
+		return skippedCount;
+	}
+}
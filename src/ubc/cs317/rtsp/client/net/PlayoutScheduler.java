@@ -0,0 +1,150 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.LatencyHistogram;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.Session;
+
+/**
+ * This class is responsible for removing frames from a jitter buffer when
+ * their playout time is reached, and forwarding them to the session. Instead
+ * of polling the buffer periodically, the scheduler sleeps until the playout
+ * time of the next buffered frame, and is woken up earlier if a new frame with
+ * an earlier playout time is added.
+ */
+class PlayoutScheduler implements Runnable {
+
+	private static final LatencyHistogram playoutLatency = MetricsRegistry
+			.getDefault().histogram("playout.latency");
+	private static final Counter framesPlayed = MetricsRegistry.getDefault()
+			.counter("playout.frames");
+
+	private final JitterBuffer buffer;
+	private final Session session;
+	private final ScheduledExecutorService executor;
+	private final Object deliveryLock = new Object();
+
+	private boolean running = false;
+	private ScheduledFuture<?> pendingTask;
+	private long scheduledTime;
+
+	/**
+	 * Creates a new, stopped, playout scheduler.
+	 *
+	 * @param buffer
+	 *            The jitter buffer from where frames are played.
+	 * @param session
+	 *            The session that receives the frames when they are played.
+	 * @param executor
+	 *            The executor where frames are delivered to the session.
+	 */
+	PlayoutScheduler(JitterBuffer buffer, Session session,
+			ScheduledExecutorService executor) {
+		this.buffer = buffer;
+		this.session = session;
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts playing frames from the buffer.
+	 */
+	synchronized void start() {
+		running = true;
+		schedule(buffer.getNextDeadline(now()));
+	}
+
+	/**
+	 * Stops playing frames. Frames are kept in the buffer, and the buffer clock
+	 * is reset so that playback resumes immediately when the scheduler is
+	 * started again.
+	 */
+	synchronized void stop() {
+		running = false;
+		if (pendingTask != null) {
+			pendingTask.cancel(false);
+			pendingTask = null;
+		}
+		buffer.resetClock();
+	}
+
+	/**
+	 * Notifies the scheduler that a frame was added to the buffer, so that the
+	 * next playout time can be brought forward if necessary.
+	 */
+	synchronized void frameBuffered() {
+		if (!running)
+			return;
+		long deadline = buffer.getNextDeadline(now());
+		if (pendingTask == null || deadline < scheduledTime)
+			schedule(deadline);
+	}
+
+	@Override
+	public void run() {
+
+		// Frames are polled and delivered under the same lock, so that they
+		// are delivered in order even if two runs overlap.
+		synchronized (deliveryLock) {
+			Frame frame;
+			while (isRunning() && (frame = buffer.poll(now())) != null) {
+				playoutLatency.recordSince(frame.getReceiveTime());
+				framesPlayed.increment();
+				try {
+					session.processReceivedFrame(frame);
+				} finally {
+					frame.release();
+				}
+			}
+		}
+
+		synchronized (this) {
+			if (running)
+				schedule(buffer.getNextDeadline(now()));
+			else
+				pendingTask = null;
+		}
+	}
+
+	private synchronized boolean isRunning() {
+		return running;
+	}
+
+	private void schedule(long deadline) {
+		if (pendingTask != null)
+			pendingTask.cancel(false);
+		if (deadline == Long.MAX_VALUE) {
+			pendingTask = null;
+			return;
+		}
+		scheduledTime = deadline;
+		pendingTask = executor.schedule(this, Math.max(0, deadline - now()),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the current time used by the playout clock.
+	 *
+	 * @return A monotonic time, in milliseconds.
+	 */
+	static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+/**
+ * This class represents the engine that receives RTP packets for all open
+ * connections. Instead of a receiving thread per connection, RTP channels are
+ * non-blocking and registered with one of a small, fixed number of selector
+ * threads, each one servicing many streams. The engine also provides the
+ * shared executor where frames are played out. The number of threads used by
+ * the client therefore does not depend on the number of streams being
+ * received.
+ */
+class RTPEngine {
+
+	private static final long TIMEOUT_CHECK_INTERVAL_MS = 100;
+	private static final int MAXIMUM_PACKETS_PER_WAKEUP = 64;
+	private static final long CANCEL_WAIT_INTERVAL_MS = 100;
+
+	private static RTPEngine defaultEngine;
+
+	private final SelectorLoop[] loops;
+	private final ScheduledExecutorService playoutExecutor;
+	private int nextLoop = 0;
+
+	/**
+	 * Returns the engine shared by all connections, creating it the first
+	 * time it is needed. The number of threads used is based on the number of
+	 * available processors.
+	 *
+	 * @return The default RTP engine.
+	 * @throws IOException
+	 *             If the selectors could not be opened.
+	 */
+	static synchronized RTPEngine getDefault() throws IOException {
+		if (defaultEngine == null) {
+			int threads = Math.max(1, Math.min(4, Runtime.getRuntime()
+					.availableProcessors() / 2));
+			defaultEngine = new RTPEngine(threads);
+		}
+		return defaultEngine;
+	}
+
+	/**
+	 * Creates a new engine and starts its threads.
+	 *
+	 * @param threadCount
+	 *            The number of selector threads, and the number of threads
+	 *            used to play frames.
+	 * @throws IOException
+	 *             If the selectors could not be opened.
+	 */
+	RTPEngine(int threadCount) throws IOException {
+		loops = new SelectorLoop[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			loops[i] = new SelectorLoop("RTP selector " + i);
+			loops[i].start();
+		}
+		playoutExecutor = new ScheduledThreadPoolExecutor(threadCount,
+				new ThreadFactory() {
+					private int count = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "RTP playout " + count++);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Starts receiving packets from a datagram channel. Packets are received
+	 * into frames borrowed from the pool and handed to the connection's
+	 * <code>receiveRTPPacket</code> method in one of the engine's threads. If
+	 * no packet is received for <tt>timeout</tt> milliseconds, the
+	 * connection's <code>receiveTimedOut</code> method is called, once for
+	 * each period without packets.
+	 *
+	 * @param channel
+	 *            A non-blocking datagram channel.
+	 * @param connection
+	 *            The connection that processes the packets received.
+	 * @param framePool
+	 *            The pool of frames where packets are received.
+	 * @param timeout
+	 *            The time without packets after which the connection is
+	 *            notified, in milliseconds.
+	 * @return A registration that can be used to stop receiving packets.
+	 */
+	synchronized Registration register(DatagramChannel channel,
+			RTSPConnection connection, FramePool framePool, long timeout) {
+		SelectorLoop loop = loops[nextLoop];
+		nextLoop = (nextLoop + 1) % loops.length;
+		Registration registration = new Registration(loop, channel,
+				connection, framePool, timeout);
+		loop.submit(registration);
+		return registration;
+	}
+
+	/**
+	 * Returns the executor shared by all connections to play frames.
+	 *
+	 * @return A scheduled executor.
+	 */
+	ScheduledExecutorService getPlayoutExecutor() {
+		return playoutExecutor;
+	}
+
+	/**
+	 * This class represents a datagram channel registered with the engine.
+	 * Apart from <code>cancel</code>, all its methods run in the selector
+	 * thread. Changes to the registration are applied by the selector thread
+	 * between two rounds of packets, never while a packet is being processed.
+	 */
+	static class Registration {
+
+		private final SelectorLoop loop;
+		private final DatagramChannel channel;
+		private final RTSPConnection connection;
+		private final FramePool framePool;
+		private final long timeout;
+		private final ByteBuffer buffer;
+
+		private volatile boolean cancelled = false;
+		private boolean cancellationApplied = false;
+		private SelectionKey key;
+		private long lastReceiveTime;
+		private boolean timedOut = false;
+
+		private Registration(SelectorLoop loop, DatagramChannel channel,
+				RTSPConnection connection, FramePool framePool, long timeout) {
+			this.loop = loop;
+			this.channel = channel;
+			this.connection = connection;
+			this.framePool = framePool;
+			this.timeout = timeout;
+			this.buffer = ByteBuffer.allocateDirect(framePool.getBufferLength());
+		}
+
+		/**
+		 * Stops receiving packets from the channel. This method waits until
+		 * the selector thread has applied the cancellation, so no packet of
+		 * this channel is being processed when it returns, and none is
+		 * processed afterwards; the state of the connection (e.g., its jitter
+		 * buffer) can then be cleared safely. If called in the selector thread
+		 * itself (i.e., while processing a packet), it returns immediately,
+		 * and no packet is processed after the current one. The channel is not
+		 * closed.
+		 */
+		void cancel() {
+			cancelled = true;
+			loop.submit(this);
+			if (Thread.currentThread() == loop)
+				return;
+
+			boolean interrupted = false;
+			synchronized (this) {
+				while (!cancellationApplied && loop.isAlive()) {
+					try {
+						wait(CANCEL_WAIT_INTERVAL_MS);
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		/**
+		 * Registers or deregisters the channel with the selector, depending
+		 * on the state of this registration.
+		 */
+		private void apply(Selector selector) throws IOException {
+			if (cancelled) {
+				if (key != null)
+					key.cancel();
+				synchronized (this) {
+					cancellationApplied = true;
+					notifyAll();
+				}
+				return;
+			}
+			try {
+				try {
+					key = channel.register(selector, SelectionKey.OP_READ, this);
+				} catch (CancelledKeyException e) {
+					// The channel was registered by a previous registration
+					// (e.g., before a pause), and its key is only removed
+					// from the selector in the next selection operation.
+					selector.selectNow();
+					key = channel.register(selector, SelectionKey.OP_READ, this);
+				}
+				lastReceiveTime = System.currentTimeMillis();
+			} catch (ClosedChannelException e) {
+				cancelled = true;
+			}
+		}
+
+		/**
+		 * Receives the packets available in the channel. The number of packets
+		 * processed at once is limited, so that a busy stream doesn't starve
+		 * other streams serviced by the same thread. Each packet is received
+		 * into a reusable direct buffer and copied into a pooled frame, so no
+		 * memory is allocated per packet.
+		 */
+		private void receive() {
+			try {
+				for (int i = 0; i < MAXIMUM_PACKETS_PER_WAKEUP && !cancelled; i++) {
+					buffer.clear();
+					if (channel.receive(buffer) == null)
+						break;
+					buffer.flip();
+
+					int length = buffer.remaining();
+					Frame frame = framePool.acquire();
+					buffer.get(frame.getBuffer(), 0, length);
+					frame.setReceiveTime(System.nanoTime());
+					lastReceiveTime = System.currentTimeMillis();
+					timedOut = false;
+					try {
+						connection.receiveRTPPacket(frame, length);
+					} finally {
+						frame.release();
+					}
+				}
+			} catch (IOException e) {
+				// The channel is closed when the stream is torn down, which is
+				// not an error if the registration has been cancelled already.
+				if (!cancelled)
+					e.printStackTrace();
+				key.cancel();
+			}
+		}
+
+		private void checkTimeout(long now) {
+			if (!timedOut && !cancelled && now - lastReceiveTime >= timeout) {
+				timedOut = true;
+				connection.receiveTimedOut();
+			}
+		}
+	}
+
+	/**
+	 * This class represents a thread that services a subset of the registered
+	 * channels with a single selector.
+	 */
+	private static class SelectorLoop extends Thread {
+
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<Registration> changes = new ConcurrentLinkedQueue<Registration>();
+		private long lastTimeoutCheck = 0;
+
+		private SelectorLoop(String name) throws IOException {
+			super(name);
+			selector = Selector.open();
+			setDaemon(true);
+		}
+
+		private void submit(Registration registration) {
+			changes.add(registration);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					selector.select(TIMEOUT_CHECK_INTERVAL_MS);
+					Registration registration;
+					while ((registration = changes.poll()) != null)
+						registration.apply(selector);
+				} catch (IOException e) {
+					e.printStackTrace();
+					return;
+				}
+
+				// An error processing one stream must not stop the thread, since
+				// it is shared by other streams.
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isValid())
+							((Registration) key.attachment()).receive();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL_MS) {
+					lastTimeoutCheck = now;
+					for (SelectionKey key : selector.keys()) {
+						try {
+							if (key.isValid())
+								((Registration) key.attachment())
+										.checkTimeout(now);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		}
+	}
+}
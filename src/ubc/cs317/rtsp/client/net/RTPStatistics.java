@@ -0,0 +1,198 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import ubc.cs317.rtsp.client.model.StreamStatistics;
+
+/**
+ * This class represents the reception statistics of an RTP stream, computed
+ * as described in RFC 3550. Sequence numbers are extended with the number of
+ * times they wrapped around (appendix A.1), loss is computed from the
+ * expected and received packet counts (appendix A.3), and interarrival jitter
+ * is estimated with the same running average used in RTCP receiver reports
+ * (appendix A.8). Packets arriving after one with a higher sequence number are
+ * counted as reordered, along with how far behind the highest sequence number
+ * they were.
+ *
+ * Statistics are updated by the thread receiving packets and may be read by
+ * any thread through <code>getSnapshot</code>.
+ */
+class RTPStatistics {
+
+	private static final int RTP_SEQ_MOD = 1 << 16;
+	private static final int MAX_DROPOUT = 3000;
+	private static final int MAX_MISORDER = 100;
+	private static final long REPORT_INTERVAL_NS = 1000000000L;
+
+	private boolean started;
+	private int clockRate;
+	private int baseSequence;
+	private int maximumSequence;
+	private int badSequence;
+	private long cycles;
+
+	private long received;
+	private long bytesReceived;
+	private long expectedPrior;
+	private long receivedPrior;
+	private long intervalStart;
+	private double fractionLost;
+
+	private long lastArrival;
+	private int lastTimestamp;
+	private double jitter;
+
+	private long firstArrival;
+	private long reordered;
+	private long maximumReorderDepth;
+
+	/**
+	 * Creates a new statistics object.
+	 */
+	RTPStatistics() {
+		reset();
+	}
+
+	/**
+	 * Discards all statistics, so that the next packet received is considered
+	 * the first packet of a new stream.
+	 */
+	synchronized void reset() {
+		started = false;
+		received = 0;
+		bytesReceived = 0;
+		expectedPrior = 0;
+		receivedPrior = 0;
+		fractionLost = 0;
+		jitter = 0;
+		reordered = 0;
+		maximumReorderDepth = 0;
+	}
+
+	/**
+	 * Updates the statistics with a packet received.
+	 *
+	 * @param sequenceNumber
+	 *            The RTP sequence number of the packet.
+	 * @param timestamp
+	 *            The RTP timestamp of the packet.
+	 * @param payloadLength
+	 *            The number of payload bytes in the packet.
+	 * @param arrivalTime
+	 *            The time the packet was received, as returned by
+	 *            System.nanoTime().
+	 * @param clockRate
+	 *            The frequency of the clock used in the RTP timestamps of the
+	 *            stream, in Hz. Only the rate given with the first packet of
+	 *            the stream is used.
+	 */
+	synchronized void update(short sequenceNumber, int timestamp,
+			int payloadLength, long arrivalTime, int clockRate) {
+
+		int sequence = sequenceNumber & 0xFFFF;
+
+		if (!started) {
+			start(sequence, arrivalTime, clockRate);
+		} else {
+			int delta = (sequence - maximumSequence) & 0xFFFF;
+			if (delta < MAX_DROPOUT) {
+				// In order, possibly with a gap.
+				if (sequence < maximumSequence)
+					cycles += RTP_SEQ_MOD;
+				maximumSequence = sequence;
+			} else if (delta <= RTP_SEQ_MOD - MAX_MISORDER) {
+				// A very large jump. If the next packet follows this one, the
+				// sender has probably restarted, so the statistics start over;
+				// otherwise the packet is ignored.
+				if (sequence != badSequence) {
+					badSequence = (sequence + 1) & 0xFFFF;
+					return;
+				}
+				reset();
+				start(sequence, arrivalTime, clockRate);
+			} else {
+				// Reordered or duplicate packet.
+				reordered++;
+				maximumReorderDepth = Math.max(maximumReorderDepth,
+						RTP_SEQ_MOD - delta);
+			}
+
+			// Appendix A.8: the difference in relative transit time between
+			// this packet and the previous one, in timestamp units.
+			double arrivalDelta = (arrivalTime - lastArrival) * clockRate / 1e9;
+			double transitDelta = arrivalDelta - (timestamp - lastTimestamp);
+			jitter += (Math.abs(transitDelta) - jitter) / 16;
+		}
+
+		received++;
+		bytesReceived += payloadLength;
+		lastArrival = arrivalTime;
+		lastTimestamp = timestamp;
+
+		if (arrivalTime - intervalStart >= REPORT_INTERVAL_NS)
+			endInterval(arrivalTime);
+	}
+
+	private void start(int sequence, long arrivalTime, int clockRate) {
+		started = true;
+		this.clockRate = clockRate;
+		baseSequence = sequence;
+		maximumSequence = sequence;
+		badSequence = -1;
+		cycles = 0;
+		firstArrival = arrivalTime;
+		intervalStart = arrivalTime;
+	}
+
+	/**
+	 * Computes the fraction of packets lost since the end of the previous
+	 * interval (appendix A.3).
+	 */
+	private void endInterval(long now) {
+		long expected = getExpected();
+		long expectedInterval = expected - expectedPrior;
+		long lostInterval = expectedInterval - (received - receivedPrior);
+		fractionLost = expectedInterval == 0 || lostInterval <= 0 ? 0
+				: (double) lostInterval / expectedInterval;
+		expectedPrior = expected;
+		receivedPrior = received;
+		intervalStart = now;
+	}
+
+	private long getExpected() {
+		return started ? cycles + maximumSequence - baseSequence + 1 : 0;
+	}
+
+	/**
+	 * Returns the current estimate of the interarrival jitter.
+	 *
+	 * @return The jitter, in milliseconds.
+	 */
+	synchronized double getJitter() {
+		return started ? jitter * 1000 / clockRate : 0;
+	}
+
+	/**
+	 * Returns the current statistics.
+	 *
+	 * @return An immutable snapshot of the statistics.
+	 */
+	synchronized StreamStatistics getSnapshot() {
+		return new StreamStatistics(received, bytesReceived,
+				started ? cycles + maximumSequence : 0, getExpected(),
+				fractionLost, getJitter(), reordered,
+				maximumReorderDepth, started ? (lastArrival - firstArrival) / 1e9
+						: 0);
+	}
+}
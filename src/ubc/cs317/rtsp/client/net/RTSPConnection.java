@@ -13,69 +13,110 @@
 
 package ubc.cs317.rtsp.client.net;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.TreeSet;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.LatencyHistogram;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
 import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
 import ubc.cs317.rtsp.client.model.Session;
+import ubc.cs317.rtsp.client.model.StreamSource;
+import ubc.cs317.rtsp.client.model.StreamStatistics;
 
 /**
- * This class represents a connection with an RTSP server.
+ * This class represents a connection with an RTSP server. Requests are sent
+ * without waiting for the responses to previous requests; responses are read
+ * by a single thread per connection and matched to their requests by CSeq.
  */
-public class RTSPConnection {
+public class RTSPConnection implements StreamSource {
 
 	private static final int RTP_TIMEOUT = 1000;
 	private static final int RTP_HEADER_LENGTH = 12;
 	private static final int BUFFER_LENGTH = 15000;
-	private static final long MINIMUM_DELAY_READ_PACKETS_MS = 20;
-	private static final long TARGET_FRAMERATE = 20;
+	private static final int FRAME_POOL_SIZE = 64;
+	private static final int REASSEMBLY_BUFFER_LENGTH = 1 << 18;
+	private static final int REASSEMBLY_POOL_SIZE = 8;
+	private static final long REASSEMBLY_TIMEOUT_NS = 500000000L;
+	private static final int MAXIMUM_PENDING_FRAMES = 4;
+	private static final int REQUEST_BUFFER_SIZE = 1024;
+	private static final int INTERLEAVED_RTP_CHANNEL = 0;
 	
 	private static final String STATE_INIT = "INIT";
 	private static final String STATE_READY = "READY";
 	private static final String STATE_PLAYING = "PLAYING";
 
-	private Session session;
-	private Timer rtpTimer;
+	private static final LatencyHistogram requestRoundTrip = MetricsRegistry
+			.getDefault().histogram("rtsp.request.roundtrip");
+	private static final Counter requestErrors = MetricsRegistry
+			.getDefault().counter("rtsp.request.errors");
+	private static final LatencyHistogram receiveToParse = MetricsRegistry
+			.getDefault().histogram("rtp.receive_to_parse");
+	private static final Counter packetsReceived = MetricsRegistry
+			.getDefault().counter("rtp.packets");
+	private static final Counter bytesReceived = MetricsRegistry
+			.getDefault().counter("rtp.bytes");
+	private static final Counter receiveTimeouts = MetricsRegistry
+			.getDefault().counter("rtp.timeouts");
+	private static final Counter interleavedDropped = MetricsRegistry
+			.getDefault().counter("rtp.interleaved_dropped");
+	private static final Counter malformedPackets = MetricsRegistry
+			.getDefault().counter("rtp.malformed");
 
-	private Socket tcpSocket; 
-	private DatagramSocket rtpSocket;
+	private Session session;
+	private RTPEngine rtpEngine;
+	private RTPEngine.Registration rtpRegistration;
+	private FramePool framePool = new FramePool(FRAME_POOL_SIZE, BUFFER_LENGTH);
+	private FrameReassembler reassembler = new FrameReassembler(new FramePool(
+			REASSEMBLY_POOL_SIZE, REASSEMBLY_BUFFER_LENGTH),
+			REASSEMBLY_TIMEOUT_NS, MAXIMUM_PENDING_FRAMES);
+	private JitterBuffer jitterBuffer = new JitterBuffer();
+	private PlayoutScheduler playoutScheduler;
+
+	private SocketChannel tcpChannel; 
+	private DatagramChannel rtpChannel;
+	private final boolean interleaved;
+	private volatile boolean receivingInterleaved = false;
 	private int cSeq = 1;
 	
-	private int BUFFER_SIZE; 
-	private TreeSet<Frame> frameBuffer = new TreeSet<Frame>(); 
-	
-	//Statistical constants
-	private Date timeStart; 
-	private long frameCount = 0; 
-	private long outOfOrderCount = 0; 
-	private int lastSequenceNo = 0;
-	private int droppedPacketCount = 0;
+	private RTPStatistics statistics = new RTPStatistics();
 	
-	private int lastPlayedFrame = -1; 
 	private String state = STATE_INIT;
-
-	private BufferedWriter rtspWriter;
-	private BufferedReader rtspReader;
+	private String requestedState = STATE_INIT;
+	private boolean setupPending = false;
+	private boolean closed = false;
+	private final Map<Integer, PendingRequest> pendingRequests = new LinkedHashMap<Integer, PendingRequest>();
+	private final List<PendingRequest> deferredRequests = new ArrayList<PendingRequest>();
+
+	private final ByteBuffer requestBuffer = ByteBuffer
+			.allocateDirect(REQUEST_BUFFER_SIZE);
+	private final RTSPResponseParser responseParser = new RTSPResponseParser(
+			new RTSPResponseParser.InterleavedDataHandler() {
+				@Override
+				public void interleavedDataReceived(int channel, byte[] data,
+						int offset, int length) {
+					receiveInterleavedPacket(channel, data, offset, length);
+				}
+			});
+	private String videoName;
 	private String sessionNumber;
 
 	/**
 	 * Establishes a new connection with an RTSP server. No message is sent at
-	 * this point, and no stream is set up.
+	 * this point, and no stream is set up. RTP packets for this connection are
+	 * received by the shared RTPEngine, so no thread is created per
+	 * connection for them; responses to RTSP requests are read by a thread
+	 * started here. RTP packets are received over UDP.
 	 * 
 	 * @param session
 	 *            The Session object to be used for connectivity with the UI.
@@ -89,246 +130,519 @@ public class RTSPConnection {
 	 */
 	public RTSPConnection(Session session, String server, int port)
 			throws RTSPException {
+		this(session, server, port, false);
+	}
+
+	/**
+	 * Establishes a new connection with an RTSP server, selecting how RTP
+	 * packets are to be received. If <tt>interleaved</tt> is true, the server
+	 * is asked to send RTP packets over the RTSP connection itself
+	 * ("RTP/AVP/TCP;interleaved=0-1"), which works through firewalls and NATs
+	 * that block incoming UDP traffic; the packets are then demultiplexed
+	 * from the responses by the thread that reads the responses, and
+	 * processed exactly as the packets received over UDP.
+	 * 
+	 * @param session
+	 *            The Session object to be used for connectivity with the UI.
+	 * @param server
+	 *            The hostname or IP address of the server.
+	 * @param port
+	 *            The TCP port number where the server is listening to.
+	 * @param interleaved
+	 *            true if RTP packets are to be interleaved in the RTSP
+	 *            connection, false if they are to be received over UDP.
+	 * @throws RTSPException
+	 *             If the connection couldn't be accepted, such as if the host
+	 *             name or port number are invalid or there is no connectivity.
+	 */
+	public RTSPConnection(Session session, String server, int port,
+			boolean interleaved) throws RTSPException {
 		this.session = session;
+		this.interleaved = interleaved;
+		PlayoutRateController rateController = new PlayoutRateController();
+		rateController.setStatistics(statistics);
+		jitterBuffer.setRateController(rateController);
 		try {
-			tcpSocket = new Socket(server, port);
-			rtspWriter = new BufferedWriter(new PrintWriter(
-					tcpSocket.getOutputStream()));
-			rtspReader = new BufferedReader(new InputStreamReader(
-					tcpSocket.getInputStream()));
-		} catch (UnknownHostException e) {
+			rtpEngine = RTPEngine.getDefault();
+			playoutScheduler = new PlayoutScheduler(jitterBuffer, session,
+					rtpEngine.getPlayoutExecutor());
+			tcpChannel = SocketChannel.open(new InetSocketAddress(server,
+					port));
+		} catch (UnresolvedAddressException e) {
 			throw new RTSPException("Could not connect to host", e);
 		} catch (IOException e) {
 			throw new RTSPException("Malformed input to client", e);
 		}
+
+		Thread responseReader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		}, "RTSP response reader " + server + ":" + port);
+		responseReader.setDaemon(true);
+		responseReader.start();
 	}
 
 	/**
 	 * Sends a SETUP request to the server. This method is responsible for
-	 * sending the SETUP request, receiving the response and retrieving the
-	 * session identification to be used in future messages. It is also
-	 * responsible for establishing an RTP datagram socket to be used for data
-	 * transmission by the server. The datagram socket should be created with a
-	 * random UDP port number, and the port number used in that connection has
-	 * to be sent to the RTSP server for setup. This datagram socket should also
-	 * be defined to timeout after 1 second if no packet is received.
+	 * sending the SETUP request and, once the response is received, retrieving
+	 * the session identification to be used in future messages. It is also
+	 * responsible for establishing an RTP datagram channel to be used for data
+	 * transmission by the server. The datagram channel is bound to a random
+	 * UDP port number, and the port number used in that connection has to be
+	 * sent to the RTSP server for setup. The channel is non-blocking, and is
+	 * serviced by the RTPEngine once the stream is played, which reports a
+	 * timeout after 1 second if no packet is received. If the connection uses
+	 * interleaved transport, no datagram channel is created, and the server
+	 * is asked to send packets on interleaved channel 0 instead.
+	 * 
+	 * This method, like the other request methods, returns as soon as the
+	 * request is sent. The state of the connection only changes once the
+	 * server accepts the request, but requests issued in the meantime are
+	 * validated as if it had been accepted, so they can be pipelined.
 	 * 
 	 * @param videoName
 	 *            The name of the video to be setup.
+	 * @return A future completed when the response is received.
 	 * @throws RTSPException
-	 *             If there was an error sending or receiving the RTSP data, or
-	 *             if the RTP socket could not be created, or if the server did
-	 *             not return a successful response.
+	 *             If a video is already set up (or being set up), or if the
+	 *             RTP channel could not be created.
 	 */
-	public synchronized void setup(String videoName) throws RTSPException {
-		
-		if (state != STATE_INIT) {
-			throw new RTSPException("Close connection before opening a new video.");
-		}
-		
-		try {
-			rtpSocket = new DatagramSocket();
-			rtpSocket.setSoTimeout(RTP_TIMEOUT);
-			int rtpPort = rtpSocket.getLocalPort();
-			cSeq = 1;
-
-			new RTSPRequest("SETUP", videoName)
-					.setCSeq(cSeq)
-					.setRtpPort(rtpPort)
-					.sendRequest(rtspWriter);
-			RTSPResponse setupResponse = RTSPResponse
-					.readRTSPResponse(rtspReader);
-			
-			System.out.println(sessionNumber);
-
-			checkSuccessfulResponse(setupResponse);
-			sessionNumber = setupResponse.getHeaderValue("Session");
-			cSeq++;
-			state = STATE_READY;
+	@Override
+	public RTSPResponseFuture setup(String videoName) throws RTSPException {
+
+		PendingRequest request;
+		synchronized (this) {
+			if (requestedState != STATE_INIT) {
+				throw new RTSPException(
+						"Close connection before opening a new video.");
+			}
 
-		} catch (IOException e) {
-			throw new RTSPException("Could not get input/output stream", e);
+			if (!interleaved) {
+				try {
+					rtpChannel = DatagramChannel.open();
+					rtpChannel.socket().bind(new InetSocketAddress(0));
+					rtpChannel.configureBlocking(false);
+				} catch (IOException e) {
+					throw new RTSPException("Could not create RTP channel", e);
+				}
+			}
+			this.videoName = videoName;
+			setupPending = true;
+			request = issue("SETUP", STATE_READY);
 		}
+		return request.finishSending();
 	}
 
 	/**
-	 * Sends a PLAY request to the server. This method is responsible for
-	 * sending the request, receiving the response and, in case of a successful
-	 * response, starting the RTP timer responsible for receiving RTP packets
-	 * with frames.
+	 * Sends a PLAY request to the server. Once the server accepts the request,
+	 * the RTP receiver responsible for receiving RTP packets with frames and
+	 * the scheduler that plays them from the jitter buffer are started.
 	 * 
+	 * @return A future completed when the response is received.
 	 * @throws RTSPException
-	 *             If there was an error sending or receiving the RTSP data, or
-	 *             if the server did not return a successful response.
+	 *             If no video is set up, or if the video is already playing.
 	 */
-	public synchronized void play() throws RTSPException {
-		
-		if (state == STATE_INIT) {
-			throw new RTSPException("Open a video first.");
-		}
-		
-		if (state == STATE_PLAYING) {
-			throw new RTSPException("A video is already playing.");
+	@Override
+	public RTSPResponseFuture play() throws RTSPException {
+
+		PendingRequest request;
+		synchronized (this) {
+			if (requestedState == STATE_INIT) {
+				throw new RTSPException("Open a video first.");
+			}
+
+			if (requestedState == STATE_PLAYING) {
+				throw new RTSPException("A video is already playing.");
+			}
+			request = issue("PLAY", STATE_PLAYING);
 		}
-		
-		try {
+		return request.finishSending();
+	}
 
-			new RTSPRequest("PLAY", session.getVideoName())
-				.setCSeq(cSeq)
-				.setSession(sessionNumber)
-				.sendRequest(rtspWriter);
-			
-			RTSPResponse playResponse = RTSPResponse
-					.readRTSPResponse(rtspReader);
-
-			checkSuccessfulResponse(playResponse);
-			
-			cSeq++;
-			System.out.println("Payload Type,Marker,Sequence#,Timestamp\n");
-			timeStart = new Date();
-			startRTPTimer();
-			state = STATE_PLAYING;
+	/**
+	 * Starts receiving RTP packets from the datagram channel. The channel is
+	 * registered with the RTP engine, which processes each packet as soon as
+	 * it arrives, until stopRTPReceiver is called. For interleaved transport,
+	 * packets are accepted from the RTSP connection instead.
+	 */
+	private void startRTPReceiver() {
+		if (interleaved)
+			receivingInterleaved = true;
+		else
+			rtpRegistration = rtpEngine.register(rtpChannel, this, framePool,
+					RTP_TIMEOUT);
+	}
 
-		} catch (IOException e) {
-			throw new RTSPException("Could not get input/output stream", e);
+	/**
+	 * Stops receiving RTP packets, if they are being received. Packets that
+	 * arrive after this point are left in the channel until the receiver is
+	 * started again or the channel is closed. Once this method returns, no
+	 * packet received over UDP is being processed, so the jitter buffer and
+	 * the reassembler can be cleared; interleaved packets are processed by
+	 * the thread that reads responses, which is the thread that calls this
+	 * method when a response is accepted.
+	 */
+	private void stopRTPReceiver() {
+		receivingInterleaved = false;
+		if (rtpRegistration != null) {
+			rtpRegistration.cancel();
+			rtpRegistration = null;
 		}
 	}
 
 	/**
-	 * Starts a timer that reads RTP packets repeatedly. The timer will wait at
-	 * least MINIMUM_DELAY_READ_PACKETS_MS after receiving a packet to read the
-	 * next one.
+	 * Processes a single RTP packet received by the RTP engine. The data
+	 * received from the datagram channel is assumed to be no larger than
+	 * BUFFER_LENGTH bytes, and is stored in the buffer of a pooled frame. Only
+	 * the bytes actually received are considered part of the packet. This
+	 * data is then parsed into the frame itself (using the parseRTPPacket
+	 * method) and passed to the reassembler, which returns the packet itself
+	 * if it holds a complete frame, or a larger frame once all fragments of a
+	 * frame spanning several packets have been received. Complete frames are
+	 * added to the jitter buffer, from where they are forwarded to
+	 * session.processReceivedFrame when their playout time is reached. The
+	 * reception statistics of the stream are updated with every packet,
+	 * including packets that are too late to be played, except for packets
+	 * received before the payload format of the stream (and therefore the
+	 * clock rate of its timestamps) is known. The caller keeps its
+	 * own reference to the frame, and releases it as usual if the packet is
+	 * dropped for being shorter than an RTP header.
+	 * 
+	 * @param frame
+	 *            The pooled frame whose buffer contains the packet.
+	 * @param packetLength
+	 *            The number of bytes received in the packet.
 	 */
-	private void startRTPTimer() {
-		rtpTimer = new Timer();
-		rtpTimer.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				receiveRTPPacket();
-			}
-		}, 0, MINIMUM_DELAY_READ_PACKETS_MS);
+	void receiveRTPPacket(Frame frame, int packetLength) {
+
+		if (parseRTPPacket(frame, packetLength) == null) {
+			malformedPackets.increment();
+			return;
+		}
+		receiveToParse.recordSince(frame.getReceiveTime());
+		packetsReceived.increment();
+		bytesReceived.add(packetLength);
+		int clockRate = reassembler.getClockRate(frame);
+		if (clockRate == 0)
+			return;
+		statistics.update(frame.getSequenceNumber(), frame.getTimestamp(),
+				frame.getPayloadLength(), frame.getReceiveTime(), clockRate);
+		Frame completeFrame = reassembler.add(frame);
+		if (completeFrame != null
+				&& jitterBuffer.offer(completeFrame, PlayoutScheduler.now()))
+			playoutScheduler.frameBuffered();
 	}
 
 	/**
-	 * Receives a single RTP packet and processes the corresponding frame. The
-	 * data received from the datagram socket is assumed to be no larger than
-	 * BUFFER_LENGTH bytes. This data is then parsed into a Frame object (using
-	 * the parseRTPPacket method) and the method session.processReceivedFrame is
-	 * called with the resulting packet. In case of timeout no exception should
-	 * be thrown and no frame should be processed.
+	 * Processes an RTP packet interleaved in the RTSP connection. The packet
+	 * is copied from the parser's buffer into a pooled frame and processed by
+	 * receiveRTPPacket. Packets on other channels (i.e., RTCP), packets
+	 * received while the stream is not playing and packets larger than
+	 * BUFFER_LENGTH bytes are discarded. Runs in the connection's reader
+	 * thread.
 	 */
-	private void receiveRTPPacket() {
+	private void receiveInterleavedPacket(int channel, byte[] data,
+			int offset, int length) {
+
+		if (channel != INTERLEAVED_RTP_CHANNEL || !receivingInterleaved)
+			return;
+		if (length > framePool.getBufferLength()) {
+			interleavedDropped.increment();
+			return;
+		}
 
-		byte[] buffer = new byte[BUFFER_LENGTH];
-		DatagramPacket rtpPacket = new DatagramPacket(buffer, BUFFER_LENGTH);
+		Frame frame = framePool.acquire();
+		System.arraycopy(data, offset, frame.getBuffer(), 0, length);
+		frame.setReceiveTime(System.nanoTime());
 		try {
-			rtpSocket.receive(rtpPacket);
-			byte[] rtpHeaderData = rtpPacket.getData();
-			Frame frame = parseRTPPacket(rtpHeaderData, BUFFER_LENGTH);
-			session.processReceivedFrame(frame);
-
-			if( frame.getSequenceNumber() - lastSequenceNo < 0 )
-				outOfOrderCount++;
-			else if(frame.getSequenceNumber() - lastSequenceNo > 0)
-				droppedPacketCount++; 
-
-			lastSequenceNo = frame.getSequenceNumber(); 
-			frameCount++; 
-
-		} catch (SocketTimeoutException e) {
-			rtpTimer.cancel();
-			double secondsElapsed = (new Date().getTime() - timeStart.getTime()) / 1000.0;
-			double framesPerSec = frameCount / secondsElapsed;
-			double outOfOrderPerSec = outOfOrderCount / secondsElapsed; 
-			double droppedPerSec = droppedPacketCount / secondsElapsed; 
-			System.out.printf("|%.2f|%.2f|%.2f|" + framesPerSec, droppedPerSec, outOfOrderPerSec );
-		} catch (IOException e) {
-			e.printStackTrace();
+			receiveRTPPacket(frame, length);
+		} finally {
+			frame.release();
 		}
+	}
 
+	/**
+	 * Called by the RTP engine when no packet has been received for
+	 * RTP_TIMEOUT milliseconds, which usually means the stream has ended. In
+	 * case of timeout no exception should be thrown and no frame should be
+	 * processed; the timeout is only counted. The statistics of the stream
+	 * remain available through getStatistics.
+	 */
+	void receiveTimedOut() {
+		receiveTimeouts.increment();
 	}
 
 	/**
-	 * Sends a PAUSE request to the server. This method is responsible for
-	 * sending the request, receiving the response and, in case of a successful
-	 * response, cancelling the RTP timer responsible for receiving RTP packets
-	 * with frames.
+	 * Sends a PAUSE request to the server. Once the server accepts the
+	 * request, the RTP receiver responsible for receiving RTP packets with
+	 * frames is stopped. Frames already in the jitter buffer are kept, and are
+	 * played once playback resumes.
 	 * 
+	 * @return A future completed when the response is received.
 	 * @throws RTSPException
-	 *             If there was an error sending or receiving the RTSP data, or
-	 *             if the server did not return a successful response.
+	 *             If no video is set up, or if the video is not playing.
 	 */
-	public synchronized void pause() throws RTSPException {
-		
-		if (state == STATE_INIT) {
-			throw new RTSPException("There is no video to pause.");
+	@Override
+	public RTSPResponseFuture pause() throws RTSPException {
+
+		PendingRequest request;
+		synchronized (this) {
+			if (requestedState == STATE_INIT) {
+				throw new RTSPException("There is no video to pause.");
+			}
+
+			if (requestedState == STATE_READY) {
+				throw new RTSPException("The video is not playing.");
+			}
+			request = issue("PAUSE", STATE_READY);
 		}
-		
-		if (state == STATE_READY) {
-			throw new RTSPException("The video is not playing.");
+		return request.finishSending();
+	}
+
+	/**
+	 * Sends a TEARDOWN request to the server. Once the server accepts the
+	 * request, the RTP channel is closed. This method does not close the RTSP
+	 * connection, and a further SETUP in the same connection should be
+	 * accepted. Also this method can be called both for a paused and for a
+	 * playing stream, so the receiver responsible for receiving RTP packets
+	 * will also be stopped, and any frame in the jitter buffer discarded.
+	 * 
+	 * @return A future completed when the response is received.
+	 * @throws RTSPException
+	 *             If no video is set up.
+	 */
+	@Override
+	public RTSPResponseFuture teardown() throws RTSPException {
+
+		PendingRequest request;
+		synchronized (this) {
+			if (requestedState == STATE_INIT) {
+				throw new RTSPException("There is no video to teardown.");
+			}
+			request = issue("TEARDOWN", STATE_INIT);
 		}
+		return request.finishSending();
+	}
 
-		try {
+	/**
+	 * Seeking is not supported, since the course server does not handle the
+	 * Range header.
+	 * 
+	 * @throws RTSPException
+	 *             Always.
+	 */
+	@Override
+	public RTSPResponseFuture seek(long position) throws RTSPException {
+		throw new RTSPException("Seeking is not supported by this server.");
+	}
 
-			new RTSPRequest("PAUSE", session.getVideoName())
-				.setCSeq(cSeq)
-				.setSession(sessionNumber)
-				.sendRequest(rtspWriter);
+	@Override
+	public boolean isSeekable() {
+		return false;
+	}
 
-			RTSPResponse pauseResponse = RTSPResponse
-					.readRTSPResponse(rtspReader);
-						
-			checkSuccessfulResponse(pauseResponse);
-			cSeq++;
-			rtpTimer.cancel();
-			state = STATE_READY;
+	/**
+	 * Creates a request and sends it to the server, unless it depends on the
+	 * session identification of a SETUP still waiting for its response, in
+	 * which case it is sent once that response arrives. Must be called while
+	 * holding the lock of this connection; the caller must then call
+	 * <code>finishSending</code> on the request, without holding the lock.
+	 */
+	private PendingRequest issue(String method, String targetState) {
+		PendingRequest request = new PendingRequest(new RTSPRequest(method,
+				videoName).setCSeq(cSeq++), targetState);
+		request.rtpChannel = rtpChannel;
+		requestedState = targetState;
+		if (!method.equals("SETUP") && (setupPending || sessionNumber == null))
+			deferredRequests.add(request);
+		else
+			send(request);
+		return request;
+	}
 
+	/**
+	 * Writes a request to the RTSP channel. Must be called while holding the
+	 * lock of this connection, so that requests are written in CSeq order.
+	 */
+	private void send(PendingRequest request) {
+		RTSPRequest message = request.message;
+		if (request.method.equals("SETUP") && interleaved)
+			message.setInterleaved(INTERLEAVED_RTP_CHANNEL);
+		else if (request.method.equals("SETUP"))
+			message.setRtpPort(rtpChannel.socket().getLocalPort());
+		else
+			message.setSession(sessionNumber);
+
+		pendingRequests.put(request.future.getCSeq(), request);
+		request.sentTime = System.nanoTime();
+		try {
+			message.sendRequest(tcpChannel, requestBuffer);
+		} catch (RTSPException e) {
+			pendingRequests.remove(request.future.getCSeq());
+			request.sendFailure = e;
+			rollBack(request);
+		}
+	}
+
+	/**
+	 * Reads responses from the RTSP channel until the connection is closed,
+	 * and completes the corresponding requests. Runs in the connection's
+	 * reader thread.
+	 */
+	private void readResponses() {
+		String error = "Connection closed by server";
+		try {
+			while (tcpChannel.read(responseParser.getBuffer()) >= 0) {
+				RTSPResponse response;
+				while ((response = responseParser.nextResponse()) != null)
+					responseReceived(response);
+			}
 		} catch (IOException e) {
-			throw new RTSPException("Could not get input/output stream", e);
+			error = "Could not get input/output stream";
+		} catch (RTSPException e) {
+			error = e.getMessage();
+		}
+		connectionLost(error);
+	}
+
+	/**
+	 * Matches a response to its request by CSeq (or, if the server didn't
+	 * include a CSeq, to the oldest request waiting for a response), updates
+	 * the state of the connection and completes the request.
+	 */
+	private void responseReceived(RTSPResponse response) {
+
+		PendingRequest request = null;
+		List<PendingRequest> failedRequests = null;
+		List<PendingRequest> sentRequests = null;
+		synchronized (this) {
+			int responseCSeq = response.getHeaderIntValue("CSeq");
+			if (responseCSeq >= 0)
+				request = pendingRequests.remove(responseCSeq);
+			else if (!pendingRequests.isEmpty())
+				request = pendingRequests.remove(pendingRequests.keySet()
+						.iterator().next());
+			if (request == null)
+				return; // Unsolicited or duplicate response.
+
+			requestRoundTrip.recordSince(request.sentTime);
+			if (response.getResponseCode() == 200) {
+				if (request.method.equals("SETUP"))
+					sentRequests = new ArrayList<PendingRequest>(
+							deferredRequests);
+				accept(request, response);
+			} else {
+				requestErrors.increment();
+				if (request.method.equals("SETUP")) {
+					failedRequests = new ArrayList<PendingRequest>(
+							deferredRequests);
+					deferredRequests.clear();
+				}
+				rollBack(request);
+			}
 		}
 
+		if (response.getResponseCode() == 200)
+			request.future.complete(response);
+		else
+			request.future.fail(new RTSPException(
+					"Server did not return a successful response, got: "
+							+ response.getResponseCode()));
+		if (failedRequests != null)
+			for (PendingRequest failedRequest : failedRequests)
+				failedRequest.future.fail(new RTSPException(
+						"The video could not be opened."));
+		if (sentRequests != null)
+			for (PendingRequest sentRequest : sentRequests)
+				sentRequest.finishSending();
 	}
 
 	/**
-	 * Sends a TEARDOWN request to the server. This method is responsible for
-	 * sending the request, receiving the response and, in case of a successful
-	 * response, closing the RTP socket. This method does not close the RTSP
-	 * connection, and a further SETUP in the same connection should be
-	 * accepted. Also this method can be called both for a paused and for a
-	 * playing stream, so the timer responsible for receiving RTP packets will
-	 * also be cancelled.
+	 * Applies the effect of a request accepted by the server. Must be called
+	 * while holding the lock of this connection.
 	 * 
-	 * @throws RTSPException
-	 *             If there was an error sending or receiving the RTSP data, or
-	 *             if the server did not return a successful response.
+	 * The reception statistics and the reassembler are reset when a SETUP is
+	 * accepted rather than when it is sent, since a SETUP may be pipelined
+	 * after the TEARDOWN of the previous video, whose packets are received
+	 * until that TEARDOWN is accepted. Responses are accepted in order, so
+	 * the receiver has been stopped by then.
 	 */
-	public synchronized void teardown() throws RTSPException {
-		
-		if (state == STATE_INIT) {
-			throw new RTSPException("There is no video to teardown.");
+	private void accept(PendingRequest request, RTSPResponse response) {
+
+		if (request.method.equals("SETUP")) {
+			sessionNumber = response.getHeaderValue("Session");
+			setupPending = false;
+			statistics.reset();
+			reassembler.clear();
+			for (PendingRequest deferredRequest : deferredRequests)
+				send(deferredRequest);
+			deferredRequests.clear();
+		} else if (request.method.equals("PLAY")) {
+			startRTPReceiver();
+			playoutScheduler.start();
+		} else if (request.method.equals("PAUSE")) {
+			stopRTPReceiver();
+			playoutScheduler.stop();
+		} else if (request.method.equals("TEARDOWN")) {
+			stopRTPReceiver();
+			playoutScheduler.stop();
+			jitterBuffer.clear();
+			reassembler.clear();
+			closeRTPChannel(request.rtpChannel);
+			sessionNumber = null;
 		}
 
-		try {
-			new RTSPRequest("TEARDOWN", session.getVideoName())
-				.setCSeq(cSeq)
-				.setSession(sessionNumber)
-				.sendRequest(rtspWriter);
-
-			RTSPResponse teardownResponse = RTSPResponse
-					.readRTSPResponse(rtspReader);
-			
-			checkSuccessfulResponse(teardownResponse);
-			
-			rtpTimer.cancel();
-			rtpSocket.close();
-			cSeq++;
-			
-			state = STATE_INIT;
+		state = request.targetState;
+		if (pendingRequests.isEmpty() && deferredRequests.isEmpty())
+			requestedState = state;
+	}
 
-		} catch (IOException e) {
-			throw new RTSPException("Could not get input/output stream", e);
+	/**
+	 * Undoes the effect of a failed request on the requested state. Requests
+	 * issued after it were validated assuming it would succeed, and are left
+	 * for the server to accept or reject; once no request is outstanding the
+	 * requested state goes back to the state confirmed by the server. Must be
+	 * called while holding the lock of this connection.
+	 */
+	private void rollBack(PendingRequest request) {
+		if (request.method.equals("SETUP")) {
+			setupPending = false;
+			closeRTPChannel(request.rtpChannel);
+		}
+		if (pendingRequests.isEmpty() && deferredRequests.isEmpty())
+			requestedState = state;
+	}
+
+	/**
+	 * Fails every outstanding request after the RTSP connection is lost or
+	 * closed.
+	 */
+	private void connectionLost(String error) {
+		List<PendingRequest> failedRequests;
+		synchronized (this) {
+			if (closed)
+				error = "Connection closed";
+			failedRequests = new ArrayList<PendingRequest>(
+					pendingRequests.values());
+			failedRequests.addAll(deferredRequests);
+			pendingRequests.clear();
+			deferredRequests.clear();
+			setupPending = false;
+			requestedState = state;
 		}
+		for (PendingRequest request : failedRequests)
+			request.future.fail(new RTSPException(error));
+	}
 
+	private void closeRTPChannel(DatagramChannel channel) {
+		try {
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -336,11 +650,17 @@ public class RTSPConnection {
 	 * any open resource associated to this connection, such as the RTP
 	 * connection, if it is still open.
 	 */
+	@Override
 	public synchronized void closeConnection() {
+		closed = true;
 		try {
-			rtpTimer.cancel();
-			rtpSocket.close();
-			tcpSocket.close();
+			stopRTPReceiver();
+			playoutScheduler.stop();
+			jitterBuffer.clear();
+			reassembler.clear();
+			if (rtpChannel != null)
+				rtpChannel.close();
+			tcpChannel.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -348,44 +668,89 @@ public class RTSPConnection {
 	}
 
 	/**
-	 * Parses an RTP packet into a Frame object.
+	 * Parses an RTP packet into a Frame object. The packet is expected to have
+	 * been received into the buffer of a pooled frame, and the payload is not
+	 * copied: the frame is updated to refer to the payload within its buffer.
 	 * 
-	 * @param packet
-	 *            the byte representation of a frame, corresponding to the RTP
-	 *            packet.
-	 * @return A Frame object.
+	 * @param frame
+	 *            the pooled frame whose buffer contains the byte
+	 *            representation of the RTP packet.
+	 * @param length
+	 *            the number of bytes in the packet.
+	 * @return The same Frame object, with its header fields defined, or null if
+	 *         the packet is shorter than an RTP header. The frame is left
+	 *         unchanged in that case.
 	 */
-	private static Frame parseRTPPacket(byte[] packet, int length) {
+	static Frame parseRTPPacket(Frame frame, int length) {
 
-		ByteBuffer wrap = ByteBuffer.wrap(packet);
-		
-		byte payloadType = (byte) (packet[1] & 0x7F);
-		boolean marker = (packet[1] & 0x80) == 1 ? true : false;
-		short sequenceNumber = wrap.getShort(2);
-		int timestamp = wrap.getInt(4);
-		byte[] payload = Arrays.copyOfRange(packet, RTP_HEADER_LENGTH,
-				BUFFER_LENGTH);
+		if (length < RTP_HEADER_LENGTH)
+			return null;
 
-//		System.out.println("Payload Type: " + payloadType);
-//		System.out.println("Marker: " + marker);
-//		System.out.println("Sequence No: " + sequenceNumber);
-//		System.out.println("Timestamp: " + timestamp);
-//		System.out.printf( "%d, %d, %d, %d \n", payloadType, (marker) ? 1 : 0 , sequenceNumber, timestamp);
+		byte[] packet = frame.getBuffer();
 
-		return new Frame(payloadType, marker, sequenceNumber, timestamp,
-				payload);
+		byte payloadType = (byte) (packet[1] & 0x7F);
+		boolean marker = (packet[1] & 0x80) != 0;
+		short sequenceNumber = (short) (((packet[2] & 0xFF) << 8) | (packet[3] & 0xFF));
+		int timestamp = ((packet[4] & 0xFF) << 24) | ((packet[5] & 0xFF) << 16)
+				| ((packet[6] & 0xFF) << 8) | (packet[7] & 0xFF);
 
+		return frame.fill(payloadType, marker, sequenceNumber, timestamp,
+				RTP_HEADER_LENGTH, length - RTP_HEADER_LENGTH);
 	}
 	
-	private void checkSuccessfulResponse(RTSPResponse response)
-			throws RTSPException {
-		
-		System.out.println(response.getResponseCode());
+	/**
+	 * Returns the jitter buffer used to reorder and schedule the frames
+	 * received in this connection. The buffer may be configured (e.g., depth,
+	 * playout delay and frame rate) at any time.
+	 * 
+	 * @return The jitter buffer of this connection.
+	 */
+	@Override
+	public JitterBuffer getJitterBuffer() {
+		return jitterBuffer;
+	}
 
-		if (response.getResponseCode() != 200) {
-			throw new RTSPException(
-					"Server did not return a successful response, got: "
-							+ response.getResponseCode());
+	/**
+	 * Returns the reception statistics of the current stream, as of the last
+	 * packet received. Statistics are reset when a new video is set up.
+	 * 
+	 * @return A snapshot of the stream statistics.
+	 */
+	@Override
+	public StreamStatistics getStatistics() {
+		return statistics.getSnapshot();
+	}
+
+	/**
+	 * This class represents a request issued in this connection that has not
+	 * been completed yet.
+	 */
+	private static class PendingRequest {
+
+		private final String method;
+		private final String targetState;
+		private final RTSPRequest message;
+		private final RTSPResponseFuture future;
+		private DatagramChannel rtpChannel;
+		private long sentTime;
+		private RTSPException sendFailure;
+
+		private PendingRequest(RTSPRequest message, String targetState) {
+			this.method = message.getMethod();
+			this.message = message;
+			this.targetState = targetState;
+			this.future = message.getResponseFuture();
+		}
+
+		/**
+		 * Fails the request if it could not be written to the channel. Called
+		 * without holding the connection's lock, so that listeners of the
+		 * future are not called while holding it.
+		 */
+		private RTSPResponseFuture finishSending() {
+			if (sendFailure != null)
+				future.fail(sendFailure);
+			return future;
 		}
 	}
 }
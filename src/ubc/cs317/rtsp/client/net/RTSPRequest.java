@@ -1,48 +1,250 @@
 package ubc.cs317.rtsp.client.net;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 
 import ubc.cs317.rtsp.client.exception.RTSPException;
 
+/**
+ * This class represents an RTSP request. The request line and headers are
+ * encoded directly into a ByteBuffer, using pre-encoded bytes for the fixed
+ * parts of the message, so no intermediate String is built. The buffer is
+ * usually a direct buffer reused for all the requests of a connection, and
+ * the request (including its body, if any) is written with a single
+ * gathering write.
+ */
 public class RTSPRequest {
 
-	String requestString = "";
+	private static final byte[] RTSP_VERSION = encode(" RTSP/1.0\r\n");
+	private static final byte[] CSEQ = encode("CSeq: ");
+	private static final byte[] SESSION = encode("Session: ");
+	private static final byte[] TRANSPORT = encode("Transport: RTP/UDP; client_port=");
+	private static final byte[] TRANSPORT_INTERLEAVED = encode("Transport: RTP/AVP/TCP;interleaved=");
+	private static final byte[] CONTENT_LENGTH = encode("Content-Length: ");
+	private static final byte[] CRLF = encode("\r\n");
+
+	private final String method;
+	private final String url;
+	private int cSeq = -1;
+	private int rtpPort = -1;
+	private int interleavedChannel = -1;
+	private String sessionNumber;
+	private ByteBuffer body;
+	private RTSPResponseFuture future;
 
 	public RTSPRequest(String rtspType, String videoName) {
-		addFirstLine(rtspType, videoName);
+		this.method = rtspType;
+		this.url = videoName;
 	}
 
 	public RTSPRequest setCSeq(int cSeq) {
-		requestString += "CSeq: " + cSeq + "\r\n";
+		this.cSeq = cSeq;
 		return this;
 	}
 
 	public RTSPRequest setRtpPort(int rtpPort) {
-		requestString += "Transport: RTP/UDP; client_port=" + rtpPort + "\r\n";
+		this.rtpPort = rtpPort;
 		return this;
+	}
 
+	/**
+	 * Requests the RTP stream to be interleaved with the RTSP messages in the
+	 * same connection, instead of being sent to a UDP port. RTP packets are
+	 * sent on the given channel and RTCP packets on the next one.
+	 *
+	 * @param rtpChannel
+	 *            The identifier of the interleaved channel for RTP packets.
+	 * @return This request.
+	 */
+	public RTSPRequest setInterleaved(int rtpChannel) {
+		this.interleavedChannel = rtpChannel;
+		return this;
 	}
-	
+
 	public RTSPRequest setSession(String sessionNumber) {
-		requestString += "Session: " + sessionNumber + "\r\n";
+		this.sessionNumber = sessionNumber;
 		return this;
 	}
 
-	public RTSPResponse sendRequest(BufferedWriter rtspWriter) throws RTSPException {
+	/**
+	 * Sets the body of the request. A Content-Length header is added for it.
+	 *
+	 * @param body
+	 *            The bytes between the position and the limit of this buffer
+	 *            are sent as the body. The buffer itself is not modified.
+	 * @return This request.
+	 */
+	public RTSPRequest setBody(ByteBuffer body) {
+		this.body = body;
+		return this;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public int getCSeq() {
+		return cSeq;
+	}
+
+	/**
+	 * Returns the handle used to retrieve the response to this request. The
+	 * handle is correlated with the request by its method and CSeq, so it
+	 * should only be requested after the CSeq is set; it is completed by the
+	 * connection that reads the response.
+	 *
+	 * @return The future response to this request, the same every time.
+	 */
+	public synchronized RTSPResponseFuture getResponseFuture() {
+		if (future == null)
+			future = new RTSPResponseFuture(method, cSeq);
+		return future;
+	}
+
+	/**
+	 * Returns the number of bytes used by the request line and headers.
+	 *
+	 * @return The length of the encoded request, excluding the body.
+	 */
+	public int getEncodedLength() {
+		int length = method.length() + 1 + url.length() + RTSP_VERSION.length
+				+ CRLF.length;
+		if (cSeq >= 0)
+			length += CSEQ.length + digits(cSeq) + CRLF.length;
+		if (rtpPort >= 0)
+			length += TRANSPORT.length + digits(rtpPort) + CRLF.length;
+		if (interleavedChannel >= 0)
+			length += TRANSPORT_INTERLEAVED.length + digits(interleavedChannel)
+					+ 1 + digits(interleavedChannel + 1) + CRLF.length;
+		if (sessionNumber != null)
+			length += SESSION.length + sessionNumber.length() + CRLF.length;
+		if (body != null)
+			length += CONTENT_LENGTH.length + digits(body.remaining())
+					+ CRLF.length;
+		return length;
+	}
+
+	/**
+	 * Encodes the request line and headers of this request into a buffer.
+	 *
+	 * @param buffer
+	 *            The buffer where the request is added, at its position. It
+	 *            must have at least <code>getEncodedLength()</code> bytes
+	 *            remaining.
+	 */
+	public void encode(ByteBuffer buffer) {
+		putAscii(buffer, method);
+		buffer.put((byte) ' ');
+		putAscii(buffer, url);
+		buffer.put(RTSP_VERSION);
+		if (cSeq >= 0)
+			putHeader(buffer, CSEQ, cSeq);
+		if (rtpPort >= 0)
+			putHeader(buffer, TRANSPORT, rtpPort);
+		if (interleavedChannel >= 0) {
+			buffer.put(TRANSPORT_INTERLEAVED);
+			putDecimal(buffer, interleavedChannel);
+			buffer.put((byte) '-');
+			putDecimal(buffer, interleavedChannel + 1);
+			buffer.put(CRLF);
+		}
+		if (sessionNumber != null) {
+			buffer.put(SESSION);
+			putAscii(buffer, sessionNumber);
+			buffer.put(CRLF);
+		}
+		if (body != null)
+			putHeader(buffer, CONTENT_LENGTH, body.remaining());
+		buffer.put(CRLF);
+	}
+
+	/**
+	 * Sends this request to a channel, using a buffer allocated for it.
+	 *
+	 * @see #sendRequest(GatheringByteChannel, ByteBuffer)
+	 */
+	public RTSPResponseFuture sendRequest(GatheringByteChannel channel)
+			throws RTSPException {
+		return sendRequest(channel, null);
+	}
+
+	/**
+	 * Encodes this request into a buffer and writes it, together with its
+	 * body, to a channel in a single gathering write. The channel is expected
+	 * to be in blocking mode, so that the request is written completely.
+	 *
+	 * @param channel
+	 *            The channel where the request is written (usually a socket
+	 *            channel connected to an RTSP server).
+	 * @param buffer
+	 *            A buffer reused to encode requests. Its contents are
+	 *            discarded. If it is null or too small for this request, a new
+	 *            buffer is allocated.
+	 * @return The handle used to retrieve the response to this request.
+	 * @throws RTSPException
+	 *             If the request could not be written.
+	 */
+	public RTSPResponseFuture sendRequest(GatheringByteChannel channel,
+			ByteBuffer buffer) throws RTSPException {
+
+		int length = getEncodedLength();
+		if (buffer == null || buffer.capacity() < length)
+			buffer = ByteBuffer.allocate(length);
+		buffer.clear();
+		encode(buffer);
+		buffer.flip();
+
+		ByteBuffer[] buffers = body == null ? new ByteBuffer[] { buffer }
+				: new ByteBuffer[] { buffer, body.duplicate() };
 		try {
-			requestString += "\r\n";
-			rtspWriter.write(requestString);
-			rtspWriter.flush();
+			while (buffer.hasRemaining()
+					|| buffers[buffers.length - 1].hasRemaining())
+				channel.write(buffers);
 		} catch (IOException e) {
 			throw new RTSPException("Could not get input/output stream", e);
 		}
-		return null;
+		return getResponseFuture();
+	}
+
+	private static void putHeader(ByteBuffer buffer, byte[] name, int value) {
+		buffer.put(name);
+		putDecimal(buffer, value);
+		buffer.put(CRLF);
+	}
+
+	/**
+	 * Adds the characters of a String to a buffer, one byte each. Characters
+	 * outside ISO-8859-1 are replaced by '?'.
+	 */
+	private static void putAscii(ByteBuffer buffer, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			buffer.put(c < 256 ? (byte) c : (byte) '?');
+		}
 	}
-	
-	private void addFirstLine(String rtspType, String videoName) {
-		requestString += rtspType + " " + videoName + " RTSP/1.0\r\n";
+
+	private static void putDecimal(ByteBuffer buffer, int value) {
+		int divisor = 1;
+		while (value / divisor >= 10)
+			divisor *= 10;
+		for (; divisor > 0; divisor /= 10)
+			buffer.put((byte) ('0' + value / divisor % 10));
 	}
 
+	private static int digits(int value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
 
+	private static byte[] encode(String value) {
+		byte[] bytes = new byte[value.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) value.charAt(i);
+		return bytes;
+	}
 }
@@ -15,22 +15,31 @@ package ubc.cs317.rtsp.client.net;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import ubc.cs317.rtsp.client.exception.RTSPException;
 
 /**
- * This class represents an RTSP response. The method
- * <code>readRTSPResponse</code> is used to read a response from a
- * BufferedReader (usually associated to a socket).
+ * This class represents an RTSP response. Responses received from a channel
+ * are parsed by RTSPResponseParser, which keeps the bytes of the response and
+ * the positions of its header fields, so that Strings are only created for
+ * the values actually requested. The method <code>readRTSPResponse</code> can
+ * also be used to read a response from a BufferedReader.
  */
 public class RTSPResponse {
 
-	private String rtspVersion;
-	private int responseCode;
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private final byte[] message;
+	private final int responseCode;
+	private final int reasonStart;
+	private final int reasonEnd;
+	private final int[] fields;
+	private final int bodyOffset;
+	private final int bodyLength;
+
 	private String responseMessage;
-	private Map<String, String> headers;
 
 	/**
 	 * Creates an RTSP response.
@@ -46,10 +55,45 @@ public class RTSPResponse {
 	 */
 	public RTSPResponse(String rtspVersion, int responseCode,
 			String responseMessage) {
-		this.rtspVersion = rtspVersion;
+		this.message = (rtspVersion + " " + responseCode + " ")
+				.getBytes(CHARSET);
 		this.responseCode = responseCode;
+		this.reasonStart = message.length;
+		this.reasonEnd = message.length;
 		this.responseMessage = responseMessage;
-		this.headers = new HashMap<String, String>();
+		this.fields = new int[0];
+		this.bodyOffset = message.length;
+		this.bodyLength = 0;
+	}
+
+	/**
+	 * Creates an RTSP response from the bytes received.
+	 * 
+	 * @param message
+	 *            The bytes of the complete response, including its body.
+	 * @param responseCode
+	 *            The response code.
+	 * @param reasonStart
+	 *            The position of the response message in the status line.
+	 * @param reasonEnd
+	 *            The position after the end of the response message.
+	 * @param fields
+	 *            The start and end positions of the name and value of each
+	 *            header field (four entries per field).
+	 * @param bodyOffset
+	 *            The position of the body.
+	 * @param bodyLength
+	 *            The length of the body.
+	 */
+	RTSPResponse(byte[] message, int responseCode, int reasonStart,
+			int reasonEnd, int[] fields, int bodyOffset, int bodyLength) {
+		this.message = message;
+		this.responseCode = responseCode;
+		this.reasonStart = reasonStart;
+		this.reasonEnd = reasonEnd;
+		this.fields = fields;
+		this.bodyOffset = bodyOffset;
+		this.bodyLength = bodyLength;
 	}
 
 	/**
@@ -59,7 +103,10 @@ public class RTSPResponse {
 	 * @return A String representing the RTSP version read from the response.
 	 */
 	public String getRtspVersion() {
-		return rtspVersion;
+		int end = 0;
+		while (end < message.length && message[end] != ' ')
+			end++;
+		return new String(message, 0, end, CHARSET);
 	}
 
 	/**
@@ -81,24 +128,97 @@ public class RTSPResponse {
 	 * @return A String representing the message associated to the response
 	 *         code.
 	 */
-	public String getResponseMessage() {
+	public synchronized String getResponseMessage() {
+		if (responseMessage == null)
+			responseMessage = new String(message, reasonStart, reasonEnd
+					- reasonStart, CHARSET);
 		return responseMessage;
 	}
 
 	/**
-	 * Returns the value of the named header field.
+	 * Returns the value of the named header field. Header names are compared
+	 * ignoring case; if the header is repeated, the first value is returned.
 	 * 
 	 * @return The value of the header field named by headerName, or null if that
 	 *         header wasn't included in the response.
 	 */
 	public String getHeaderValue(String headerName) {
-		return headers.get(headerName.toUpperCase());
+		int index = findHeader(headerName);
+		if (index < 0)
+			return null;
+		return new String(message, fields[index + 2], fields[index + 3]
+				- fields[index + 2], CHARSET);
+	}
+
+	/**
+	 * Returns the value of the named header field as a number, without
+	 * creating a String for it.
+	 * 
+	 * @return The value of the header field named by headerName, or -1 if that
+	 *         header wasn't included in the response or is not a non-negative
+	 *         decimal number.
+	 */
+	public int getHeaderIntValue(String headerName) {
+		int index = findHeader(headerName);
+		if (index < 0 || fields[index + 2] == fields[index + 3])
+			return -1;
+		long value = 0;
+		for (int i = fields[index + 2]; i < fields[index + 3]; i++) {
+			if (message[i] < '0' || message[i] > '9')
+				return -1;
+			value = value * 10 + message[i] - '0';
+			if (value > Integer.MAX_VALUE)
+				return -1;
+		}
+		return (int) value;
+	}
+
+	private int findHeader(String headerName) {
+		int length = headerName.length();
+		for (int index = 0; index < fields.length; index += 4) {
+			if (fields[index + 1] - fields[index] != length)
+				continue;
+			int offset = fields[index];
+			int i = 0;
+			while (i < length
+					&& Character.toUpperCase((char) message[offset + i]) == Character
+							.toUpperCase(headerName.charAt(i)))
+				i++;
+			if (i == length)
+				return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the length of the body of the response, as indicated in its
+	 * Content-Length header.
+	 * 
+	 * @return The number of bytes in the body, or 0 (zero) if the response has
+	 *         no body.
+	 */
+	public int getContentLength() {
+		return bodyLength;
+	}
+
+	/**
+	 * Returns the body of the response (e.g., the session description returned
+	 * for a DESCRIBE request).
+	 * 
+	 * @return A read-only buffer with the body of the response, which is empty
+	 *         if the response has no body.
+	 */
+	public ByteBuffer getBody() {
+		return ByteBuffer.wrap(message, bodyOffset, bodyLength).slice()
+				.asReadOnlyBuffer();
 	}
 
 	/**
 	 * Reads and parses an RTSP response from the input. This input is usually
 	 * expected to be associated to a socket (although there is no requirement
-	 * that it would actually be so).
+	 * that it would actually be so). Responses received from a channel should
+	 * be parsed with RTSPResponseParser instead, which avoids decoding and
+	 * re-encoding the response.
 	 * 
 	 * @param reader
 	 *            A BufferedReader where the response is expected to be read
@@ -113,30 +233,50 @@ public class RTSPResponse {
 	public static RTSPResponse readRTSPResponse(BufferedReader reader)
 			throws IOException, RTSPException {
 
-		String firstLine = reader.readLine();
-		if (firstLine == null)
-			return null;
-		String[] firstLineSplit = firstLine.split(" ", 3);
-
-		if (firstLineSplit.length != 3
-				|| !"RTSP/1.0".equalsIgnoreCase(firstLineSplit[0]))
-			throw new RTSPException("Invalid response from RTSP server.");
-
-		RTSPResponse response = new RTSPResponse(firstLineSplit[0],
-				Integer.parseInt(firstLineSplit[1]), firstLineSplit[2]);
+		StringBuilder builder = new StringBuilder();
+		String line;
+		do {
+			line = reader.readLine();
+			if (line == null)
+				return null;
+		} while (line.length() == 0);
 
-		String headerLine;
-		while ((headerLine = reader.readLine()) != null
-				&& !headerLine.equals("")) {
-
-			String[] headerLineSplit = headerLine.split(":", 2);
-			if (headerLineSplit.length != 2)
-				continue;
+		int contentLength = 0;
+		do {
+			builder.append(line).append("\r\n");
+			int colon = line.indexOf(':');
+			if (colon > 0
+					&& line.substring(0, colon).trim()
+							.equalsIgnoreCase("Content-Length")) {
+				try {
+					contentLength = Integer.parseInt(line.substring(colon + 1)
+							.trim());
+				} catch (NumberFormatException e) {
+					throw new RTSPException(
+							"Invalid Content-Length in RTSP response.");
+				}
+				if (contentLength < 0)
+					throw new RTSPException(
+							"Invalid Content-Length in RTSP response.");
+			}
+		} while ((line = reader.readLine()) != null && line.length() > 0);
+		builder.append("\r\n");
 
-			response.headers.put(headerLineSplit[0].toUpperCase(), headerLineSplit[1].trim());
+		char[] body = new char[contentLength];
+		int read = 0;
+		while (read < contentLength) {
+			int count = reader.read(body, read, contentLength - read);
+			if (count < 0)
+				return null;
+			read += count;
 		}
+		builder.append(body);
 
-		return response;
+		byte[] bytes = builder.toString().getBytes(CHARSET);
+		RTSPResponseParser parser = new RTSPResponseParser(bytes.length,
+				null);
+		parser.getBuffer().put(bytes);
+		return parser.nextResponse();
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,254 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+
+/**
+ * This class represents the pending result of an RTSP request. It is returned
+ * as soon as the request is sent, and completed by the connection's reader
+ * thread when the response with the same CSeq is received. A request is only
+ * considered successful if the server returned a 200 response; any other
+ * response, as well as the loss of the connection, completes the future with
+ * an RTSPException.
+ *
+ * RTSP requests can't be withdrawn once sent, so these futures can't be
+ * cancelled.
+ */
+public class RTSPResponseFuture implements Future<RTSPResponse> {
+
+	/**
+	 * Interface used to be notified when a request is completed.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called once the request is completed, either successfully or not.
+		 * The listener is called in the thread that completes the request
+		 * (usually the connection's reader thread), or in the thread adding
+		 * the listener if the request was already completed, so it should not
+		 * block.
+		 *
+		 * @param future
+		 *            The completed request.
+		 */
+		public void requestCompleted(RTSPResponseFuture future);
+	}
+
+	private final String method;
+	private final int cSeq;
+
+	private boolean done = false;
+	private RTSPResponse response;
+	private RTSPException exception;
+	private List<Listener> listeners = new ArrayList<Listener>(2);
+
+	/**
+	 * Creates a new, pending, future.
+	 *
+	 * @param method
+	 *            The method of the request (e.g., "PLAY").
+	 * @param cSeq
+	 *            The sequence number of the request.
+	 */
+	RTSPResponseFuture(String method, int cSeq) {
+		this.method = method;
+		this.cSeq = cSeq;
+	}
+
+	/**
+	 * Creates a future that has already been completed successfully, e.g.,
+	 * for a request handled locally instead of by a server.
+	 *
+	 * @param method
+	 *            The method of the request.
+	 * @param response
+	 *            The response to the request.
+	 * @return A completed future.
+	 */
+	public static RTSPResponseFuture completed(String method,
+			RTSPResponse response) {
+		RTSPResponseFuture future = new RTSPResponseFuture(method, -1);
+		future.complete(response);
+		return future;
+	}
+
+	/**
+	 * Creates a future that has already failed, for a request that could not
+	 * be sent.
+	 *
+	 * @param method
+	 *            The method of the request.
+	 * @param exception
+	 *            The reason of the failure.
+	 * @return A completed future.
+	 */
+	public static RTSPResponseFuture failed(String method,
+			RTSPException exception) {
+		RTSPResponseFuture future = new RTSPResponseFuture(method, -1);
+		future.fail(exception);
+		return future;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public int getCSeq() {
+		return cSeq;
+	}
+
+	/**
+	 * Adds a listener to be called when the request is completed. If the
+	 * request is already completed, the listener is called immediately.
+	 *
+	 * @param listener
+	 *            The listener to be called.
+	 * @return This future.
+	 */
+	public RTSPResponseFuture addListener(Listener listener) {
+		synchronized (this) {
+			if (!done) {
+				listeners.add(listener);
+				return this;
+			}
+		}
+		listener.requestCompleted(this);
+		return this;
+	}
+
+	/**
+	 * Waits until the request is completed and returns its response.
+	 *
+	 * @return The successful response of the server.
+	 * @throws RTSPException
+	 *             If the request was not successful, or if the thread was
+	 *             interrupted while waiting.
+	 */
+	public RTSPResponse await() throws RTSPException {
+		try {
+			synchronized (this) {
+				while (!done)
+					wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RTSPException("Interrupted while waiting for " + method
+					+ " response", e);
+		}
+		if (exception != null)
+			throw exception;
+		return response;
+	}
+
+	/**
+	 * Returns the reason why the request failed.
+	 *
+	 * @return The exception that completed the request, or null if the request
+	 *         is still pending or was successful.
+	 */
+	public synchronized RTSPException getException() {
+		return exception;
+	}
+
+	/**
+	 * Returns an indication if the request was completed with a successful
+	 * response.
+	 *
+	 * @return true if the request was successful, false if it failed or is
+	 *         still pending.
+	 */
+	public synchronized boolean isSuccessful() {
+		return done && exception == null;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized RTSPResponse get() throws InterruptedException,
+			ExecutionException {
+		while (!done)
+			wait();
+		return getResult();
+	}
+
+	@Override
+	public synchronized RTSPResponse get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private RTSPResponse getResult() throws ExecutionException {
+		if (exception != null)
+			throw new ExecutionException(exception);
+		return response;
+	}
+
+	/**
+	 * Completes the request with a response from the server.
+	 */
+	void complete(RTSPResponse response) {
+		finish(response, null);
+	}
+
+	/**
+	 * Completes the request with an error.
+	 */
+	void fail(RTSPException exception) {
+		finish(null, exception);
+	}
+
+	private void finish(RTSPResponse response, RTSPException exception) {
+		List<Listener> toNotify;
+		synchronized (this) {
+			if (done)
+				return;
+			this.done = true;
+			this.response = response;
+			this.exception = exception;
+			toNotify = listeners;
+			listeners = null;
+			notifyAll();
+		}
+		for (Listener listener : toNotify)
+			listener.requestCompleted(this);
+	}
+}
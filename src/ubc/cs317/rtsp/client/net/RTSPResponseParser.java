@@ -0,0 +1,422 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import java.nio.ByteBuffer;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+
+/**
+ * This class parses RTSP responses incrementally from bytes received in a
+ * reusable buffer. Data is read directly into the buffer returned by
+ * <code>getBuffer</code> (e.g., with <code>channel.read(buffer)</code>, on a
+ * blocking or non-blocking channel), and <code>nextResponse</code> returns
+ * each response as soon as it has been completely received, or null if more
+ * data is needed. The status line and headers are tokenized in place: the
+ * bytes of each response (headers and body) are copied once into the response
+ * object, which only creates Strings for the values actually requested.
+ *
+ * Lines may be terminated by CRLF or by LF alone. A body is read if the
+ * response includes a Content-Length header. Binary data interleaved with the
+ * responses (RFC 2326, section 10.12), i.e., a '$' followed by a one-byte
+ * channel identifier, a two-byte length and the data itself, is handed to an
+ * InterleavedDataHandler directly from the buffer, without being copied.
+ * Objects of this class are not thread-safe.
+ */
+class RTSPResponseParser {
+
+	/**
+	 * Interface used to process binary data interleaved with the responses,
+	 * such as RTP packets when the RTP stream is sent over the RTSP
+	 * connection.
+	 */
+	interface InterleavedDataHandler {
+
+		/**
+		 * Called for each block of interleaved data, in the thread calling
+		 * <code>nextResponse</code>. The data is only valid until this method
+		 * returns.
+		 *
+		 * @param channel
+		 *            The channel identifier of the data.
+		 * @param data
+		 *            The array containing the data.
+		 * @param offset
+		 *            The position of the data in the array.
+		 * @param length
+		 *            The number of bytes of data.
+		 */
+		void interleavedDataReceived(int channel, byte[] data, int offset,
+				int length);
+	}
+
+	private static final int INTERLEAVED_HEADER_LENGTH = 4;
+
+	private static final int INITIAL_CAPACITY = 4096;
+	static final int MAXIMUM_MESSAGE_LENGTH = 1 << 20;
+	private static final byte[] RTSP_VERSION = { 'R', 'T', 'S', 'P', '/',
+			'1', '.', '0' };
+	private static final byte[] CONTENT_LENGTH = { 'c', 'o', 'n', 't', 'e',
+			'n', 't', '-', 'l', 'e', 'n', 'g', 't', 'h' };
+
+	private ByteBuffer buffer;
+	private final InterleavedDataHandler interleavedDataHandler;
+
+	/** Position in the buffer where the current message starts. */
+	private int start = 0;
+	/** Position up to which the current message was scanned for its end. */
+	private int scanPosition = 0;
+	/** Length of the header section (including the empty line), once known. */
+	private int headerLength = -1;
+	private int contentLength = 0;
+
+	private int[] fields = new int[32];
+	private int fieldCount = 0;
+	private int responseCode;
+	private int reasonStart;
+	private int reasonEnd;
+
+	/**
+	 * Creates a new parser with a buffer of the default size. Interleaved
+	 * data is discarded.
+	 */
+	RTSPResponseParser() {
+		this(INITIAL_CAPACITY, null);
+	}
+
+	/**
+	 * Creates a new parser with a buffer of the default size.
+	 *
+	 * @param interleavedDataHandler
+	 *            The handler called for interleaved data, or null if
+	 *            interleaved data is to be discarded.
+	 */
+	RTSPResponseParser(InterleavedDataHandler interleavedDataHandler) {
+		this(INITIAL_CAPACITY, interleavedDataHandler);
+	}
+
+	/**
+	 * Creates a new parser.
+	 *
+	 * @param capacity
+	 *            The initial size of the buffer. The buffer grows as needed
+	 *            to fit larger messages.
+	 * @param interleavedDataHandler
+	 *            The handler called for interleaved data, or null if
+	 *            interleaved data is to be discarded.
+	 */
+	RTSPResponseParser(int capacity,
+			InterleavedDataHandler interleavedDataHandler) {
+		this.buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+		this.interleavedDataHandler = interleavedDataHandler;
+	}
+
+	/**
+	 * Returns the buffer where received data must be added. The buffer is
+	 * always in write mode: data is added at its position, which must be left
+	 * after the last byte added. The same buffer is returned unless it has to
+	 * grow to fit a large message, so this method should be called before
+	 * each read.
+	 *
+	 * @return The buffer where received data is added.
+	 */
+	ByteBuffer getBuffer() {
+		if (!buffer.hasRemaining())
+			makeRoom();
+		return buffer;
+	}
+
+	/**
+	 * Returns the next response in the data received so far. Interleaved data
+	 * received before that response is passed to the handler first.
+	 *
+	 * @return A complete response, or null if the next response has not been
+	 *         completely received yet.
+	 * @throws RTSPException
+	 *             If the data received is not a valid RTSP response, or if a
+	 *             response is too large.
+	 */
+	RTSPResponse nextResponse() throws RTSPException {
+
+		while (headerLength < 0) {
+			byte[] data = buffer.array();
+			int end = buffer.position();
+
+			// Blank lines between messages are allowed.
+			while (scanPosition == start && start < end
+					&& (data[start] == '\r' || data[start] == '\n'))
+				scanPosition = ++start;
+
+			if (scanPosition == start && start < end && data[start] == '$') {
+				if (!parseInterleavedData())
+					return null;
+			} else if (!parseHeaders())
+				return null;
+		}
+
+		int messageLength = headerLength + contentLength;
+		if (buffer.position() - start < messageLength)
+			return null;
+
+		byte[] message = new byte[messageLength];
+		System.arraycopy(buffer.array(), start, message, 0, messageLength);
+		int[] messageFields = new int[fieldCount];
+		System.arraycopy(fields, 0, messageFields, 0, fieldCount);
+		RTSPResponse response = new RTSPResponse(message, responseCode,
+				reasonStart, reasonEnd, messageFields, headerLength,
+				contentLength);
+
+		headerLength = -1;
+		contentLength = 0;
+		consume(messageLength);
+		return response;
+	}
+
+	/**
+	 * Passes a block of interleaved data to the handler, if it has been
+	 * completely received.
+	 *
+	 * @return true if the data was consumed, false if more data is needed.
+	 */
+	private boolean parseInterleavedData() {
+		byte[] data = buffer.array();
+		int available = buffer.position() - start;
+		if (available < INTERLEAVED_HEADER_LENGTH)
+			return false;
+		int length = ((data[start + 2] & 0xFF) << 8) | (data[start + 3] & 0xFF);
+		if (available < INTERLEAVED_HEADER_LENGTH + length)
+			return false;
+
+		if (interleavedDataHandler != null)
+			interleavedDataHandler.interleavedDataReceived(
+					data[start + 1] & 0xFF, data, start
+							+ INTERLEAVED_HEADER_LENGTH, length);
+		consume(INTERLEAVED_HEADER_LENGTH + length);
+		return true;
+	}
+
+	/**
+	 * Moves the start of the current message past the previous one, and
+	 * clears the buffer if no more data is left.
+	 */
+	private void consume(int length) {
+		start += length;
+		scanPosition = start;
+		if (start == buffer.position()) {
+			buffer.clear();
+			start = 0;
+			scanPosition = 0;
+		}
+	}
+
+	/**
+	 * Discards any data received but not yet parsed, e.g., after a parse
+	 * error.
+	 */
+	void reset() {
+		buffer.clear();
+		start = 0;
+		scanPosition = 0;
+		headerLength = -1;
+		contentLength = 0;
+	}
+
+	/**
+	 * Looks for the end of the header section of the current message and, if
+	 * it has been received, tokenizes it.
+	 *
+	 * @return true if the header section is complete, false otherwise.
+	 */
+	private boolean parseHeaders() throws RTSPException {
+
+		byte[] data = buffer.array();
+		int end = buffer.position();
+		int headerEnd = -1;
+
+		for (int i = Math.max(scanPosition, start + 1); i < end; i++) {
+			if (data[i] == '\n'
+					&& (data[i - 1] == '\n' || (data[i - 1] == '\r'
+							&& i - 2 >= start && data[i - 2] == '\n'))) {
+				headerEnd = i + 1;
+				break;
+			}
+		}
+		if (headerEnd < 0) {
+			scanPosition = Math.max(start, end - 2);
+			if (end - start >= MAXIMUM_MESSAGE_LENGTH)
+				throw new RTSPException("RTSP response too large.");
+			return false;
+		}
+
+		fieldCount = 0;
+		contentLength = 0;
+		int lineStart = start;
+		int lineEnd = lineEnd(data, lineStart, headerEnd);
+		parseStatusLine(data, lineStart, lineEnd);
+
+		lineStart = nextLine(data, lineEnd, headerEnd);
+		while (lineStart < headerEnd) {
+			lineEnd = lineEnd(data, lineStart, headerEnd);
+			if (lineEnd == lineStart)
+				break;
+			parseHeaderLine(data, lineStart, lineEnd);
+			lineStart = nextLine(data, lineEnd, headerEnd);
+		}
+
+		headerLength = headerEnd - start;
+		if (headerLength + contentLength > MAXIMUM_MESSAGE_LENGTH)
+			throw new RTSPException("RTSP response too large.");
+		return true;
+	}
+
+	private void parseStatusLine(byte[] data, int lineStart, int lineEnd)
+			throws RTSPException {
+
+		int firstSpace = indexOf(data, lineStart, lineEnd, (byte) ' ');
+		int secondSpace = firstSpace < 0 ? -1 : indexOf(data, firstSpace + 1,
+				lineEnd, (byte) ' ');
+		if (secondSpace < 0
+				|| !equalsIgnoreCase(data, lineStart, firstSpace, RTSP_VERSION))
+			throw new RTSPException("Invalid response from RTSP server.");
+
+		int code = 0;
+		for (int i = firstSpace + 1; i < secondSpace; i++) {
+			if (data[i] < '0' || data[i] > '9' || i - firstSpace > 9)
+				throw new RTSPException("Invalid response from RTSP server.");
+			code = code * 10 + data[i] - '0';
+		}
+		if (secondSpace == firstSpace + 1)
+			throw new RTSPException("Invalid response from RTSP server.");
+
+		responseCode = code;
+		reasonStart = secondSpace + 1 - start;
+		reasonEnd = lineEnd - start;
+	}
+
+	/**
+	 * Records the positions of the name and the value of a header line.
+	 * Lines without a colon are ignored, and surrounding white space is
+	 * excluded from both name and value.
+	 */
+	private void parseHeaderLine(byte[] data, int lineStart, int lineEnd)
+			throws RTSPException {
+
+		int colon = indexOf(data, lineStart, lineEnd, (byte) ':');
+		if (colon < 0)
+			return;
+
+		int nameStart = skipSpaces(data, lineStart, colon);
+		int nameEnd = trimSpaces(data, nameStart, colon);
+		int valueStart = skipSpaces(data, colon + 1, lineEnd);
+		int valueEnd = trimSpaces(data, valueStart, lineEnd);
+
+		if (fieldCount + 4 > fields.length) {
+			int[] newFields = new int[fields.length * 2];
+			System.arraycopy(fields, 0, newFields, 0, fieldCount);
+			fields = newFields;
+		}
+		fields[fieldCount++] = nameStart - start;
+		fields[fieldCount++] = nameEnd - start;
+		fields[fieldCount++] = valueStart - start;
+		fields[fieldCount++] = valueEnd - start;
+
+		if (equalsIgnoreCase(data, nameStart, nameEnd, CONTENT_LENGTH)) {
+			long length = 0;
+			for (int i = valueStart; i < valueEnd; i++) {
+				if (data[i] < '0' || data[i] > '9')
+					throw new RTSPException("Invalid Content-Length in RTSP "
+							+ "response.");
+				length = length * 10 + data[i] - '0';
+				if (length > MAXIMUM_MESSAGE_LENGTH)
+					throw new RTSPException("RTSP response too large.");
+			}
+			contentLength = (int) length;
+		}
+	}
+
+	/**
+	 * Makes room in the buffer for more data, by moving the current message
+	 * to the start of the buffer or, if it already starts there, by growing
+	 * the buffer.
+	 */
+	private void makeRoom() {
+		if (start > 0) {
+			buffer.flip();
+			buffer.position(start);
+			buffer.compact();
+			scanPosition -= start;
+			start = 0;
+		} else {
+			ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		}
+	}
+
+	/**
+	 * Returns the position of the end of a line, excluding the CR (if any) and
+	 * LF characters.
+	 */
+	private static int lineEnd(byte[] data, int from, int limit) {
+		int lf = indexOf(data, from, limit, (byte) '\n');
+		if (lf < 0)
+			lf = limit;
+		return lf > from && data[lf - 1] == '\r' ? lf - 1 : lf;
+	}
+
+	private static int nextLine(byte[] data, int lineEnd, int limit) {
+		int lf = indexOf(data, lineEnd, limit, (byte) '\n');
+		return lf < 0 ? limit : lf + 1;
+	}
+
+	private static int indexOf(byte[] data, int from, int to, byte value) {
+		for (int i = from; i < to; i++)
+			if (data[i] == value)
+				return i;
+		return -1;
+	}
+
+	private static int skipSpaces(byte[] data, int from, int to) {
+		while (from < to && (data[from] == ' ' || data[from] == '\t'))
+			from++;
+		return from;
+	}
+
+	private static int trimSpaces(byte[] data, int from, int to) {
+		while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t'))
+			to--;
+		return to;
+	}
+
+	/**
+	 * Compares a range of bytes with an ASCII string, ignoring case.
+	 *
+	 * @param expected
+	 *            The expected bytes, in any case.
+	 */
+	static boolean equalsIgnoreCase(byte[] data, int from, int to,
+			byte[] expected) {
+		if (to - from != expected.length)
+			return false;
+		for (int i = 0; i < expected.length; i++)
+			if (toLowerCase(data[from + i]) != toLowerCase(expected[i]))
+				return false;
+		return true;
+	}
+
+	private static int toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+	}
+}
@@ -0,0 +1,366 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+/**
+ * This class reads a recording made by StreamRecorder. The segment files of
+ * the recording are memory-mapped, and frames are addressed by their position
+ * in the recording, from 0 (zero) to <code>getFrameCount() - 1</code>.
+ *
+ * Frames are recorded in the order they are played, so their timestamps never
+ * decrease; a frame can therefore be found from its time in the recording by
+ * a binary search of the index, in O(log n), without reading any payload.
+ * Times are measured in milliseconds from the timestamp of the first frame,
+ * as the RTP timestamps of the course server are.
+ *
+ * Only the frames recorded when the recording is opened are visible.
+ */
+public class RecordingReader implements Closeable {
+
+	private static final Pattern SEGMENT_NAME = Pattern.compile("(.*)\\.(\\d+)"
+			+ Pattern.quote(StreamRecorder.SEGMENT_EXTENSION));
+
+	private final RandomAccessFile[] files;
+	private final MappedByteBuffer[] segments;
+	private final int[] firstFrames;
+	private final int frameCount;
+	private final String videoName;
+	private final long startTime;
+
+	/**
+	 * Opens a recording.
+	 *
+	 * @param segmentFiles
+	 *            The segment files of the recording, in order (see
+	 *            <code>findSegments</code>).
+	 * @throws IOException
+	 *             If a file could not be read or is not a segment of the same
+	 *             recording.
+	 */
+	public RecordingReader(List<File> segmentFiles) throws IOException {
+
+		if (segmentFiles.isEmpty())
+			throw new IOException("No segment files");
+		files = new RandomAccessFile[segmentFiles.size()];
+		segments = new MappedByteBuffer[segmentFiles.size()];
+		firstFrames = new int[segmentFiles.size()];
+
+		int count = 0;
+		String name = null;
+		long time = 0;
+		try {
+			for (int i = 0; i < segments.length; i++) {
+				files[i] = new RandomAccessFile(segmentFiles.get(i), "r");
+				FileChannel channel = files[i].getChannel();
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+				MappedByteBuffer segment = segments[i];
+
+				byte[] magic = new byte[RecordingSegment.MAGIC.length];
+				if (segment.capacity() < RecordingSegment.HEADER_LENGTH)
+					throw new IOException("Not a segment file: "
+							+ segmentFiles.get(i));
+				segment.get(magic);
+				if (!Arrays.equals(magic, RecordingSegment.MAGIC))
+					throw new IOException("Not a segment file: "
+							+ segmentFiles.get(i));
+
+				int nameLength = segment.getShort(RecordingSegment.NAME_OFFSET);
+				byte[] nameBytes = new byte[Math.max(0, Math.min(nameLength,
+						RecordingSegment.MAXIMUM_NAME_LENGTH))];
+				segment.position(RecordingSegment.NAME_OFFSET + 2);
+				segment.get(nameBytes);
+				String segmentName = new String(nameBytes,
+						RecordingSegment.NAME_CHARSET);
+				long segmentTime = segment
+						.getLong(RecordingSegment.START_TIME_OFFSET);
+				if (i == 0) {
+					name = segmentName;
+					time = segmentTime;
+				}
+				int frames = segment.getInt(RecordingSegment.FRAME_COUNT_OFFSET);
+				int capacity = segment
+						.getInt(RecordingSegment.INDEX_CAPACITY_OFFSET);
+				if (segment.getInt(RecordingSegment.SEGMENT_NUMBER_OFFSET) != i
+						|| !segmentName.equals(name) || segmentTime != time
+						|| frames < 0 || frames > capacity
+						|| RecordingSegment.HEADER_LENGTH + (long) capacity
+								* RecordingSegment.INDEX_ENTRY_LENGTH > segment
+								.capacity())
+					throw new IOException("Invalid or out of order segment: "
+							+ segmentFiles.get(i));
+
+				firstFrames[i] = count;
+				count += frames;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		frameCount = count;
+		videoName = name;
+		startTime = time;
+	}
+
+	/**
+	 * Finds the segment files of a recording in a directory.
+	 *
+	 * @param directory
+	 *            The directory where the recording was made.
+	 * @param name
+	 *            The name of a recording, i.e., the name of its segment files
+	 *            without the segment number and extension, or the name of a
+	 *            video, in which case its most recent recording is used.
+	 * @return The segment files, in order, or an empty list if no recording
+	 *         was found.
+	 */
+	public static List<File> findSegments(File directory, final String name) {
+
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return SEGMENT_NAME.matcher(file.getName()).matches();
+			}
+		});
+		if (files == null)
+			return Collections.emptyList();
+
+		String recordingName = null;
+		String prefix = StreamRecorder.getRecordingPrefix(name);
+		long latestTime = -1;
+		for (File file : files) {
+			Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+			matcher.matches();
+			String candidate = matcher.group(1);
+			if (candidate.equals(name)) {
+				recordingName = name;
+				break;
+			}
+			if (candidate.startsWith(prefix)
+					&& candidate.substring(prefix.length()).matches("\\d+")) {
+				long time = Long.parseLong(candidate.substring(prefix.length()));
+				if (time > latestTime) {
+					latestTime = time;
+					recordingName = candidate;
+				}
+			}
+		}
+
+		List<File> segments = new ArrayList<File>();
+		for (File file : files) {
+			Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+			if (matcher.matches() && matcher.group(1).equals(recordingName))
+				segments.add(file);
+		}
+		Collections.sort(segments, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(getSegmentNumber(a), getSegmentNumber(b));
+			}
+		});
+		return segments;
+	}
+
+	/**
+	 * Returns the name of the video recorded.
+	 *
+	 * @return The video name.
+	 */
+	public String getVideoName() {
+		return videoName;
+	}
+
+	/**
+	 * Returns the time the recording started.
+	 *
+	 * @return The start time, in milliseconds since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the number of frames in the recording.
+	 *
+	 * @return The number of frames.
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the time of a frame in the recording.
+	 *
+	 * @param index
+	 *            The position of the frame in the recording.
+	 * @return The difference between the timestamp of the frame and the
+	 *         timestamp of the first frame, in milliseconds.
+	 */
+	public long getPosition(int index) {
+		return (getTimestamp(index) - getTimestamp(0)) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Returns the duration of the recording, i.e., the time of its last frame.
+	 *
+	 * @return The duration, in milliseconds, or 0 (zero) if the recording is
+	 *         empty.
+	 */
+	public long getDuration() {
+		return frameCount == 0 ? 0 : getPosition(frameCount - 1);
+	}
+
+	/**
+	 * Finds the frame to be presented at some time in the recording, i.e., the
+	 * last frame whose time is not after the given time. The search takes
+	 * O(log n) accesses to the index.
+	 *
+	 * @param position
+	 *            The time, in milliseconds from the first frame.
+	 * @return The position of the frame in the recording (0 (zero) if the
+	 *         time is before the first frame), or -1 if the recording is
+	 *         empty.
+	 */
+	public int findFrame(long position) {
+		int low = 0;
+		int high = frameCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (getPosition(middle) <= position)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return high < 0 ? -1 : low;
+	}
+
+	/**
+	 * Reads a frame from the recording. The payload is copied into a frame
+	 * borrowed from a pool, or into a new frame if it doesn't fit in the
+	 * buffers of the pool.
+	 *
+	 * @param index
+	 *            The position of the frame in the recording.
+	 * @param pool
+	 *            The pool where the frame is borrowed from.
+	 * @return The frame, with a reference owned by the caller.
+	 * @throws IOException
+	 *             If the index entry of the frame is invalid.
+	 */
+	public Frame readFrame(int index, FramePool pool) throws IOException {
+
+		MappedByteBuffer segment = getSegment(index);
+		int entry = getEntry(index);
+		int timestamp = segment.getInt(entry);
+		short sequenceNumber = segment.getShort(entry + 4);
+		byte payloadType = segment.get(entry + 6);
+		boolean marker = (segment.get(entry + 7) & RecordingSegment.MARKER_FLAG) != 0;
+		int offset = segment.getInt(entry + 8);
+		int length = segment.getInt(entry + 12);
+		if (offset < RecordingSegment.HEADER_LENGTH || length < 0
+				|| offset > segment.capacity() - length)
+			throw new IOException("Invalid index entry for frame " + index);
+
+		if (length > pool.getBufferLength()) {
+			byte[] payload = new byte[length];
+			synchronized (segment) {
+				segment.position(offset);
+				segment.get(payload);
+			}
+			return new Frame(payloadType, marker, sequenceNumber, timestamp,
+					payload);
+		}
+		Frame frame = pool.acquire();
+		synchronized (segment) {
+			segment.position(offset);
+			segment.get(frame.getBuffer(), 0, length);
+		}
+		return frame.fill(payloadType, marker, sequenceNumber, timestamp, 0,
+				length);
+	}
+
+	/**
+	 * Closes the segment files. The mapped buffers are released by the
+	 * garbage collector.
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (RandomAccessFile file : files) {
+			try {
+				if (file != null)
+					file.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	private int getTimestamp(int index) {
+		return getSegment(index).getInt(getEntry(index));
+	}
+
+	private MappedByteBuffer getSegment(int index) {
+		return segments[findSegment(index)];
+	}
+
+	private int getEntry(int index) {
+		return RecordingSegment.HEADER_LENGTH
+				+ (index - firstFrames[findSegment(index)])
+				* RecordingSegment.INDEX_ENTRY_LENGTH;
+	}
+
+	/**
+	 * Returns the segment that contains a frame, by a binary search of the
+	 * position of the first frame of each segment.
+	 */
+	private int findSegment(int index) {
+		if (index < 0 || index >= frameCount)
+			throw new IndexOutOfBoundsException("Frame " + index);
+		int segment = Arrays.binarySearch(firstFrames, index);
+		if (segment < 0)
+			return -segment - 2;
+		// Skip empty segments, which share their first frame with the next.
+		while (segment + 1 < firstFrames.length
+				&& firstFrames[segment + 1] == index)
+			segment++;
+		return segment;
+	}
+
+	private static long getSegmentNumber(File file) {
+		Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+		matcher.matches();
+		return Long.parseLong(matcher.group(2));
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+/**
+ * This class represents one segment file of a recording. A segment is
+ * preallocated with a fixed size and memory-mapped, so appending a frame is
+ * only a copy into the mapped buffer, with no system call. The file is laid
+ * out in three regions:
+ *
+ * <ul>
+ * <li>a header of <code>HEADER_LENGTH</code> bytes, with a magic number, the
+ * segment number, the capacity of the index, the number of frames and the end
+ * of the data written so far, the start time of the recording and the video
+ * name;</li>
+ * <li>an index with a fixed number of entries of
+ * <code>INDEX_ENTRY_LENGTH</code> bytes, one per frame, in the order frames
+ * were recorded: RTP timestamp, sequence number, payload type, flags (marker
+ * bit), and offset and length of the payload in the file;</li>
+ * <li>the payloads themselves, one after the other.</li>
+ * </ul>
+ *
+ * The number of frames in the header is only updated after the payload and
+ * index entry of a frame are written, so a reader never sees a partially
+ * written frame. Unused space at the end of the file is left as is (the file
+ * is sparse in most file systems). All values are big-endian.
+ *
+ * This class is not thread-safe.
+ */
+class RecordingSegment {
+
+	static final byte[] MAGIC = { 'R', 'T', 'P', 'R', 'E', 'C', '0', '1' };
+	static final int HEADER_LENGTH = 512;
+	static final int INDEX_ENTRY_LENGTH = 16;
+	static final int MAXIMUM_NAME_LENGTH = 256;
+
+	static final int SEGMENT_NUMBER_OFFSET = 8;
+	static final int INDEX_CAPACITY_OFFSET = 12;
+	static final int FRAME_COUNT_OFFSET = 16;
+	static final int DATA_END_OFFSET = 20;
+	static final int START_TIME_OFFSET = 24;
+	static final int NAME_OFFSET = 32;
+
+	static final int MARKER_FLAG = 0x01;
+
+	static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int indexCapacity;
+	private int frameCount = 0;
+	private int dataEnd;
+
+	/**
+	 * Creates a new segment file, replacing any existing file with the same
+	 * name, and maps it into memory.
+	 *
+	 * @param path
+	 *            The file where the segment is written.
+	 * @param size
+	 *            The size of the file, in bytes.
+	 * @param indexCapacity
+	 *            The maximum number of frames in the segment.
+	 * @param segmentNumber
+	 *            The position of this segment in its recording, starting at
+	 *            0 (zero).
+	 * @param startTime
+	 *            The time the recording started, in milliseconds since the
+	 *            epoch.
+	 * @param videoName
+	 *            The name of the video recorded. Names longer than
+	 *            <code>MAXIMUM_NAME_LENGTH</code> bytes are truncated.
+	 * @throws IOException
+	 *             If the file could not be created or mapped.
+	 */
+	RecordingSegment(File path, int size, int indexCapacity,
+			int segmentNumber, long startTime, String videoName)
+			throws IOException {
+
+		int dataStart = HEADER_LENGTH + indexCapacity * INDEX_ENTRY_LENGTH;
+		if (indexCapacity <= 0 || size <= dataStart)
+			throw new IllegalArgumentException("Segment too small");
+
+		this.indexCapacity = indexCapacity;
+		this.dataEnd = dataStart;
+		this.file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(0);
+			file.setLength(size);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+
+		byte[] name = videoName.getBytes(NAME_CHARSET);
+		buffer.put(MAGIC);
+		buffer.putInt(SEGMENT_NUMBER_OFFSET, segmentNumber);
+		buffer.putInt(INDEX_CAPACITY_OFFSET, indexCapacity);
+		buffer.putInt(FRAME_COUNT_OFFSET, 0);
+		buffer.putInt(DATA_END_OFFSET, dataEnd);
+		buffer.putLong(START_TIME_OFFSET, startTime);
+		buffer.putShort(NAME_OFFSET,
+				(short) Math.min(name.length, MAXIMUM_NAME_LENGTH));
+		buffer.position(NAME_OFFSET + 2);
+		buffer.put(name, 0, Math.min(name.length, MAXIMUM_NAME_LENGTH));
+	}
+
+	/**
+	 * Appends the payload of a frame to the segment.
+	 *
+	 * @param frame
+	 *            The frame to be recorded.
+	 * @return true if the frame was added, false if the index or the data
+	 *         region is full.
+	 */
+	boolean append(Frame frame) {
+		int length = frame.getPayloadLength();
+		if (frameCount == indexCapacity || length > buffer.capacity() - dataEnd)
+			return false;
+
+		buffer.position(dataEnd);
+		buffer.put(frame.getBuffer(), frame.getPayloadOffset(), length);
+
+		int entry = HEADER_LENGTH + frameCount * INDEX_ENTRY_LENGTH;
+		buffer.putInt(entry, frame.getTimestamp());
+		buffer.putShort(entry + 4, frame.getSequenceNumber());
+		buffer.put(entry + 6, frame.getPayloadType());
+		buffer.put(entry + 7, (byte) (frame.isMarkerOn() ? MARKER_FLAG : 0));
+		buffer.putInt(entry + 8, dataEnd);
+		buffer.putInt(entry + 12, length);
+
+		dataEnd += length;
+		frameCount++;
+		buffer.putInt(DATA_END_OFFSET, dataEnd);
+		buffer.putInt(FRAME_COUNT_OFFSET, frameCount);
+		return true;
+	}
+
+	/**
+	 * Returns the number of frames recorded in this segment.
+	 *
+	 * @return The number of frames.
+	 */
+	int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Writes any changes to the storage device and closes the file.
+	 *
+	 * @throws IOException
+	 *             If the file could not be written or closed.
+	 */
+	void close() throws IOException {
+		try {
+			buffer.force();
+		} finally {
+			file.close();
+		}
+	}
+}
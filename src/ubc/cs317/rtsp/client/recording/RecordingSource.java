@@ -0,0 +1,335 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+import ubc.cs317.rtsp.client.model.Session;
+import ubc.cs317.rtsp.client.model.StreamSource;
+import ubc.cs317.rtsp.client.model.StreamStatistics;
+import ubc.cs317.rtsp.client.net.JitterBuffer;
+import ubc.cs317.rtsp.client.net.RTSPResponse;
+import ubc.cs317.rtsp.client.net.RTSPResponseFuture;
+
+/**
+ * This class replays recordings made by StreamRecorder in a session, instead
+ * of receiving a stream from an RTSP server. Opening a video opens its most
+ * recent recording in a directory (or the recording with the given name), and
+ * playing it delivers its frames to the session, through
+ * <code>Session.processReceivedFrame</code>, exactly like frames received
+ * from the network.
+ *
+ * Frames are delivered by a player thread at the pace given by their
+ * timestamps, multiplied by a speed factor; with a speed of 0 (zero), frames
+ * are delivered as fast as the listeners of the session accept them, which
+ * can be used to benchmark decoding and rendering beyond the network rate.
+ * The playback can be moved to any time in the recording with
+ * <code>seek</code>, which uses the index of the recording instead of
+ * reading the frames before that time.
+ *
+ * Requests are handled locally, so the futures returned are already
+ * completed. Like a server, this source might still deliver a frame after it
+ * is paused.
+ */
+public class RecordingSource implements StreamSource {
+
+	public static final double DEFAULT_SPEED = 1;
+
+	private static final int FRAME_POOL_SIZE = 8;
+	private static final int FRAME_BUFFER_LENGTH = 1 << 18;
+
+	private static final Counter framesReplayed = MetricsRegistry
+			.getDefault().counter("replay.frames");
+
+	private final Session session;
+	private final File directory;
+	private final FramePool framePool = new FramePool(FRAME_POOL_SIZE,
+			FRAME_BUFFER_LENGTH);
+	private double speed = DEFAULT_SPEED;
+
+	private RecordingReader reader;
+	private boolean playing = false;
+	private int generation = 0;
+	private int position;
+	private long baseTime;
+	private long basePosition;
+
+	private long framesPlayed;
+	private long bytesPlayed;
+	private long firstPlayTime;
+	private long lastPlayTime;
+	private short highestSequenceNumber;
+
+	/**
+	 * Creates a new recording source.
+	 *
+	 * @param session
+	 *            The session that receives the frames replayed.
+	 * @param directory
+	 *            The directory where the recordings are.
+	 */
+	public RecordingSource(Session session, File directory) {
+		this.session = session;
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns an object that creates recording sources for sessions, e.g.,
+	 * <code>new Session(RecordingSource.factory(directory, 1))</code>.
+	 *
+	 * @param directory
+	 *            The directory where the recordings are.
+	 * @param speed
+	 *            The initial replay speed (see <code>setSpeed</code>).
+	 * @return A factory of recording sources.
+	 */
+	public static StreamSource.Factory factory(final File directory,
+			final double speed) {
+		return new StreamSource.Factory() {
+			@Override
+			public StreamSource createSource(Session session) {
+				RecordingSource source = new RecordingSource(session, directory);
+				source.setSpeed(speed);
+				return source;
+			}
+		};
+	}
+
+	/**
+	 * Defines the speed of the replay, relative to the pace at which frames
+	 * were recorded.
+	 *
+	 * @param speed
+	 *            The speed factor (e.g., 2 to replay twice as fast), or 0
+	 *            (zero) to deliver frames as fast as possible.
+	 */
+	public synchronized void setSpeed(double speed) {
+		this.speed = speed;
+		rebase();
+		notifyAll();
+	}
+
+	/**
+	 * Opens the most recent recording of a video, or the recording with the
+	 * given name. The future fails if no such recording exists.
+	 */
+	@Override
+	public synchronized RTSPResponseFuture setup(String videoName)
+			throws RTSPException {
+		if (reader != null)
+			throw new RTSPException(
+					"Close connection before opening a new video.");
+
+		List<File> segments = RecordingReader.findSegments(directory,
+				videoName);
+		if (segments.isEmpty())
+			return RTSPResponseFuture.failed("SETUP", new RTSPException(
+					"No recording of " + videoName));
+		try {
+			reader = new RecordingReader(segments);
+		} catch (IOException e) {
+			return RTSPResponseFuture.failed("SETUP", new RTSPException(
+					"Could not open recording", e));
+		}
+		position = 0;
+		framesPlayed = 0;
+		bytesPlayed = 0;
+		return completed("SETUP");
+	}
+
+	@Override
+	public synchronized RTSPResponseFuture play() throws RTSPException {
+		if (reader == null)
+			throw new RTSPException("Open a video first.");
+		if (playing)
+			throw new RTSPException("Video is already playing.");
+
+		playing = true;
+		final int playerGeneration = ++generation;
+		rebase();
+		Thread player = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				playFrames(playerGeneration);
+			}
+		}, "Recording player " + reader.getVideoName());
+		player.setDaemon(true);
+		player.start();
+		return completed("PLAY");
+	}
+
+	@Override
+	public synchronized RTSPResponseFuture pause() throws RTSPException {
+		if (!playing)
+			throw new RTSPException("Video is not playing.");
+		stop();
+		return completed("PAUSE");
+	}
+
+	@Override
+	public synchronized RTSPResponseFuture teardown() throws RTSPException {
+		if (reader == null)
+			throw new RTSPException("There is no video to teardown.");
+		stop();
+		closeReader();
+		return completed("TEARDOWN");
+	}
+
+	/**
+	 * Moves the playback to the last frame recorded at or before the given
+	 * time. If the video is playing, playback continues from that frame.
+	 */
+	@Override
+	public synchronized RTSPResponseFuture seek(long position)
+			throws RTSPException {
+		if (reader == null)
+			throw new RTSPException("Open a video first.");
+		this.position = Math.max(0, reader.findFrame(position));
+		rebase();
+		notifyAll();
+		return completed("SEEK");
+	}
+
+	@Override
+	public boolean isSeekable() {
+		return true;
+	}
+
+	@Override
+	public synchronized void closeConnection() {
+		stop();
+		closeReader();
+	}
+
+	/**
+	 * Frames are delivered when they are due, so no jitter buffer is used.
+	 *
+	 * @return null.
+	 */
+	@Override
+	public JitterBuffer getJitterBuffer() {
+		return null;
+	}
+
+	/**
+	 * Returns statistics of the frames replayed since the video was opened,
+	 * as if each frame had been received in one packet with no loss.
+	 */
+	@Override
+	public synchronized StreamStatistics getStatistics() {
+		return new StreamStatistics(framesPlayed, bytesPlayed,
+				highestSequenceNumber & 0xFFFF, framesPlayed, 0, 0, 0, 0,
+				framesPlayed < 2 ? 0 : (lastPlayTime - firstPlayTime) / 1e9);
+	}
+
+	/**
+	 * Returns the recording currently open.
+	 *
+	 * @return The reader of the recording, or null if no video is open.
+	 */
+	public synchronized RecordingReader getReader() {
+		return reader;
+	}
+
+	private void playFrames(int playerGeneration) {
+		while (true) {
+			Frame frame;
+			synchronized (this) {
+				if (playerGeneration != generation)
+					return;
+				if (position >= reader.getFrameCount()) {
+					playing = false;
+					generation++;
+					return;
+				}
+				if (speed > 0) {
+					long due = baseTime
+							+ (long) ((reader.getPosition(position) - basePosition)
+									* 1e6 / speed);
+					long delay = due - System.nanoTime();
+					if (delay > 0) {
+						try {
+							wait(delay / 1000000, (int) (delay % 1000000));
+						} catch (InterruptedException e) {
+							return;
+						}
+						continue;
+					}
+				}
+				try {
+					frame = reader.readFrame(position++, framePool);
+				} catch (IOException e) {
+					e.printStackTrace();
+					playing = false;
+					generation++;
+					return;
+				}
+				long now = System.nanoTime();
+				if (framesPlayed++ == 0)
+					firstPlayTime = now;
+				lastPlayTime = now;
+				bytesPlayed += frame.getPayloadLength();
+				highestSequenceNumber = frame.getSequenceNumber();
+			}
+			try {
+				session.processReceivedFrame(frame);
+				framesReplayed.increment();
+			} finally {
+				frame.release();
+			}
+		}
+	}
+
+	/**
+	 * Restarts the pacing of the replay from the current frame, e.g., after a
+	 * seek or a change of speed. Must be called with the lock held.
+	 */
+	private void rebase() {
+		baseTime = System.nanoTime();
+		if (reader != null && position < reader.getFrameCount())
+			basePosition = reader.getPosition(position);
+	}
+
+	/**
+	 * Stops the player thread, if any. Must be called with the lock held.
+	 */
+	private void stop() {
+		playing = false;
+		generation++;
+		notifyAll();
+	}
+
+	private void closeReader() {
+		if (reader == null)
+			return;
+		try {
+			reader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		reader = null;
+	}
+
+	private static RTSPResponseFuture completed(String method) {
+		return RTSPResponseFuture.completed(method, new RTSPResponse(
+				"RTSP/1.0", 200, "OK"));
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.LatencyHistogram;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.listener.SessionListener;
+
+/**
+ * This class is a session listener that records the frames received in a
+ * session to local files, for later review. Each video opened in the session
+ * is written to its own recording, made of one or more memory-mapped segment
+ * files (see RecordingSegment) named after the video and the time the
+ * recording started; a new segment is started whenever the current one is
+ * full.
+ *
+ * Frames are not written in the thread that plays them: they are retained
+ * and added to a bounded queue, and a writer thread copies them into the
+ * mapped segment. If the writer falls behind and the queue is full, new
+ * frames are not recorded (and are counted as dropped) instead of delaying
+ * playback, so several streams can be recorded at the same time without
+ * affecting reception.
+ */
+public class StreamRecorder implements SessionListener {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	public static final int DEFAULT_INDEX_CAPACITY = 16384;
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+	static final String SEGMENT_EXTENSION = ".rec";
+
+	private static final Counter framesRecorded = MetricsRegistry
+			.getDefault().counter("recording.frames");
+	private static final Counter framesDropped = MetricsRegistry
+			.getDefault().counter("recording.dropped");
+	private static final LatencyHistogram writeTime = MetricsRegistry
+			.getDefault().histogram("recording.write_time");
+
+	private static final Object CLOSE = new Object();
+
+	private final File directory;
+	private final int segmentSize;
+	private final int indexCapacity;
+	private final BlockingQueue<Object> queue;
+	private final Thread writer;
+
+	private final List<File> segmentFiles = new ArrayList<File>();
+	private volatile IOException exception;
+	private volatile boolean closed = false;
+	private long droppedCount = 0;
+	/** A video change that didn't fit in the queue, guarded by this. */
+	private VideoChange pendingChange;
+
+	// Only used by the writer thread.
+	private String videoName;
+	private String recordingName;
+	private long startTime;
+	private RecordingSegment segment;
+	private int segmentNumber;
+
+	/**
+	 * Creates a new recorder with the default segment size, index capacity
+	 * and queue capacity, and starts its writer thread.
+	 *
+	 * @param directory
+	 *            The directory where segment files are created.
+	 */
+	public StreamRecorder(File directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_CAPACITY,
+				DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Creates a new recorder and starts its writer thread.
+	 *
+	 * @param directory
+	 *            The directory where segment files are created.
+	 * @param segmentSize
+	 *            The size of each segment file, in bytes. Frames larger than
+	 *            the data region of a segment are not recorded.
+	 * @param indexCapacity
+	 *            The maximum number of frames in each segment.
+	 * @param queueCapacity
+	 *            The maximum number of frames waiting to be written.
+	 */
+	public StreamRecorder(File directory, int segmentSize, int indexCapacity,
+			int queueCapacity) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.indexCapacity = indexCapacity;
+		this.queue = new ArrayBlockingQueue<Object>(queueCapacity);
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeFrames();
+			}
+		}, "Stream recorder " + directory.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void exceptionThrown(RTSPException exception) {
+	}
+
+	/**
+	 * Adds a frame to be recorded. This method never blocks: if the writer
+	 * queue is full, or if a video change is still waiting to be queued, the
+	 * frame is not recorded.
+	 */
+	@Override
+	public void frameReceived(Frame frame) {
+		if (frame == null || closed || exception != null)
+			return;
+		if (!offerPendingChange()) {
+			dropped();
+			return;
+		}
+		frame.retain();
+		if (!queue.offer(frame)) {
+			frame.release();
+			dropped();
+		}
+	}
+
+	/**
+	 * Starts a new recording when a video is opened, and finishes the current
+	 * one when the video is closed. This method is called by the session
+	 * while holding its lock, so it never blocks: if the queue is full, the
+	 * change is queued before the next frame instead, and frames are dropped
+	 * until it fits.
+	 */
+	@Override
+	public void videoNameChanged(String videoName) {
+		if (closed)
+			return;
+		synchronized (this) {
+			// A change still waiting is replaced, since no frame of its
+			// video was recorded.
+			pendingChange = new VideoChange(videoName);
+		}
+		offerPendingChange();
+	}
+
+	/**
+	 * Adds the pending video change to the queue, if there is one.
+	 *
+	 * @return true if no video change is waiting to be queued.
+	 */
+	private synchronized boolean offerPendingChange() {
+		if (pendingChange != null && queue.offer(pendingChange))
+			pendingChange = null;
+		return pendingChange == null;
+	}
+
+	private void dropped() {
+		synchronized (this) {
+			droppedCount++;
+		}
+		framesDropped.increment();
+	}
+
+	/**
+	 * Returns the segment files created so far, in the order they were
+	 * created.
+	 *
+	 * @return A list of segment files.
+	 */
+	public synchronized List<File> getSegmentFiles() {
+		return new ArrayList<File>(segmentFiles);
+	}
+
+	/**
+	 * Returns the number of frames that were not recorded because the writer
+	 * thread was not able to keep up.
+	 *
+	 * @return The number of dropped frames.
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Returns the exception that stopped the recording, if any.
+	 *
+	 * @return The exception thrown while writing a segment, or null if no
+	 *         exception was thrown.
+	 */
+	public IOException getException() {
+		return exception;
+	}
+
+	/**
+	 * Writes the frames still in the queue, finishes the current recording
+	 * and stops the writer thread. Frames received after this point are not
+	 * recorded.
+	 *
+	 * @throws IOException
+	 *             If the recording was stopped by an exception.
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting for the writer
+	 *             thread.
+	 */
+	public void close() throws IOException, InterruptedException {
+		if (!closed) {
+			closed = true;
+			queue.put(CLOSE);
+		}
+		writer.join();
+		if (exception != null)
+			throw exception;
+	}
+
+	private void writeFrames() {
+		while (true) {
+			Object item;
+			try {
+				item = queue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (item == CLOSE)
+				break;
+			if (item instanceof VideoChange) {
+				finishRecording();
+				videoName = ((VideoChange) item).videoName;
+				continue;
+			}
+
+			Frame frame = (Frame) item;
+			long start = System.nanoTime();
+			try {
+				if (exception == null && videoName != null) {
+					write(frame);
+					writeTime.recordSince(start);
+				}
+			} catch (IOException e) {
+				exception = e;
+			} finally {
+				frame.release();
+			}
+		}
+		finishRecording();
+
+		Object item;
+		while ((item = queue.poll()) != null)
+			if (item instanceof Frame)
+				((Frame) item).release();
+	}
+
+	private void write(Frame frame) throws IOException {
+		if (segment == null) {
+			if (recordingName == null) {
+				startTime = System.currentTimeMillis();
+				recordingName = getRecordingPrefix(videoName) + startTime;
+				segmentNumber = 0;
+			}
+			startSegment();
+		}
+		if (segment.append(frame)) {
+			framesRecorded.increment();
+			return;
+		}
+		// The current segment is full: continue in a new one.
+		if (segment.getFrameCount() > 0) {
+			closeSegment();
+			startSegment();
+			if (segment.append(frame)) {
+				framesRecorded.increment();
+				return;
+			}
+		}
+		dropped();
+	}
+
+	/**
+	 * Returns the beginning of the names of the recordings of a video: the
+	 * video name, with characters that may not be valid in file names
+	 * replaced, followed by a hyphen. The rest of the name is the time the
+	 * recording started, in milliseconds since the epoch, and the segment
+	 * number.
+	 */
+	static String getRecordingPrefix(String videoName) {
+		return videoName.replaceAll("[^A-Za-z0-9._-]", "_") + "-";
+	}
+
+	private void startSegment() throws IOException {
+		File file = new File(directory, String.format("%s.%03d%s",
+				recordingName, segmentNumber, SEGMENT_EXTENSION));
+		segment = new RecordingSegment(file, segmentSize, indexCapacity,
+				segmentNumber, startTime, videoName);
+		segmentNumber++;
+		synchronized (this) {
+			segmentFiles.add(file);
+		}
+	}
+
+	private void closeSegment() throws IOException {
+		RecordingSegment current = segment;
+		segment = null;
+		current.close();
+	}
+
+	private void finishRecording() {
+		try {
+			if (segment != null)
+				closeSegment();
+		} catch (IOException e) {
+			if (exception == null)
+				exception = e;
+		}
+		recordingName = null;
+	}
+
+	/**
+	 * This class marks the point in the queue where the video changed.
+	 */
+	private static class VideoChange {
+
+		private final String videoName;
+
+		private VideoChange(String videoName) {
+			this.videoName = videoName;
+		}
+	}
+}
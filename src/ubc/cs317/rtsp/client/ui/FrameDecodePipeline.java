@@ -0,0 +1,384 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.ui;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.swing.SwingUtilities;
+
+import ubc.cs317.rtsp.client.metrics.Counter;
+import ubc.cs317.rtsp.client.metrics.LatencyHistogram;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+import ubc.cs317.rtsp.client.model.DecodedFrameCache;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FrameDecoder;
+
+/**
+ * This class decodes received frames outside of the thread that receives
+ * them and outside of the Swing event dispatch thread. Frames go through three
+ * stages: they are added to a bounded queue by the thread that plays them, a
+ * pool of worker threads decodes them (using a FrameDecoder), and the most
+ * recent decoded image is handed over to the event dispatch thread to be
+ * rendered.
+ *
+ * Each stage drops the oldest pending work instead of waiting when the next
+ * stage falls behind: if the decode queue is full the oldest frame in it is
+ * dropped, and only the most recent decoded image is kept for rendering. A
+ * slow decoder or a busy user interface therefore never blocks network
+ * ingest.
+ *
+ * Rendered images are kept in a DecodedFrameCache, so that the video can be
+ * stepped backward and forward (e.g., while it is paused) through recently
+ * presented frames without decoding them again. By default the cache only
+ * holds a few seconds of frames (DEFAULT_CACHE_BUDGET), and images evicted
+ * from it are given back to the decoder, so while a video plays the cache
+ * delays the reuse of images by a bounded amount instead of preventing it.
+ */
+public class FrameDecodePipeline {
+
+	/**
+	 * Interface used to present decoded images. It is always called in the
+	 * event dispatch thread.
+	 */
+	public interface Renderer {
+
+		/**
+		 * Presents a decoded image. The renderer should give the image back
+		 * with <code>recycle</code> once it is no longer presented.
+		 *
+		 * @param image
+		 *            The image to be presented, or null if the image should be
+		 *            cleared.
+		 */
+		public void render(BufferedImage image);
+	}
+
+	/**
+	 * The default budget of the cache of rendered images: about three
+	 * seconds of 320x240 video at 20 frames per second, decoded as 32-bit
+	 * pixels.
+	 */
+	public static final long DEFAULT_CACHE_BUDGET = 18 << 20;
+
+	private static final LatencyHistogram decodeTime = MetricsRegistry
+			.getDefault().histogram("decode.time");
+	private static final Counter framesDropped = MetricsRegistry.getDefault()
+			.counter("decode.dropped");
+
+	private final Renderer renderer;
+	private final FrameDecoder decoder;
+	private final BlockingQueue<Frame> decodeQueue;
+	private final Thread[] workers;
+	private final DecodedFrameCache cache;
+
+	private volatile int targetWidth = 0;
+	private volatile int targetHeight = 0;
+
+	private final Object renderLock = new Object();
+	private int generation = 0;
+	private boolean anyFrameRendered = false;
+	private short lastRenderedSequenceNumber;
+	private BufferedImage pendingImage;
+	private BufferedImage renderingImage;
+	private BufferedImage presentedImage;
+	private boolean renderScheduled = false;
+	private long droppedCount = 0;
+
+	private final Runnable renderTask = new Runnable() {
+		@Override
+		public void run() {
+			BufferedImage image;
+			synchronized (renderLock) {
+				image = pendingImage;
+				pendingImage = null;
+				renderScheduled = false;
+				renderingImage = image;
+			}
+			renderer.render(image);
+			synchronized (renderLock) {
+				presentedImage = image;
+				renderingImage = null;
+			}
+		}
+	};
+
+	/**
+	 * Recycles images evicted from the cache, unless they are still waiting
+	 * to be rendered or presented; those are given back by the renderer.
+	 */
+	private final DecodedFrameCache.Recycler evictedImageRecycler = new DecodedFrameCache.Recycler() {
+		@Override
+		public void recycle(BufferedImage image) {
+			if (image != pendingImage && image != renderingImage
+					&& image != presentedImage)
+				decoder.recycle(image);
+		}
+	};
+
+	/**
+	 * Creates a new decode pipeline and starts its worker threads.
+	 *
+	 * @param renderer
+	 *            The object that presents the decoded images.
+	 * @param queueCapacity
+	 *            The maximum number of frames waiting to be decoded.
+	 * @param workerCount
+	 *            The number of threads decoding frames.
+	 */
+	public FrameDecodePipeline(Renderer renderer, int queueCapacity,
+			int workerCount) {
+		this(renderer, queueCapacity, workerCount, DEFAULT_CACHE_BUDGET, true);
+	}
+
+	/**
+	 * Creates a new decode pipeline and starts its worker threads.
+	 *
+	 * @param renderer
+	 *            The object that presents the decoded images.
+	 * @param queueCapacity
+	 *            The maximum number of frames waiting to be decoded.
+	 * @param workerCount
+	 *            The number of threads decoding frames.
+	 * @param cacheBudget
+	 *            The maximum number of bytes used by rendered images kept for
+	 *            stepping through the video, or 0 (zero) to keep none.
+	 * @param softReferences
+	 *            true if the garbage collector may reclaim kept images when
+	 *            memory runs low.
+	 */
+	public FrameDecodePipeline(Renderer renderer, int queueCapacity,
+			int workerCount, long cacheBudget, boolean softReferences) {
+		this.renderer = renderer;
+		this.cache = new DecodedFrameCache(cacheBudget, softReferences,
+				evictedImageRecycler);
+		this.decoder = new FrameDecoder(queueCapacity + workerCount + 2);
+		this.decodeQueue = new ArrayBlockingQueue<Frame>(queueCapacity);
+		this.workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					decodeFrames();
+				}
+			}, "Frame decoder " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Adds a frame to be decoded and presented. This method never blocks: if
+	 * the decode queue is full, the oldest frame in the queue is dropped. The
+	 * frame is retained by the pipeline, so the caller may release it once
+	 * this method returns.
+	 *
+	 * @param frame
+	 *            The frame to be decoded.
+	 */
+	public void submit(Frame frame) {
+		frame.retain();
+		while (!decodeQueue.offer(frame)) {
+			Frame oldest = decodeQueue.poll();
+			if (oldest != null) {
+				oldest.release();
+				synchronized (renderLock) {
+					dropped();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops any frame waiting to be decoded or rendered, and clears the image
+	 * being presented and the cache of rendered images. Frames already being
+	 * decoded are not rendered.
+	 */
+	public void clear() {
+		Frame frame;
+		while ((frame = decodeQueue.poll()) != null)
+			frame.release();
+		synchronized (renderLock) {
+			generation++;
+			anyFrameRendered = false;
+			cache.clear();
+			schedule(null);
+		}
+	}
+
+	/**
+	 * Presents again the cached image of the closest frame before the frame
+	 * last presented. This is meant to be used while the video is paused:
+	 * frames received later are still presented.
+	 *
+	 * @return true if a cached image was found, false otherwise.
+	 */
+	public boolean stepBackward() {
+		return step(false);
+	}
+
+	/**
+	 * Presents again the cached image of the closest frame after the frame
+	 * last presented, e.g., after stepping backward.
+	 *
+	 * @return true if a cached image was found, false otherwise.
+	 */
+	public boolean stepForward() {
+		return step(true);
+	}
+
+	/**
+	 * Defines the size of the area where images are presented. Images much
+	 * larger than this area are subsampled while they are decoded, so that the
+	 * renderer has fewer pixels to scale.
+	 *
+	 * @param width
+	 *            The width of the area where images are presented.
+	 * @param height
+	 *            The height of the area where images are presented.
+	 */
+	public void setTargetSize(int width, int height) {
+		this.targetWidth = width;
+		this.targetHeight = height;
+	}
+
+	/**
+	 * Gives back an image presented by the renderer, so that it can be reused
+	 * to decode another frame.
+	 *
+	 * @param image
+	 *            An image that is no longer presented.
+	 */
+	public void recycle(BufferedImage image) {
+		synchronized (renderLock) {
+			if (image != renderingImage)
+				release(image);
+		}
+	}
+
+	/**
+	 * Returns the number of frames dropped because the pipeline was not able
+	 * to decode or render them in time.
+	 *
+	 * @return The number of dropped frames.
+	 */
+	public long getDroppedCount() {
+		synchronized (renderLock) {
+			return droppedCount;
+		}
+	}
+
+	/**
+	 * Stops the worker threads. Frames still in the queue are released.
+	 */
+	public void shutdown() {
+		for (Thread worker : workers)
+			worker.interrupt();
+		clear();
+	}
+
+	private void decodeFrames() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Frame frame;
+			int frameGeneration;
+			try {
+				frame = decodeQueue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (renderLock) {
+				frameGeneration = generation;
+			}
+
+			short sequenceNumber = frame.getSequenceNumber();
+			BufferedImage image;
+			long start = System.nanoTime();
+			try {
+				image = decoder.decode(frame, targetWidth, targetHeight);
+				decodeTime.recordSince(start);
+			} catch (IOException e) {
+				synchronized (renderLock) {
+					dropped();
+				}
+				continue;
+			} finally {
+				frame.release();
+			}
+			rendered(image, sequenceNumber, frameGeneration);
+		}
+	}
+
+	private void rendered(BufferedImage image, short sequenceNumber,
+			int frameGeneration) {
+		synchronized (renderLock) {
+			if (frameGeneration != generation) {
+				decoder.recycle(image);
+				return;
+			}
+			if (anyFrameRendered
+					&& (short) (sequenceNumber - lastRenderedSequenceNumber) <= 0) {
+				dropped();
+				decoder.recycle(image);
+				return;
+			}
+			if (pendingImage != null)
+				dropped();
+			anyFrameRendered = true;
+			lastRenderedSequenceNumber = sequenceNumber;
+			schedule(image);
+			cache.put(sequenceNumber, image);
+		}
+	}
+
+	private boolean step(boolean forward) {
+		synchronized (renderLock) {
+			if (!anyFrameRendered)
+				return false;
+			DecodedFrameCache.Entry entry = forward ? cache
+					.getNext(lastRenderedSequenceNumber) : cache
+					.getPrevious(lastRenderedSequenceNumber);
+			BufferedImage image = entry == null ? null : entry.getImage();
+			if (image == null)
+				return false;
+			lastRenderedSequenceNumber = entry.getSequenceNumber();
+			schedule(image);
+			return true;
+		}
+	}
+
+	/**
+	 * Gives an image back to the decoder, unless it is owned by the cache.
+	 * Must be called with the render lock held.
+	 */
+	private void release(BufferedImage image) {
+		if (!cache.contains(image))
+			decoder.recycle(image);
+	}
+
+	private void dropped() {
+		droppedCount++;
+		framesDropped.increment();
+	}
+
+	private void schedule(BufferedImage image) {
+		release(pendingImage);
+		pendingImage = image;
+		if (!renderScheduled) {
+			renderScheduled = true;
+			SwingUtilities.invokeLater(renderTask);
+		}
+	}
+}
@@ -14,15 +14,17 @@
 package ubc.cs317.rtsp.client.ui;
 
 import java.awt.BorderLayout;
-import java.awt.Image;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 
-import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 import ubc.cs317.rtsp.client.exception.RTSPException;
 import ubc.cs317.rtsp.client.model.Frame;
@@ -31,10 +33,14 @@ import ubc.cs317.rtsp.client.model.listener.SessionListener;
 
 public class MainWindow extends JFrame implements SessionListener {
 
+	private static final int DECODE_QUEUE_CAPACITY = 4;
+	private static final int DECODE_WORKERS = 2;
+
 	private Session session;
+	private FrameDecodePipeline decodePipeline;
 
 	private VideoControlToolbar videoControlToolbar;
-	private JLabel imagePanel;
+	private VideoSurface imagePanel;
 	private JLabel videoNamePanel;
 
 	public MainWindow() {
@@ -42,9 +48,21 @@ public class MainWindow extends JFrame implements SessionListener {
 		super("Video Client");
 
 		videoControlToolbar = new VideoControlToolbar(this);
-		imagePanel = new JLabel();
-		imagePanel.setHorizontalAlignment(SwingConstants.CENTER);
-		imagePanel.setVerticalAlignment(SwingConstants.CENTER);
+		imagePanel = new VideoSurface();
+		imagePanel.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				decodePipeline.setTargetSize(imagePanel.getWidth(),
+						imagePanel.getHeight());
+			}
+		});
+		decodePipeline = new FrameDecodePipeline(
+				new FrameDecodePipeline.Renderer() {
+					@Override
+					public void render(BufferedImage image) {
+						decodePipeline.recycle(imagePanel.setImage(image));
+					}
+				}, DECODE_QUEUE_CAPACITY, DECODE_WORKERS);
 		videoNamePanel = new JLabel();
 		videoNamePanel.setHorizontalAlignment(SwingConstants.CENTER);
 
@@ -86,6 +104,26 @@ public class MainWindow extends JFrame implements SessionListener {
 		}
 	}
 
+	/**
+	 * Presents the previous decoded frame still in memory, if any, without
+	 * requesting or decoding it again.
+	 *
+	 * @return true if a previous frame was presented.
+	 */
+	public boolean stepBackward() {
+		return decodePipeline.stepBackward();
+	}
+
+	/**
+	 * Presents the next decoded frame still in memory, if any, e.g., after
+	 * stepping backward.
+	 *
+	 * @return true if a next frame was presented.
+	 */
+	public boolean stepForward() {
+		return decodePipeline.stepForward();
+	}
+
 	public synchronized void disconnect(boolean showOpenDialog) {
 		setSession(null);
 		if (showOpenDialog)
@@ -106,29 +144,45 @@ public class MainWindow extends JFrame implements SessionListener {
 		new MainWindow();
 	}
 
+	/**
+	 * Presents an exception to the user. Requests are completed by the
+	 * connection's reader thread, so the dialog is shown later in the event
+	 * dispatch thread.
+	 */
 	@Override
-	public void exceptionThrown(RTSPException exception) {
-		JOptionPane.showMessageDialog(this, exception.getMessage());
+	public void exceptionThrown(final RTSPException exception) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				JOptionPane.showMessageDialog(MainWindow.this,
+						exception.getMessage());
+			}
+		});
 	}
 
+	/**
+	 * Hands a received frame over to the decode pipeline. Frames are decoded
+	 * and scaled by the pipeline's worker threads, and only presented in the
+	 * event dispatch thread, so this method returns immediately.
+	 */
 	@Override
 	public void frameReceived(Frame frame) {
 		if (frame == null)
-			imagePanel.setIcon(null);
-		else {
-
-			Image scaledImage = frame.getImage().getScaledInstance(
-					-imagePanel.getWidth(), imagePanel.getHeight(),
-					Image.SCALE_FAST);
-			imagePanel.setIcon(new ImageIcon(scaledImage));
-		}
+			decodePipeline.clear();
+		else
+			decodePipeline.submit(frame);
 	}
 
 	@Override
-	public void videoNameChanged(String videoName) {
-		if (videoName==null)
-			videoNamePanel.setText("(click open to select a video)");
-		else
-			videoNamePanel.setText("Video: " + videoName);
+	public void videoNameChanged(final String videoName) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (videoName==null)
+					videoNamePanel.setText("(click open to select a video)");
+				else
+					videoNamePanel.setText("Video: " + videoName);
+			}
+		});
 	}
 }
@@ -13,6 +13,7 @@
 
 package ubc.cs317.rtsp.client.ui;
 
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
@@ -26,6 +27,7 @@ public class VideoControlToolbar extends JToolBar {
 
 	private MainWindow main;
 	private JButton openButton, playButton, pauseButton;
+	private JButton backButton, forwardButton;
 	private JButton closeButton;
 	private JButton disconnectButton;
 
@@ -82,6 +84,30 @@ public class VideoControlToolbar extends JToolBar {
 		});
 		this.add(pauseButton);
 
+		backButton = new JButton("<<");
+		backButton.setToolTipText("Previous frame");
+		backButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (!main.stepBackward())
+					Toolkit.getDefaultToolkit().beep();
+			}
+		});
+		this.add(backButton);
+
+		forwardButton = new JButton(">>");
+		forwardButton.setToolTipText("Next frame");
+		forwardButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (!main.stepForward())
+					Toolkit.getDefaultToolkit().beep();
+			}
+		});
+		this.add(forwardButton);
+
 		this.addSeparator();
 
 		closeButton = new JButton("Close");
@@ -0,0 +1,136 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.ui;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+
+import ubc.cs317.rtsp.client.metrics.LatencyHistogram;
+import ubc.cs317.rtsp.client.metrics.MetricsRegistry;
+
+/**
+ * This class represents the area where video frames are presented. The most
+ * recent frame is drawn directly into the component's Graphics, scaled to the
+ * size of the component (keeping its aspect ratio) at paint time. Unlike a
+ * JLabel with an ImageIcon, updating the frame doesn't cause the component to
+ * be revalidated, and several updates between two paints result in a single
+ * repaint.
+ *
+ * The transform that scales and centres an image depends only on the size of
+ * the image and the size of the component, so the transform is only
+ * computed again when either size changes; since every frame of a video
+ * usually has the same size, it is reused for every frame. When the component
+ * is resized the last frame is drawn again at the new size.
+ *
+ * All methods in this class must be called in the event dispatch thread.
+ */
+public class VideoSurface extends JComponent {
+
+	private static final LatencyHistogram renderTime = MetricsRegistry
+			.getDefault().histogram("render.time");
+
+	private BufferedImage image;
+
+	/**
+	 * The transform used for the last image drawn, and the size of that image
+	 * and of the component when it was computed.
+	 */
+	private AffineTransform transform;
+	private int transformImageWidth;
+	private int transformImageHeight;
+	private int transformWidth;
+	private int transformHeight;
+
+	public VideoSurface() {
+		setOpaque(true);
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				repaint();
+			}
+		});
+	}
+
+	/**
+	 * Defines the image currently presented and schedules a repaint.
+	 *
+	 * @param image
+	 *            The new image, or null if no image should be presented.
+	 * @return The image previously presented, which is no longer used by this
+	 *         component.
+	 */
+	public BufferedImage setImage(BufferedImage image) {
+		BufferedImage previousImage = this.image;
+		this.image = image;
+		repaint();
+		return previousImage;
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+
+		if (image == null)
+			return;
+
+		long start = System.nanoTime();
+		Graphics2D graphics = (Graphics2D) g;
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(image, getTransform(image), null);
+		renderTime.recordSince(start);
+	}
+
+	/**
+	 * Returns the transform that scales an image to the size of the component
+	 * (keeping its aspect ratio) and centres it, computing it only if the size
+	 * of the image or of the component changed since the last image was drawn.
+	 */
+	private AffineTransform getTransform(BufferedImage image) {
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		int componentWidth = getWidth();
+		int componentHeight = getHeight();
+		if (transform != null && imageWidth == transformImageWidth
+				&& imageHeight == transformImageHeight
+				&& componentWidth == transformWidth
+				&& componentHeight == transformHeight)
+			return transform;
+
+		double scale = Math.min((double) componentWidth / imageWidth,
+				(double) componentHeight / imageHeight);
+		int width = (int) (imageWidth * scale);
+		int height = (int) (imageHeight * scale);
+		transform = new AffineTransform();
+		transform.translate((componentWidth - width) / 2,
+				(componentHeight - height) / 2);
+		transform.scale((double) width / imageWidth, (double) height
+				/ imageHeight);
+
+		transformImageWidth = imageWidth;
+		transformImageHeight = imageHeight;
+		transformWidth = componentWidth;
+		transformHeight = componentHeight;
+		return transform;
+	}
+}
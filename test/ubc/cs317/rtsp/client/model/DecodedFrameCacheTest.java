@@ -0,0 +1,178 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DecodedFrameCacheTest {
+
+	private static final int IMAGE_SIZE = 16 * 16 * 4;
+
+	private final List<BufferedImage> recycled = new ArrayList<BufferedImage>();
+	private final DecodedFrameCache.Recycler recycler = new DecodedFrameCache.Recycler() {
+		@Override
+		public void recycle(BufferedImage image) {
+			recycled.add(image);
+		}
+	};
+
+	@Test
+	public void leastRecentlyUsedImageIsEvicted() {
+		DecodedFrameCache cache = new DecodedFrameCache(3 * IMAGE_SIZE, false,
+				recycler);
+		BufferedImage[] images = { image(), image(), image(), image() };
+		for (int i = 0; i < 3; i++)
+			cache.put((short) i, images[i]);
+		assertSame(images[0], cache.get((short) 0));
+
+		cache.put((short) 3, images[3]);
+
+		assertEquals(3, cache.getCount());
+		assertEquals(3 * IMAGE_SIZE, cache.getSize());
+		assertEquals(1, recycled.size());
+		assertSame(images[1], recycled.get(0));
+		assertFalse(cache.contains(images[1]));
+		assertNull(cache.get((short) 1));
+		assertTrue(cache.contains(images[0]));
+		assertTrue(cache.contains(images[2]));
+		assertTrue(cache.contains(images[3]));
+	}
+
+	@Test
+	public void imageWithSameSequenceNumberIsReplaced() {
+		DecodedFrameCache cache = new DecodedFrameCache(8 * IMAGE_SIZE, false,
+				recycler);
+		BufferedImage first = image();
+		BufferedImage second = image();
+		cache.put((short) 5, first);
+		cache.put((short) 5, second);
+
+		assertEquals(1, cache.getCount());
+		assertSame(second, cache.get((short) 5));
+		assertFalse(cache.contains(first));
+		assertTrue(cache.contains(second));
+		assertEquals(1, recycled.size());
+		assertSame(first, recycled.get(0));
+	}
+
+	@Test
+	public void imageAddedAgainMovesToNewSequenceNumber() {
+		DecodedFrameCache cache = new DecodedFrameCache(8 * IMAGE_SIZE, false,
+				recycler);
+		BufferedImage image = image();
+		cache.put((short) 1, image);
+		cache.put((short) 2, image);
+
+		assertEquals(1, cache.getCount());
+		assertNull(cache.get((short) 1));
+		assertSame(image, cache.get((short) 2));
+		assertTrue(cache.contains(image));
+		assertTrue(recycled.isEmpty());
+	}
+
+	@Test
+	public void imagesWithSameIdentityHashAreToldApart() {
+		// Small images sharing one raster, until two identity hash codes
+		// collide.
+		BufferedImage template = image();
+		ColorModel colorModel = template.getColorModel();
+		WritableRaster raster = template.getRaster();
+		Map<Integer, BufferedImage> byHash = new HashMap<Integer, BufferedImage>();
+		BufferedImage first = null;
+		BufferedImage second = null;
+		for (int i = 0; i < 500000 && first == null; i++) {
+			BufferedImage image = new BufferedImage(colorModel, raster, false,
+					null);
+			BufferedImage previous = byHash.put(
+					System.identityHashCode(image), image);
+			if (previous != null) {
+				first = previous;
+				second = image;
+			}
+		}
+		byHash = null;
+		assumeTrue(first != null);
+
+		DecodedFrameCache cache = new DecodedFrameCache(8 * IMAGE_SIZE, false,
+				recycler);
+		cache.put((short) 1, first);
+		assertTrue(cache.contains(first));
+		assertFalse(cache.contains(second));
+
+		cache.put((short) 2, second);
+		assertTrue(cache.contains(first));
+		assertTrue(cache.contains(second));
+
+		cache.put((short) 1, image());
+		assertFalse(cache.contains(first));
+		assertTrue(cache.contains(second));
+		assertSame(second, cache.get((short) 2));
+	}
+
+	@Test
+	public void reclaimedImagesArePurged() throws InterruptedException {
+		DecodedFrameCache cache = new DecodedFrameCache(8 * IMAGE_SIZE, true,
+				recycler);
+		cache.put((short) 1, image());
+		BufferedImage kept = image();
+		cache.put((short) 2, kept);
+
+		// Surefire runs with -XX:SoftRefLRUPolicyMSPerMB=0, so images that
+		// are only softly reachable are reclaimed by a full collection.
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+
+		cache.put((short) 3, image());
+		assumeTrue(cache.getCount() == 2);
+		assertNull(cache.get((short) 1));
+		assertEquals(2 * IMAGE_SIZE, cache.getSize());
+		assertTrue(cache.contains(kept));
+		assertTrue(recycled.isEmpty());
+	}
+
+	@Test
+	public void clearEvictsEveryImage() {
+		DecodedFrameCache cache = new DecodedFrameCache(8 * IMAGE_SIZE, false,
+				recycler);
+		BufferedImage image = image();
+		cache.put((short) 1, image);
+		cache.clear();
+
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+		assertFalse(cache.contains(image));
+		assertSame(image, recycled.get(0));
+	}
+
+	private static BufferedImage image() {
+		return new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+import ubc.cs317.rtsp.server.RTPJPEGPacketizer;
+import ubc.cs317.rtsp.server.SyntheticFrameSource;
+
+public class FrameReassemblerTest {
+
+	private static final long TIMEOUT_NS = 500000000L;
+
+	private final FramePool packetPool = new FramePool(8, 15000);
+	private final FrameReassembler reassembler = new FrameReassembler(
+			new FramePool(2, 1 << 18), TIMEOUT_NS, 4);
+
+	@Test
+	public void rawFragmentedFrameWithoutMarkerEndsAtEndOfImage() {
+		byte[] first = { (byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, 5, 6, 7, 8 };
+		// Could be mistaken for the first packet of an RFC 2435 frame.
+		byte[] middle = { 0, 0, 0, 0, 1, 50, 40, 30, 9, 10 };
+		byte[] last = { 11, 12, 13, 14, 15, 16, 17, 18, (byte) 0xFF,
+				(byte) 0xD9 };
+
+		assertNull(add(first, false, 10, 5000));
+		assertEquals(1000, getClockRate(middle, 11));
+		assertNull(add(middle, false, 11, 5000));
+		Frame frame = add(last, false, 12, 5000);
+
+		assertNotNull(frame);
+		assertEquals(10, frame.getSequenceNumber());
+		assertEquals(0, frame.getTimestamp());
+		assertArrayEquals(concatenate(first, middle, last), payload(frame));
+		frame.release();
+	}
+
+	@Test
+	public void packetsBeforeFormatIsKnownAreIgnored() {
+		byte[] continuation = { 1, 2, 3, 4, 5, 6, 7, 8, (byte) 0xFF,
+				(byte) 0xD9 };
+		byte[] image = { (byte) 0xFF, (byte) 0xD8, 1, 2, (byte) 0xFF,
+				(byte) 0xD9 };
+
+		assertEquals(0, getClockRate(continuation, 1));
+		assertNull(add(continuation, false, 1, 0));
+		Frame frame = add(image, true, 2, 40);
+
+		assertNotNull(frame);
+		assertArrayEquals(image, payload(frame));
+		frame.release();
+	}
+
+	@Test
+	public void rfc2435TimestampsAreConvertedToMilliseconds() throws Exception {
+		byte[][] images = new SyntheticFrameSource(64, 48, 2).getFrames("x");
+		RTPJPEGPacketizer packetizer = new RTPJPEGPacketizer();
+		short sequenceNumber = 100;
+		// 90 kHz timestamps, 40 ms apart, just before wrapping around.
+		int[] timestamps = { -1800, 1800 };
+
+		for (int i = 0; i < images.length; i++) {
+			byte[][] payloads = packetizer.packetize(images[i], 200);
+			assertNotNull(payloads);
+			Frame frame = null;
+			for (int j = 0; j < payloads.length; j++) {
+				assertNull(frame);
+				frame = add(payloads[j], j == payloads.length - 1,
+						sequenceNumber++, timestamps[i]);
+			}
+			assertNotNull(frame);
+			assertEquals(40 * i, frame.getTimestamp());
+			byte[] jpeg = payload(frame);
+			assertEquals((byte) 0xFF, jpeg[0]);
+			assertEquals((byte) 0xD8, jpeg[1]);
+			frame.release();
+		}
+		assertEquals(90000, getClockRate(new byte[8], sequenceNumber));
+	}
+
+	private Frame add(byte[] payload, boolean marker, int sequenceNumber,
+			int timestamp) {
+		Frame packet = packet(payload, marker, sequenceNumber, timestamp);
+		try {
+			reassembler.getClockRate(packet);
+			return reassembler.add(packet);
+		} finally {
+			packet.release();
+		}
+	}
+
+	private int getClockRate(byte[] payload, int sequenceNumber) {
+		Frame packet = packet(payload, false, sequenceNumber, 0);
+		try {
+			return reassembler.getClockRate(packet);
+		} finally {
+			packet.release();
+		}
+	}
+
+	private Frame packet(byte[] payload, boolean marker, int sequenceNumber,
+			int timestamp) {
+		Frame packet = packetPool.acquire();
+		System.arraycopy(payload, 0, packet.getBuffer(), 0, payload.length);
+		packet.fill((byte) JPEGDepacketizer.JPEG_PAYLOAD_TYPE, marker,
+				(short) sequenceNumber, timestamp, 0, payload.length);
+		packet.setReceiveTime(System.nanoTime());
+		return packet;
+	}
+
+	private static byte[] payload(Frame frame) {
+		return Arrays.copyOfRange(frame.getBuffer(), frame.getPayloadOffset(),
+				frame.getPayloadOffset() + frame.getPayloadLength());
+	}
+
+	private static byte[] concatenate(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts)
+			length += part.length;
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+}
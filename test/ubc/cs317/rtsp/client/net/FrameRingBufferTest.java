@@ -0,0 +1,115 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+public class FrameRingBufferTest {
+
+	private final FrameRingBuffer buffer = new FrameRingBuffer(16);
+
+	@Test
+	public void framesArePolledInSequenceOrderAcrossWraparound() {
+		int[] sequenceNumbers = { 0xFFFE, 1, 0xFFFF, 0, 2 };
+		for (int sequenceNumber : sequenceNumbers)
+			assertTrue(buffer.add(frame(sequenceNumber)));
+
+		int[] expected = { 0xFFFE, 0xFFFF, 0, 1, 2 };
+		for (int sequenceNumber : expected) {
+			assertEquals((short) sequenceNumber, buffer.peekFirst()
+					.getSequenceNumber());
+			assertEquals((short) sequenceNumber, buffer.pollFirst()
+					.getSequenceNumber());
+		}
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.peekFirst());
+	}
+
+	@Test
+	public void olderFramesAreAcceptedUntilFirstPoll() {
+		assertTrue(buffer.add(frame(3)));
+		assertTrue(buffer.add(frame(0xFFFF)));
+		assertSame(buffer.get((short) 0xFFFF), buffer.peekFirst());
+
+		assertEquals((short) 0xFFFF, buffer.pollFirst().getSequenceNumber());
+		assertFalse(buffer.add(frame(0xFFFE)));
+		assertFalse(buffer.add(frame(0xFFFF)));
+		assertTrue(buffer.add(frame(1)));
+		assertEquals(1, buffer.peekFirst().getSequenceNumber());
+	}
+
+	@Test
+	public void peekFirstSkipsGapsLeftByLostFrames() {
+		assertTrue(buffer.add(frame(100)));
+		assertTrue(buffer.add(frame(110)));
+		assertTrue(buffer.add(frame(105)));
+
+		assertEquals(100, buffer.pollFirst().getSequenceNumber());
+		assertEquals(105, buffer.peekFirst().getSequenceNumber());
+		assertTrue(buffer.add(frame(102)));
+		assertEquals(102, buffer.peekFirst().getSequenceNumber());
+		assertEquals(102, buffer.pollFirst().getSequenceNumber());
+		assertEquals(105, buffer.pollFirst().getSequenceNumber());
+		assertEquals(110, buffer.peekFirst().getSequenceNumber());
+		assertEquals(1, buffer.size());
+	}
+
+	@Test
+	public void framesTooFarAheadDoNotFit() {
+		assertTrue(buffer.fits((short) 12345));
+		assertTrue(buffer.add(frame(0xFFF8)));
+
+		assertTrue(buffer.fits((short) 7));
+		assertFalse(buffer.fits((short) 8));
+		assertFalse(buffer.add(frame(8)));
+		assertTrue(buffer.add(frame(7)));
+
+		buffer.pollFirst();
+		assertTrue(buffer.fits((short) 8));
+		assertTrue(buffer.add(frame(8)));
+		assertEquals(7, buffer.peekFirst().getSequenceNumber());
+	}
+
+	@Test
+	public void duplicatesAreRejected() {
+		assertTrue(buffer.add(frame(5)));
+		assertFalse(buffer.add(frame(5)));
+		assertEquals(1, buffer.size());
+	}
+
+	@Test
+	public void clearForgetsTheHead() {
+		assertTrue(buffer.add(frame(40)));
+		buffer.pollFirst();
+		assertTrue(buffer.add(frame(41)));
+		buffer.clear();
+
+		assertTrue(buffer.isEmpty());
+		assertTrue(buffer.add(frame(10)));
+		assertEquals(10, buffer.peekFirst().getSequenceNumber());
+	}
+
+	private static Frame frame(int sequenceNumber) {
+		return new Frame((byte) 26, true, (short) sequenceNumber,
+				sequenceNumber * 40, new byte[1]);
+	}
+}
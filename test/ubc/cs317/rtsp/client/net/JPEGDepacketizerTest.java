@@ -0,0 +1,302 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGQTable;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+import org.w3c.dom.NodeList;
+
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+import ubc.cs317.rtsp.server.RTPJPEGPacketizer;
+
+public class JPEGDepacketizerTest {
+
+	private static final String METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int MAXIMUM_PAYLOAD_SIZE = 300;
+	private static final int TABLES_LENGTH = 4 + 128;
+
+	private final JPEGDepacketizer depacketizer = new JPEGDepacketizer();
+	private final byte[] output = new byte[1 << 16];
+
+	@Test
+	public void everyTypeAndQualityIsDecoded() throws IOException {
+		for (int type = 0; type <= 1; type++) {
+			for (int restartInterval = 0; restartInterval <= 2; restartInterval += 2) {
+				String name = "type " + type + ", restart interval "
+						+ restartInterval;
+				RTPJPEGPacketizer packetizer = new RTPJPEGPacketizer();
+				// Tables for Q = 50, sent in the first frame (Q = 128).
+				byte[] first = encode(image(0), type, restartInterval, 1);
+				byte[][] payloads = packetize(packetizer, first);
+				assertEquals(name, 128, payloads[0][5] & 0xFF);
+				assertDecoded(name, first, payloads);
+				// Different tables (Q = 25), sent with Q = 255.
+				byte[] second = encode(image(1), type, restartInterval, 2);
+				payloads = packetize(packetizer, second);
+				assertEquals(name, 255, payloads[0][5] & 0xFF);
+				assertDecoded(name, second, payloads);
+
+				// Tables computed by the receiver from Q.
+				assertDecoded(name, first,
+						withoutTables(packetize(packetizer, first), 50));
+				assertDecoded(name, second,
+						withoutTables(packetize(packetizer, second), 25));
+				byte[] third = encode(image(2), type, restartInterval, 0.5f);
+				assertDecoded(name, third,
+						withoutTables(packetize(packetizer, third), 75));
+			}
+		}
+	}
+
+	@Test
+	public void headersAreReusedExceptForDynamicTables() throws IOException {
+		RTPJPEGPacketizer packetizer = new RTPJPEGPacketizer();
+		byte[] first = encode(image(0), 1, 0, 1);
+		byte[] second = encode(image(1), 1, 0, 2);
+
+		assertDecoded("Q = 128", first, packetize(packetizer, first));
+		assertDecoded("Q = 128", first, packetize(packetizer, first));
+		assertEquals(1, depacketizer.getHeadersGenerated());
+		assertDecoded("Q = 255", second, packetize(packetizer, second));
+		assertDecoded("Q = 255", second, packetize(packetizer, second));
+		assertEquals(3, depacketizer.getHeadersGenerated());
+	}
+
+	@Test
+	public void restartIntervalIsKeptInImage() throws IOException {
+		byte[] jpeg = encode(image(0), 0, 3, 1);
+		byte[][] payloads = packetize(new RTPJPEGPacketizer(), jpeg);
+		assertEquals(64, payloads[0][4]);
+		assertEquals(3, ((payloads[0][8] & 0xFF) << 8) | (payloads[0][9] & 0xFF));
+
+		int length = depacketize(payloads);
+		assertTrue(containsMarker(output, length, 0xDD));
+		// The restart markers in the scan data are passed through.
+		assertTrue(containsMarker(output, length, 0xD0));
+		assertDecoded("restart interval", jpeg, payloads);
+	}
+
+	@Test
+	public void frameWithLostMiddleFragmentIsDropped() throws IOException {
+		FrameReassembler reassembler = new FrameReassembler(new FramePool(2,
+				1 << 16), 500000000L, 4);
+		RTPJPEGPacketizer packetizer = new RTPJPEGPacketizer();
+		byte[] first = encode(image(0), 1, 0, 1);
+		byte[] second = encode(image(1), 1, 0, 1);
+		byte[][] firstPayloads = packetizer.packetize(first, 160);
+		byte[][] secondPayloads = packetizer.packetize(second, 160);
+		assertTrue(firstPayloads.length >= 3);
+
+		short sequenceNumber = 0;
+		long now = 0;
+		for (int i = 0; i < firstPayloads.length; i++, sequenceNumber++)
+			if (i != firstPayloads.length / 2)
+				assertNull(add(reassembler, firstPayloads[i],
+						i == firstPayloads.length - 1, sequenceNumber, 0, now));
+
+		Frame frame = null;
+		for (int i = 0; i < secondPayloads.length; i++, sequenceNumber++) {
+			assertNull(frame);
+			frame = add(reassembler, secondPayloads[i],
+					i == secondPayloads.length - 1, sequenceNumber, 3600, now);
+		}
+		assertNotNull(frame);
+		// Timestamps are counted from the first frame completed.
+		assertEquals(0, frame.getTimestamp());
+		byte[] jpeg = Arrays.copyOfRange(frame.getBuffer(),
+				frame.getPayloadOffset(), frame.getPayloadOffset()
+						+ frame.getPayloadLength());
+		frame.release();
+		assertSameImage("second frame", second, jpeg);
+
+		// The missing fragment arriving after the timeout doesn't complete
+		// the first frame.
+		now += 1000000000L;
+		int middle = firstPayloads.length / 2;
+		assertNull(add(reassembler, firstPayloads[middle], false,
+				(short) middle, 0, now));
+	}
+
+	private Frame add(FrameReassembler reassembler, byte[] payload,
+			boolean marker, short sequenceNumber, int timestamp, long now) {
+		Frame packet = new Frame((byte) JPEGDepacketizer.JPEG_PAYLOAD_TYPE,
+				marker, sequenceNumber, timestamp, payload);
+		packet.setReceiveTime(now);
+		reassembler.getClockRate(packet);
+		return reassembler.add(packet);
+	}
+
+	private void assertDecoded(String message, byte[] jpeg, byte[][] payloads)
+			throws IOException {
+		int length = depacketize(payloads);
+		assertTrue(message, length > 0);
+		assertSameImage(message, jpeg, Arrays.copyOf(output, length));
+	}
+
+	private int depacketize(byte[][] payloads) {
+		List<Frame> fragments = new ArrayList<Frame>();
+		for (int i = 0; i < payloads.length; i++)
+			fragments.add(new Frame((byte) JPEGDepacketizer.JPEG_PAYLOAD_TYPE,
+					i == payloads.length - 1, (short) i, 0, payloads[i]));
+		return depacketizer.depacketize(fragments, output);
+	}
+
+	/**
+	 * Checks that an image rebuilt from its payloads decodes to the same
+	 * pixels as the original image.
+	 */
+	private static void assertSameImage(String message, byte[] expected,
+			byte[] actual) throws IOException {
+		BufferedImage expectedImage = ImageIO.read(new ByteArrayInputStream(
+				expected));
+		BufferedImage actualImage = ImageIO.read(new ByteArrayInputStream(
+				actual));
+		assertNotNull(message, actualImage);
+		assertEquals(message, WIDTH, actualImage.getWidth());
+		assertEquals(message, HEIGHT, actualImage.getHeight());
+		assertArrayEquals(message,
+				expectedImage.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH),
+				actualImage.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+	}
+
+	private static byte[][] packetize(RTPJPEGPacketizer packetizer,
+			byte[] jpeg) {
+		byte[][] payloads = packetizer.packetize(jpeg, MAXIMUM_PAYLOAD_SIZE);
+		assertNotNull(payloads);
+		assertTrue(payloads.length > 1);
+		return payloads;
+	}
+
+	/**
+	 * Removes the quantization tables from the first payload of a frame, so
+	 * that the receiver computes them from a quality factor.
+	 */
+	private static byte[][] withoutTables(byte[][] payloads, int q) {
+		byte[] first = payloads[0];
+		int headerLength = (first[4] & 0xFF) >= 64 ? 12 : 8;
+		byte[] payload = new byte[first.length - TABLES_LENGTH];
+		System.arraycopy(first, 0, payload, 0, headerLength);
+		System.arraycopy(first, headerLength + TABLES_LENGTH, payload,
+				headerLength, payload.length - headerLength);
+		payload[5] = (byte) q;
+		byte[][] result = payloads.clone();
+		result[0] = payload;
+		return result;
+	}
+
+	private static boolean containsMarker(byte[] data, int length, int marker) {
+		for (int i = 0; i + 1 < length; i++)
+			if (data[i] == (byte) 0xFF && (data[i + 1] & 0xFF) == marker)
+				return true;
+		return false;
+	}
+
+	private static BufferedImage image(int index) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, WIDTH, HEIGHT,
+				Color.ORANGE));
+		graphics.fillRect(0, 0, WIDTH, HEIGHT);
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(index * 8, HEIGHT / 3, WIDTH / 8, HEIGHT / 3);
+		graphics.drawString(Integer.toString(index), 8, 16);
+		graphics.dispose();
+		return image;
+	}
+
+	/**
+	 * Encodes an image as a baseline JPEG with the standard Huffman tables,
+	 * which ImageIO uses by default.
+	 *
+	 * @param type
+	 *            0 (zero) for 4:2:2 sampling, 1 for 4:2:0 sampling.
+	 * @param restartInterval
+	 *            The number of MCUs between restart markers, or 0 (zero) for
+	 *            no restart markers.
+	 * @param scale
+	 *            The factor applied to the standard quantization tables
+	 *            (e.g., 1 for Q = 50, 2 for Q = 25).
+	 */
+	private static byte[] encode(BufferedImage image, int type,
+			int restartInterval, float scale) throws IOException {
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg")
+				.next();
+		IIOMetadata metadata = writer.getDefaultImageMetadata(
+				new ImageTypeSpecifier(image), null);
+		IIOMetadataNode root = (IIOMetadataNode) metadata
+				.getAsTree(METADATA_FORMAT);
+		JPEGQTable[] tables = {
+				JPEGQTable.K1Luminance.getScaledInstance(scale, true),
+				JPEGQTable.K2Chrominance.getScaledInstance(scale, true) };
+		NodeList dqtables = root.getElementsByTagName("dqtable");
+		for (int i = 0; i < dqtables.getLength(); i++) {
+			IIOMetadataNode dqtable = (IIOMetadataNode) dqtables.item(i);
+			dqtable.setUserObject(tables[Integer.parseInt(dqtable
+					.getAttribute("qtableId"))]);
+		}
+		IIOMetadataNode luma = (IIOMetadataNode) root.getElementsByTagName(
+				"componentSpec").item(0);
+		luma.setAttribute("HsamplingFactor", "2");
+		luma.setAttribute("VsamplingFactor", type == 0 ? "1" : "2");
+		if (restartInterval != 0) {
+			IIOMetadataNode dri = new IIOMetadataNode("dri");
+			dri.setAttribute("interval", Integer.toString(restartInterval));
+			IIOMetadataNode sof = (IIOMetadataNode) root.getElementsByTagName(
+					"sof").item(0);
+			sof.getParentNode().insertBefore(dri, sof);
+		}
+		metadata.setFromTree(METADATA_FORMAT, root);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+		try {
+			writer.setOutput(stream);
+			writer.write(new IIOImage(image, null, metadata));
+		} finally {
+			stream.close();
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+}
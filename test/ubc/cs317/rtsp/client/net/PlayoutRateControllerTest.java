@@ -0,0 +1,130 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.cs317.rtsp.client.model.Frame;
+
+public class PlayoutRateControllerTest {
+
+	private static final double FRAME_RATE = 25;
+	private static final long TARGET_LATENCY_MS = PlayoutRateController.DEFAULT_TARGET_LATENCY_MS;
+	private static final long TOLERANCE_MS = 40;
+
+	private JitterBuffer buffer;
+	private PlayoutRateController controller;
+	private RTPStatistics statistics;
+
+	private long latencySum;
+	private int latencyCount;
+	private int playedCount;
+
+	@Before
+	public void setUp() {
+		buffer = new JitterBuffer();
+		statistics = new RTPStatistics();
+		controller = new PlayoutRateController();
+		controller.setStatistics(statistics);
+		buffer.setRateController(controller);
+	}
+
+	@Test
+	public void convergesToTargetWhenSenderClockIsFast() {
+		// The sender's clock runs 2% faster than the client's.
+		simulate(3000, 0, 0.98, 20, 90000);
+
+		assertEquals(TARGET_LATENCY_MS, getAverageLatency(), TOLERANCE_MS);
+		assertEquals(0, controller.getSkippedCount());
+		assertEquals(0, buffer.getLateDropCount());
+		assertEquals(0, buffer.getOverflowDropCount());
+		assertEquals(3000, playedCount);
+	}
+
+	@Test
+	public void convergesToTargetAfterBurst() {
+		// The first second of the stream arrives at once.
+		simulate(1500, 25, 1, 20, 40000);
+
+		assertEquals(TARGET_LATENCY_MS, getAverageLatency(), TOLERANCE_MS);
+		assertTrue(controller.getSkippedCount() > 0);
+	}
+
+	/**
+	 * Plays a 25 fps stream through the buffer, one millisecond at a time,
+	 * recording the time each frame spends in the buffer once a given time
+	 * has passed.
+	 *
+	 * @param frameCount
+	 *            The number of frames sent.
+	 * @param burst
+	 *            The number of frames sent at once at the start.
+	 * @param periodFactor
+	 *            The ratio between the period frames are sent at and their
+	 *            nominal period.
+	 * @param maximumJitter
+	 *            The maximum random delay added to each frame, in
+	 *            milliseconds.
+	 * @param measureFrom
+	 *            The time after which latency is recorded, in milliseconds.
+	 */
+	private void simulate(int frameCount, int burst, double periodFactor,
+			int maximumJitter, long measureFrom) {
+
+		Random random = new Random(317);
+		double period = 1000 / FRAME_RATE;
+		long[] arrivals = new long[frameCount];
+		for (int i = 0; i < frameCount; i++) {
+			long arrival = Math.round(Math.max(0, i - burst) * period
+					* periodFactor)
+					+ random.nextInt(maximumJitter + 1);
+			arrivals[i] = i == 0 ? arrival : Math.max(arrivals[i - 1], arrival);
+		}
+
+		int next = 0;
+		long end = arrivals[frameCount - 1] + 2000;
+		for (long now = 0; now < end; now++) {
+			while (next < frameCount && arrivals[next] <= now) {
+				int timestamp = (int) Math.round(next * period);
+				Frame frame = new Frame((byte) 26, true, (short) next,
+						timestamp, new byte[16]);
+				frame.setReceiveTime(now);
+				statistics.update((short) next, timestamp, 16,
+						now * 1000000L, 1000);
+				buffer.offer(frame, now);
+				next++;
+			}
+			Frame frame;
+			while ((frame = buffer.poll(now)) != null) {
+				playedCount++;
+				if (now >= measureFrom) {
+					latencySum += now - frame.getReceiveTime();
+					latencyCount++;
+				}
+				frame.release();
+			}
+		}
+	}
+
+	private double getAverageLatency() {
+		assertTrue(latencyCount > 0);
+		return (double) latencySum / latencyCount;
+	}
+}
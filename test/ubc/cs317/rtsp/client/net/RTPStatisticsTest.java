@@ -0,0 +1,122 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ubc.cs317.rtsp.client.model.StreamStatistics;
+
+public class RTPStatisticsTest {
+
+	private static final long MILLISECOND = 1000000L;
+	private static final int CLOCK_RATE = 8000;
+
+	private final RTPStatistics statistics = new RTPStatistics();
+
+	@Test
+	public void sequenceNumbersAreExtendedAcrossWrapAround() {
+		for (int i = 0; i < 16; i++)
+			update(65530 + i, i, i * 10);
+
+		StreamStatistics snapshot = statistics.getSnapshot();
+		assertEquals(16, snapshot.getPacketsReceived());
+		assertEquals(16, snapshot.getExpectedPackets());
+		assertEquals(65536 + 9, snapshot.getHighestSequenceNumber());
+		assertEquals(0, snapshot.getCumulativeLost());
+		assertEquals(0, snapshot.getReorderedPackets());
+	}
+
+	@Test
+	public void reorderedPacketsAreCountedAsReceived() {
+		int[] sequences = { 65534, 65535, 2, 0, 1, 3 };
+		for (int i = 0; i < sequences.length; i++)
+			update(sequences[i], i, i * 10);
+
+		StreamStatistics snapshot = statistics.getSnapshot();
+		assertEquals(6, snapshot.getPacketsReceived());
+		assertEquals(6, snapshot.getExpectedPackets());
+		assertEquals(0, snapshot.getCumulativeLost());
+		assertEquals(2, snapshot.getReorderedPackets());
+		assertEquals(2, snapshot.getMaximumReorderDepth());
+	}
+
+	@Test
+	public void duplicatePacketsMakeLossNegative() {
+		int[] sequences = { 10, 11, 12, 12, 11, 13 };
+		for (int i = 0; i < sequences.length; i++)
+			update(sequences[i], i, i * 10);
+		// Ends the reporting interval.
+		update(14, 6, 1000);
+
+		StreamStatistics snapshot = statistics.getSnapshot();
+		assertEquals(7, snapshot.getPacketsReceived());
+		assertEquals(5, snapshot.getExpectedPackets());
+		assertEquals(-2, snapshot.getCumulativeLost());
+		// A copy of the highest packet received is not out of order.
+		assertEquals(1, snapshot.getReorderedPackets());
+		assertEquals(0, snapshot.getFractionLost(), 0);
+	}
+
+	@Test
+	public void fractionLostIsComputedPerInterval() {
+		// Packets 2, 6, 10, 14 and 18 are lost in the first interval, which
+		// ends with packet 19.
+		for (int i = 0; i < 20; i++)
+			if (i % 4 != 2)
+				update(i, i, i == 19 ? 1000 : i * 10);
+
+		StreamStatistics snapshot = statistics.getSnapshot();
+		assertEquals(15, snapshot.getPacketsReceived());
+		assertEquals(20, snapshot.getExpectedPackets());
+		assertEquals(5, snapshot.getCumulativeLost());
+		assertEquals(0.25, snapshot.getFractionLost(), 1e-9);
+
+		// No loss in the second interval.
+		for (int i = 20; i < 40; i++)
+			update(i, i, i == 39 ? 2000 : 1000 + (i - 19) * 10);
+		snapshot = statistics.getSnapshot();
+		assertEquals(5, snapshot.getCumulativeLost());
+		assertEquals(0, snapshot.getFractionLost(), 0);
+	}
+
+	@Test
+	public void jitterConvergesToMeanDeviation() {
+		// Packets are sent every 40 ms, and every other packet is delayed by
+		// 10 ms, so each transit time differs from the previous by 10 ms.
+		for (int i = 0; i < 500; i++)
+			update(i, i * 40, i * 40 + (i % 2) * 10);
+
+		assertEquals(10, statistics.getJitter(), 1e-6);
+		assertEquals(10, statistics.getSnapshot().getJitter(), 1e-6);
+	}
+
+	@Test
+	public void constantDelayHasNoJitter() {
+		for (int i = 0; i < 100; i++)
+			update(i, i * 40, 25 + i * 40);
+
+		assertEquals(0, statistics.getJitter(), 1e-9);
+	}
+
+	/**
+	 * Updates the statistics with a 100-byte packet, whose timestamp is given
+	 * in milliseconds and converted to CLOCK_RATE units.
+	 */
+	private void update(int sequenceNumber, int timestampMs, long arrivalMs) {
+		statistics.update((short) sequenceNumber, timestampMs * CLOCK_RATE
+				/ 1000, 100, arrivalMs * MILLISECOND, CLOCK_RATE);
+	}
+}
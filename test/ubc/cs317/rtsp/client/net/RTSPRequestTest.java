@@ -0,0 +1,143 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class RTSPRequestTest {
+
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	@Test
+	public void writesRequestWithoutBody() throws Exception {
+		RTSPRequest request = new RTSPRequest("SETUP", "movie.Mjpeg")
+				.setCSeq(1).setRtpPort(25000);
+
+		assertEquals("SETUP movie.Mjpeg RTSP/1.0\r\n" + "CSeq: 1\r\n"
+				+ "Transport: RTP/UDP; client_port=25000\r\n" + "\r\n",
+				send(request, 0));
+	}
+
+	@Test
+	public void writesRequestWithoutBodyInSeveralWrites() throws Exception {
+		RTSPRequest request = new RTSPRequest("PLAY", "movie.Mjpeg")
+				.setCSeq(12).setSession("123456");
+
+		assertEquals("PLAY movie.Mjpeg RTSP/1.0\r\n" + "CSeq: 12\r\n"
+				+ "Session: 123456\r\n" + "\r\n", send(request, 5));
+	}
+
+	@Test
+	public void writesRequestWithBody() throws Exception {
+		ByteBuffer body = ByteBuffer.wrap("position: 10\r\n".getBytes(CHARSET));
+		RTSPRequest request = new RTSPRequest("SET_PARAMETER", "movie.Mjpeg")
+				.setCSeq(3).setSession("42").setBody(body);
+
+		String expected = "SET_PARAMETER movie.Mjpeg RTSP/1.0\r\n"
+				+ "CSeq: 3\r\n" + "Session: 42\r\n" + "Content-Length: 14\r\n"
+				+ "\r\n" + "position: 10\r\n";
+		assertEquals(expected, send(request, 0));
+		assertEquals(expected, send(request, 7));
+		assertEquals(0, body.position());
+	}
+
+	@Test
+	public void writesRequestWithEmptyBody() throws Exception {
+		RTSPRequest request = new RTSPRequest("GET_PARAMETER", "movie.Mjpeg")
+				.setCSeq(4).setBody(ByteBuffer.allocate(0));
+
+		assertEquals("GET_PARAMETER movie.Mjpeg RTSP/1.0\r\n" + "CSeq: 4\r\n"
+				+ "Content-Length: 0\r\n" + "\r\n", send(request, 0));
+	}
+
+	@Test
+	public void encodedLengthMatchesEncoding() {
+		RTSPRequest request = new RTSPRequest("SETUP", "movie.Mjpeg")
+				.setCSeq(99).setInterleaved(0).setSession("1");
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		request.encode(buffer);
+
+		assertEquals(request.getEncodedLength(), buffer.position());
+	}
+
+	/**
+	 * Sends a request to a channel that accepts at most a number of bytes in
+	 * each write, and returns the bytes written.
+	 */
+	private static String send(RTSPRequest request, int maximumWrite)
+			throws Exception {
+		CaptureChannel channel = new CaptureChannel(maximumWrite);
+		request.sendRequest(channel, ByteBuffer.allocate(16));
+		return new String(channel.output.toByteArray(), CHARSET);
+	}
+
+	/**
+	 * This class is a channel that keeps every byte written to it.
+	 */
+	private static class CaptureChannel implements GatheringByteChannel {
+
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private final int maximumWrite;
+
+		private CaptureChannel(int maximumWrite) {
+			this.maximumWrite = maximumWrite > 0 ? maximumWrite
+					: Integer.MAX_VALUE;
+		}
+
+		@Override
+		public int write(ByteBuffer source) {
+			int length = Math.min(source.remaining(), maximumWrite);
+			for (int i = 0; i < length; i++)
+				output.write(source.get());
+			return length;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources, int offset, int length) {
+			long written = 0;
+			for (int i = offset; i < offset + length; i++) {
+				if (written == maximumWrite)
+					break;
+				int limit = sources[i].limit();
+				sources[i].limit(sources[i].position()
+						+ (int) Math.min(sources[i].remaining(), maximumWrite
+								- written));
+				written += write(sources[i]);
+				sources[i].limit(limit);
+			}
+			return written;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources) {
+			return write(sources, 0, sources.length);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
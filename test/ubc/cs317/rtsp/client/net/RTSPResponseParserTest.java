@@ -0,0 +1,261 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+
+public class RTSPResponseParserTest {
+
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private static final byte[] SETUP = bytes("RTSP/1.0 200 OK\r\n"
+			+ "CSeq: 1\r\nSession: 123456\r\n\r\n");
+	private static final byte[] DESCRIBE = bytes("RTSP/1.0 200 OK\r\n"
+			+ "CSeq: 2\r\nContent-Type: application/sdp\r\n"
+			+ "Content-Length: 13\r\n\r\nv=0\r\ns=test\r\n");
+	private static final byte[] ERROR = bytes("RTSP/1.0 454 Session Not Found\n"
+			+ "CSeq: 3\n\n");
+	private static final byte[] PACKET = { '$', 0, 0, 5, 1, 2, 3, 4, 5 };
+
+	private final List<String> interleaved = new ArrayList<String>();
+	private final RTSPResponseParser.InterleavedDataHandler handler = new RTSPResponseParser.InterleavedDataHandler() {
+		@Override
+		public void interleavedDataReceived(int channel, byte[] data,
+				int offset, int length) {
+			interleaved.add(channel + ":"
+					+ Arrays.toString(Arrays.copyOfRange(data, offset, offset
+							+ length)));
+		}
+	};
+
+	@Test
+	public void responsesSplitAtEveryOffsetAreParsed() throws RTSPException {
+		byte[] stream = concatenate(SETUP, PACKET, DESCRIBE, bytes("\r\n"),
+				PACKET, ERROR);
+
+		for (int split = 0; split <= stream.length; split++) {
+			interleaved.clear();
+			RTSPResponseParser parser = new RTSPResponseParser(16, handler);
+			List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+			feed(parser, stream, 0, split, responses);
+			feed(parser, stream, split, stream.length, responses);
+
+			assertEquals("split at " + split, 3, responses.size());
+			assertSetup(responses.get(0));
+			assertDescribe(responses.get(1));
+			assertEquals(454, responses.get(2).getResponseCode());
+			assertEquals("Session Not Found", responses.get(2)
+					.getResponseMessage());
+			assertEquals(3, responses.get(2).getHeaderIntValue("CSeq"));
+			assertEquals(2, interleaved.size());
+			assertEquals("0:[1, 2, 3, 4, 5]", interleaved.get(1));
+		}
+	}
+
+	@Test
+	public void bodyIsReadAcrossSeveralReads() throws RTSPException {
+		RTSPResponseParser parser = new RTSPResponseParser(handler);
+		int headerLength = DESCRIBE.length - 13;
+		List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+
+		feed(parser, DESCRIBE, 0, headerLength, responses);
+		assertEquals(0, responses.size());
+		feed(parser, DESCRIBE, headerLength, headerLength + 5, responses);
+		assertEquals(0, responses.size());
+		feed(parser, DESCRIBE, headerLength + 5, DESCRIBE.length, responses);
+
+		assertEquals(1, responses.size());
+		assertDescribe(responses.get(0));
+	}
+
+	@Test
+	public void responseWithoutContentLengthHasNoBody() throws RTSPException {
+		RTSPResponseParser parser = new RTSPResponseParser(handler);
+		List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+		feed(parser, concatenate(SETUP, SETUP), 0, 2 * SETUP.length, responses);
+
+		assertEquals(2, responses.size());
+		for (RTSPResponse response : responses) {
+			assertSetup(response);
+			assertEquals(0, response.getContentLength());
+			assertEquals(0, response.getBody().remaining());
+		}
+	}
+
+	@Test
+	public void interleavedDataIsDiscardedWithoutHandler()
+			throws RTSPException {
+		RTSPResponseParser parser = new RTSPResponseParser();
+		List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+		byte[] stream = concatenate(PACKET, PACKET, SETUP, PACKET);
+		feed(parser, stream, 0, stream.length, responses);
+
+		assertEquals(1, responses.size());
+		assertSetup(responses.get(0));
+		assertEquals(0, parser.getBuffer().position());
+	}
+
+	@Test
+	public void largestResponseIsAccepted() throws RTSPException {
+		String header = "RTSP/1.0 200 OK\r\nContent-Length: ";
+		int headerLength = header.length() + 7 + 4;
+		int bodyLength = RTSPResponseParser.MAXIMUM_MESSAGE_LENGTH
+				- headerLength;
+		byte[] message = concatenate(bytes(header + bodyLength + "\r\n\r\n"),
+				new byte[bodyLength]);
+		assertEquals(RTSPResponseParser.MAXIMUM_MESSAGE_LENGTH, message.length);
+
+		RTSPResponseParser parser = new RTSPResponseParser(handler);
+		List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+		feed(parser, message, 0, message.length, responses);
+
+		assertEquals(1, responses.size());
+		assertEquals(bodyLength, responses.get(0).getContentLength());
+	}
+
+	@Test
+	public void bodyOverLimitIsRejected() {
+		int bodyLength = RTSPResponseParser.MAXIMUM_MESSAGE_LENGTH - 10;
+		byte[] message = bytes("RTSP/1.0 200 OK\r\nContent-Length: "
+				+ bodyLength + "\r\n\r\n");
+		assertRejected(message);
+	}
+
+	@Test
+	public void headerOverLimitIsRejected() {
+		byte[] line = bytes("X-Padding: 0123456789abcdef0123456789abcdef\r\n");
+		byte[] message = new byte[RTSPResponseParser.MAXIMUM_MESSAGE_LENGTH];
+		System.arraycopy(SETUP, 0, message, 0, 17);
+		for (int i = 17; i < message.length; i += line.length)
+			System.arraycopy(line, 0, message, i,
+					Math.min(line.length, message.length - i));
+		assertRejected(message);
+	}
+
+	@Test
+	public void bufferIsCompactedBeforeGrowing() throws RTSPException {
+		int capacity = SETUP.length + 10;
+		RTSPResponseParser parser = new RTSPResponseParser(capacity, handler);
+		byte[] stream = concatenate(SETUP, DESCRIBE);
+
+		parser.getBuffer().put(stream, 0, capacity);
+		assertSetup(parser.nextResponse());
+		assertNull(parser.nextResponse());
+
+		// The start of the second response is moved to the start of the
+		// buffer.
+		ByteBuffer buffer = parser.getBuffer();
+		assertEquals(capacity, buffer.capacity());
+		assertEquals(10, buffer.position());
+		assertArrayEquals(Arrays.copyOfRange(DESCRIBE, 0, 10),
+				Arrays.copyOfRange(buffer.array(), 0, 10));
+
+		List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+		feed(parser, stream, capacity, stream.length, responses);
+		assertEquals(1, responses.size());
+		assertDescribe(responses.get(0));
+	}
+
+	@Test
+	public void bufferGrowsToFitLargeResponse() throws RTSPException {
+		RTSPResponseParser parser = new RTSPResponseParser(16, handler);
+		List<RTSPResponse> responses = new ArrayList<RTSPResponse>();
+		feed(parser, DESCRIBE, 0, DESCRIBE.length, responses);
+
+		assertEquals(1, responses.size());
+		assertDescribe(responses.get(0));
+		int capacity = parser.getBuffer().capacity();
+		// The buffer doubles in size each time it grows.
+		assertEquals(0, capacity & (capacity - 1));
+		assertTrue(capacity >= DESCRIBE.length);
+	}
+
+	/**
+	 * Adds the given range of data to the parser, as many bytes at a time as
+	 * fit in its buffer, collecting the responses parsed after each addition.
+	 */
+	private static void feed(RTSPResponseParser parser, byte[] data,
+			int from, int to, List<RTSPResponse> responses)
+			throws RTSPException {
+		while (from < to) {
+			ByteBuffer buffer = parser.getBuffer();
+			int length = Math.min(buffer.remaining(), to - from);
+			buffer.put(data, from, length);
+			from += length;
+			RTSPResponse response;
+			while ((response = parser.nextResponse()) != null)
+				responses.add(response);
+		}
+	}
+
+	private void assertRejected(byte[] message) {
+		RTSPResponseParser parser = new RTSPResponseParser(handler);
+		try {
+			feed(parser, message, 0, message.length,
+					new ArrayList<RTSPResponse>());
+			fail("Response over the limit was accepted.");
+		} catch (RTSPException e) {
+			assertEquals("RTSP response too large.", e.getMessage());
+		}
+	}
+
+	private static void assertSetup(RTSPResponse response) {
+		assertNotNull(response);
+		assertEquals(200, response.getResponseCode());
+		assertEquals(1, response.getHeaderIntValue("CSeq"));
+		assertEquals("123456", response.getHeaderValue("session"));
+	}
+
+	private static void assertDescribe(RTSPResponse response) {
+		assertEquals(200, response.getResponseCode());
+		assertEquals(2, response.getHeaderIntValue("CSeq"));
+		assertEquals(13, response.getContentLength());
+		ByteBuffer body = response.getBody();
+		byte[] bytes = new byte[body.remaining()];
+		body.get(bytes);
+		assertEquals("v=0\r\ns=test\r\n", new String(bytes, CHARSET));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(CHARSET);
+	}
+
+	private static byte[] concatenate(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts)
+			length += part.length;
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+}
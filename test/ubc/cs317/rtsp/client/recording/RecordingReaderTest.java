@@ -0,0 +1,147 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.recording;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.FramePool;
+
+public class RecordingReaderTest {
+
+	static final String VIDEO_NAME = "movie.mjpeg";
+	static final int FRAME_COUNT = 10;
+	static final int FRAMES_PER_SEGMENT = 4;
+	static final int FRAME_INTERVAL_MS = 40;
+	static final int FIRST_TIMESTAMP = 1000;
+	static final short FIRST_SEQUENCE_NUMBER = -3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RecordingReader reader;
+
+	@Before
+	public void setUp() throws Exception {
+		List<File> segmentFiles = record(folder.getRoot());
+		assertEquals(3, segmentFiles.size());
+		List<File> segments = RecordingReader.findSegments(folder.getRoot(),
+				VIDEO_NAME);
+		assertEquals(segmentFiles, segments);
+		reader = new RecordingReader(segments);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+	}
+
+	@Test
+	public void framesAreReadAcrossSegments() throws Exception {
+		assertEquals(VIDEO_NAME, reader.getVideoName());
+		assertEquals(FRAME_COUNT, reader.getFrameCount());
+		assertEquals((FRAME_COUNT - 1) * FRAME_INTERVAL_MS,
+				reader.getDuration());
+
+		FramePool pool = new FramePool(2, 1024);
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			Frame frame = reader.readFrame(i, pool);
+			assertEquals((short) (FIRST_SEQUENCE_NUMBER + i),
+					frame.getSequenceNumber());
+			assertEquals(FIRST_TIMESTAMP + i * FRAME_INTERVAL_MS,
+					frame.getTimestamp());
+			assertEquals(i == FRAME_COUNT - 1, frame.isMarkerOn());
+			assertArrayEquals(payload(i), frame.getPayload());
+			assertEquals(i * FRAME_INTERVAL_MS, reader.getPosition(i));
+			frame.release();
+		}
+	}
+
+	@Test
+	public void exactPositionFindsFrame() {
+		for (int i = 0; i < FRAME_COUNT; i++)
+			assertEquals(i, reader.findFrame(i * FRAME_INTERVAL_MS));
+	}
+
+	@Test
+	public void positionBetweenFramesFindsPreviousFrame() {
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			assertEquals(i, reader.findFrame(i * FRAME_INTERVAL_MS + 1));
+			assertEquals(i, reader.findFrame((i + 1) * FRAME_INTERVAL_MS - 1));
+		}
+	}
+
+	@Test
+	public void positionAtSegmentBoundaryFindsFirstFrameOfSegment() {
+		int boundary = FRAMES_PER_SEGMENT * FRAME_INTERVAL_MS;
+		assertEquals(FRAMES_PER_SEGMENT - 1, reader.findFrame(boundary - 1));
+		assertEquals(FRAMES_PER_SEGMENT, reader.findFrame(boundary));
+		assertEquals(2 * FRAMES_PER_SEGMENT,
+				reader.findFrame(2 * boundary + 1));
+	}
+
+	@Test
+	public void positionOutOfRangeFindsFirstOrLastFrame() {
+		assertEquals(0, reader.findFrame(-1));
+		assertEquals(0, reader.findFrame(Long.MIN_VALUE));
+		assertEquals(FRAME_COUNT - 1, reader.findFrame(reader.getDuration() + 1));
+		assertEquals(FRAME_COUNT - 1, reader.findFrame(Long.MAX_VALUE));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void frameOutOfRangeIsRejected() throws Exception {
+		reader.readFrame(FRAME_COUNT, new FramePool(1, 1024));
+	}
+
+	/**
+	 * Records FRAME_COUNT frames of VIDEO_NAME in a directory, in segments of
+	 * FRAMES_PER_SEGMENT frames.
+	 *
+	 * @return The segment files of the recording.
+	 */
+	static List<File> record(File directory) throws Exception {
+		StreamRecorder recorder = new StreamRecorder(directory, 1 << 16,
+				FRAMES_PER_SEGMENT, FRAME_COUNT + 2);
+		recorder.videoNameChanged(VIDEO_NAME);
+		for (int i = 0; i < FRAME_COUNT; i++)
+			recorder.frameReceived(new Frame((byte) 26, i == FRAME_COUNT - 1,
+					(short) (FIRST_SEQUENCE_NUMBER + i), FIRST_TIMESTAMP + i
+							* FRAME_INTERVAL_MS, payload(i)));
+		recorder.close();
+		assertEquals(0, recorder.getDroppedCount());
+		List<File> segmentFiles = recorder.getSegmentFiles();
+		for (File file : segmentFiles)
+			assertTrue(file.getName().startsWith(
+					StreamRecorder.getRecordingPrefix(VIDEO_NAME)));
+		return segmentFiles;
+	}
+
+	static byte[] payload(int index) {
+		byte[] payload = new byte[50 + index];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = (byte) (index * 31 + i);
+		return payload;
+	}
+}
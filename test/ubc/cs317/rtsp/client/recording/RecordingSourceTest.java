@@ -0,0 +1,128 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC317 - Internet Programming
+ * Assignment 2
+ * 
+ * Author: Jonatan Schroeder
+ * January 2013
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC317 course at UBC.
+ */
+
+package ubc.cs317.rtsp.client.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ubc.cs317.rtsp.client.exception.RTSPException;
+import ubc.cs317.rtsp.client.model.Frame;
+import ubc.cs317.rtsp.client.model.Session;
+import ubc.cs317.rtsp.client.model.listener.SessionListener;
+
+public class RecordingSourceTest {
+
+	private static final long TIMEOUT_MS = 5000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<Short> played = new ArrayList<Short>();
+	private Session session;
+
+	@Before
+	public void setUp() throws Exception {
+		RecordingReaderTest.record(folder.getRoot());
+		// Frames are replayed as fast as possible.
+		session = new Session(RecordingSource.factory(folder.getRoot(), 0));
+		session.addSessionListener(new SessionListener() {
+			@Override
+			public void exceptionThrown(RTSPException exception) {
+			}
+
+			@Override
+			public void frameReceived(Frame frame) {
+				synchronized (played) {
+					played.add(frame.getSequenceNumber());
+					played.notifyAll();
+				}
+			}
+
+			@Override
+			public void videoNameChanged(String videoName) {
+			}
+		});
+		session.open(RecordingReaderTest.VIDEO_NAME).await();
+		assertTrue(session.isSeekable());
+	}
+
+	@After
+	public void tearDown() {
+		session.closeConnection();
+	}
+
+	@Test
+	public void playbackStartsAtFirstFrame() throws Exception {
+		assertPlayedFrom(0);
+	}
+
+	@Test
+	public void seekToExactPosition() throws Exception {
+		session.seek(2 * RecordingReaderTest.FRAME_INTERVAL_MS).await();
+		assertPlayedFrom(2);
+	}
+
+	@Test
+	public void seekBetweenFramesStartsAtPreviousFrame() throws Exception {
+		session.seek(6 * RecordingReaderTest.FRAME_INTERVAL_MS - 1).await();
+		assertPlayedFrom(5);
+	}
+
+	@Test
+	public void seekToSegmentBoundary() throws Exception {
+		session.seek(RecordingReaderTest.FRAMES_PER_SEGMENT
+				* RecordingReaderTest.FRAME_INTERVAL_MS).await();
+		assertPlayedFrom(RecordingReaderTest.FRAMES_PER_SEGMENT);
+	}
+
+	@Test
+	public void seekBeforeStartStartsAtFirstFrame() throws Exception {
+		session.seek(-100).await();
+		assertPlayedFrom(0);
+	}
+
+	@Test
+	public void seekAfterEndStartsAtLastFrame() throws Exception {
+		session.seek(Long.MAX_VALUE).await();
+		assertPlayedFrom(RecordingReaderTest.FRAME_COUNT - 1);
+	}
+
+	/**
+	 * Plays the video until it ends, and checks that the frames played are
+	 * the frames of the recording starting at the given one.
+	 */
+	private void assertPlayedFrom(int first) throws Exception {
+		session.play().await();
+		int expectedCount = RecordingReaderTest.FRAME_COUNT - first;
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		synchronized (played) {
+			while (played.size() < expectedCount
+					&& System.currentTimeMillis() < deadline)
+				played.wait(100);
+			assertEquals(expectedCount, played.size());
+			for (int i = 0; i < expectedCount; i++)
+				assertEquals((short) (RecordingReaderTest.FIRST_SEQUENCE_NUMBER
+						+ first + i), played.get(i).shortValue());
+		}
+	}
+}